@@ -16,8 +16,11 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 @NotNullByDefault
 public interface ClientHelper {
 
@@ -70,6 +73,29 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	/**
+	 * Returns the metadata for up to the given number of delivered messages
+	 * in the given group that come before the given position, newest first.
+	 * Messages are ordered by timestamp and then by message ID, and a null
+	 * message ID represents the position after all messages with the given
+	 * timestamp. Messages without metadata are skipped, so fewer messages
+	 * may be returned even if more exist. The map's iteration order is the
+	 * order of the messages.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, long timestamp, @Nullable MessageId m,
+			int limit) throws DbException, FormatException;
+
+	/**
+	 * Returns the metadata for any of the given messages that have been
+	 * delivered and have metadata, using one query for any messages whose
+	 * metadata isn't cached. The map's iteration order is the order of the
+	 * given IDs.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -82,6 +108,9 @@ public interface ClientHelper {
 	void mergeMessageMetadata(Transaction txn, MessageId m,
 			BdfDictionary metadata) throws DbException, FormatException;
 
+	void deleteMessageMetadata(Transaction txn, MessageId m)
+			throws DbException;
+
 	byte[] toByteArray(BdfDictionary dictionary) throws FormatException;
 
 	byte[] toByteArray(BdfList list) throws FormatException;
@@ -17,6 +17,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -179,6 +180,15 @@ public interface ContactManager {
 	 */
 	Collection<Contact> getContacts() throws DbException;
 
+	/**
+	 * Returns up to the given number of contacts with IDs greater than the
+	 * given ID, ordered by ID. A null ID returns the contacts with the
+	 * lowest IDs. To get the next page, pass the ID of the last contact
+	 * returned.
+	 */
+	List<Contact> getContacts(@Nullable ContactId after, int limit)
+			throws DbException;
+
 	/**
 	 * Removes a contact and all associated state.
 	 */
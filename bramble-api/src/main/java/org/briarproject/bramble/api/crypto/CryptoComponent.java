@@ -2,6 +2,7 @@ package org.briarproject.bramble.api.crypto;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 
@@ -104,6 +105,18 @@ public interface CryptoComponent {
 	 */
 	byte[] hash(String label, byte[]... inputs);
 
+	/**
+	 * Returns the hash of the given inputs, which is the same as the hash
+	 * returned by {@link #hash(String, byte[]...)} for the remaining bytes of
+	 * each buffer. This allows part of an array to be hashed without copying
+	 * it. The positions of the buffers are not changed.
+	 *
+	 * @param label A namespaced label indicating the purpose of this hash, to
+	 * prevent it from being repurposed or colliding with a hash created for
+	 * another purpose
+	 */
+	byte[] hash(String label, ByteBuffer... inputs);
+
 	/**
 	 * Returns a message authentication code with the given key over the
 	 * given inputs. The inputs are unambiguously combined by prefixing each
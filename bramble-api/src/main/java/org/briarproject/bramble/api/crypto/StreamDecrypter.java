@@ -15,4 +15,15 @@ public interface StreamDecrypter {
 	 * or if authenticated decryption fails.
 	 */
 	int readFrame(byte[] payload) throws IOException;
+
+	/**
+	 * Returns the maximum total length of the payload and padding of a
+	 * frame read from this stream. The buffer passed to
+	 * {@link #readFrame(byte[])} must be at least this long. The stream
+	 * header is read if it has not already been read.
+	 *
+	 * @throws IOException if an error occurs while reading the stream header,
+	 * or if authenticated decryption fails.
+	 */
+	int getMaxPayloadLength() throws IOException;
 }
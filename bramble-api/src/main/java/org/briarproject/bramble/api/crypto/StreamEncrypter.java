@@ -13,6 +13,12 @@ public interface StreamEncrypter {
 	void writeFrame(byte[] payload, int payloadLength, int paddingLength,
 			boolean finalFrame) throws IOException;
 
+	/**
+	 * Returns the maximum total length of the payload and padding of a
+	 * frame written to this stream.
+	 */
+	int getMaxPayloadLength();
+
 	/**
 	 * Flushes the stream.
 	 */
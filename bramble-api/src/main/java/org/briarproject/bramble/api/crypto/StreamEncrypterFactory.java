@@ -10,8 +10,12 @@ public interface StreamEncrypterFactory {
 
 	/**
 	 * Creates a {@link StreamEncrypter} for encrypting a transport stream.
+	 *
+	 * @param largeFrames true if the stream should use large frames. This
+	 * must only be used if the recipient has said it can read them.
 	 */
-	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx);
+	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx,
+			boolean largeFrames);
 
 	/**
 	 * Creates a {@link StreamEncrypter} for encrypting a contact exchange
@@ -11,4 +11,10 @@ public interface BdfReaderFactory {
 
 	BdfReader createReader(InputStream in, int nestedLimit,
 			int maxBufferSize);
+
+	/**
+	 * Returns a reader that reads directly from the given part of a byte
+	 * array, which must not be modified while the reader is in use.
+	 */
+	BdfReader createReader(byte[] b, int off, int len);
 }
@@ -210,6 +210,16 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Collection<Contact> getContacts(Transaction txn) throws DbException;
 
+	/**
+	 * Returns up to the given number of contacts with IDs greater than the
+	 * given ID, ordered by ID. A null ID returns the contacts with the
+	 * lowest IDs.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Contact> getContacts(Transaction txn, @Nullable ContactId after,
+			int limit) throws DbException;
+
 	/**
 	 * Returns a possibly empty collection of contacts with the given author ID.
 	 * <p/>
@@ -248,6 +258,14 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<Group> getGroups(Transaction txn, ClientId c, int majorVersion)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of all groups belonging to the given client.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<GroupId> getGroupIds(Transaction txn, ClientId c,
+			int majorVersion) throws DbException;
+
 	/**
 	 * Returns the given group's visibility to the given contact, or
 	 * {@link Visibility INVISIBLE} if the group is not in the database.
@@ -280,6 +298,17 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Message getMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the messages with the given IDs, using one query.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws NoSuchMessageException if any of the messages doesn't exist
+	 * @throws MessageDeletedException if any of the messages has been deleted
+	 */
+	Map<MessageId, Message> getMessages(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the IDs of all delivered messages in the given group.
 	 * <p/>
@@ -288,6 +317,21 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the IDs and timestamps of up to the given number of delivered
+	 * messages in the given group that come before the given position, newest
+	 * first. Messages are ordered by timestamp and then by message ID. A null
+	 * message ID represents the position after all messages with the given
+	 * timestamp, so passing {@link Long#MAX_VALUE} and null returns the
+	 * newest messages. The map's iteration order is the order of the
+	 * messages, and the last entry is the position of the next page.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageTimestamps(Transaction txn, GroupId g,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of any messages that need to be validated.
 	 * <p/>
@@ -340,6 +384,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Metadata getMessageMetadata(Transaction txn, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that have been
+	 * delivered and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -395,6 +448,15 @@ public interface DatabaseComponent extends TransactionManager {
 	MessageStatus getMessageStatus(Transaction txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of the given delivered messages with respect to the
+	 * given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(Transaction txn,
+			ContactId c, Collection<MessageId> ids) throws DbException;
+
 	/*
 	 * Returns the next time (in milliseconds since the Unix epoch) when a
 	 * message is due to be sent to the given contact. The returned value may
@@ -435,6 +497,14 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	List<Byte> getSyncVersions(Transaction txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the capabilities advertised by the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Byte> getSyncCapabilities(Transaction txn, ContactId c)
+			throws DbException;
+
 	/**
 	 * Returns all transport keys for the given transport.
 	 * <p/>
@@ -481,6 +551,15 @@ public interface DatabaseComponent extends TransactionManager {
 	void receiveMessage(Transaction txn, ContactId c, Message m)
 			throws DbException;
 
+	/**
+	 * Processes some messages from the given contact. This is equivalent to
+	 * calling {@link #receiveMessage(Transaction, ContactId, Message)
+	 * receiveMessage()} for each message, but is faster for large numbers of
+	 * messages.
+	 */
+	void receiveMessages(Transaction txn, ContactId c,
+			Collection<Message> messages) throws DbException;
+
 	/**
 	 * Processes an offer from the given contact.
 	 */
@@ -593,6 +672,12 @@ public interface DatabaseComponent extends TransactionManager {
 	void setSyncVersions(Transaction txn, ContactId c, List<Byte> supported)
 			throws DbException;
 
+	/**
+	 * Sets the capabilities advertised by the given contact.
+	 */
+	void setSyncCapabilities(Transaction txn, ContactId c,
+			List<Byte> supported) throws DbException;
+
 	/**
 	 * Marks the given transport keys as usable for outgoing streams.
 	 */
@@ -22,6 +22,12 @@ public interface TransportConnectionWriter {
 	 */
 	int getMaxIdleTime();
 
+	/**
+	 * Returns true if the transport has enough bandwidth to benefit from
+	 * large frames.
+	 */
+	boolean isHighBandwidth();
+
 	/**
 	 * Returns an output stream for writing to the transport connection.
 	 */
@@ -34,6 +34,14 @@ public abstract class AbstractDuplexTransportConnection
 	protected abstract void closeConnection(boolean exception)
 			throws IOException;
 
+	/**
+	 * Returns true if the connection has enough bandwidth to benefit from
+	 * large frames. The default implementation returns false.
+	 */
+	protected boolean isHighBandwidth() {
+		return false;
+	}
+
 	@Override
 	public TransportConnectionReader getReader() {
 		return reader;
@@ -71,6 +79,11 @@ public abstract class AbstractDuplexTransportConnection
 			return plugin.getMaxIdleTime();
 		}
 
+		@Override
+		public boolean isHighBandwidth() {
+			return AbstractDuplexTransportConnection.this.isHighBandwidth();
+		}
+
 		@Override
 		public OutputStream getOutputStream() throws IOException {
 			return AbstractDuplexTransportConnection.this.getOutputStream();
@@ -0,0 +1,27 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A record telling the recipient which optional features the sender
+ * supports. Capabilities are independent of the version of the sync
+ * protocol.
+ */
+@Immutable
+@NotNullByDefault
+public class Capabilities {
+
+	private final List<Byte> supported;
+
+	public Capabilities(List<Byte> supported) {
+		this.supported = supported;
+	}
+
+	public List<Byte> getSupportedCapabilities() {
+		return supported;
+	}
+}
@@ -1,10 +1,14 @@
 package org.briarproject.bramble.api.sync;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.util.ByteUtils;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 
 @Immutable
@@ -19,7 +23,12 @@ public class Message {
 	private final MessageId id;
 	private final GroupId groupId;
 	private final long timestamp;
-	private final byte[] body;
+	private final int bodyLength;
+
+	// At least one of these is set by the constructor. The other is created
+	// from it the first time it's needed
+	@Nullable
+	private volatile byte[] body, raw;
 
 	public Message(MessageId id, GroupId groupId, long timestamp, byte[] body) {
 		if (body.length == 0) throw new IllegalArgumentException();
@@ -29,6 +38,26 @@ public class Message {
 		this.groupId = groupId;
 		this.timestamp = timestamp;
 		this.body = body;
+		bodyLength = body.length;
+	}
+
+	/**
+	 * Creates a message from its raw form, which consists of the header
+	 * followed by the body. The array is used without being copied, so it
+	 * must not be modified after calling this constructor.
+	 */
+	public Message(MessageId id, byte[] raw) {
+		if (raw.length <= MESSAGE_HEADER_LENGTH)
+			throw new IllegalArgumentException();
+		if (raw.length > MAX_MESSAGE_LENGTH)
+			throw new IllegalArgumentException();
+		this.id = id;
+		byte[] g = new byte[UniqueId.LENGTH];
+		System.arraycopy(raw, 0, g, 0, UniqueId.LENGTH);
+		groupId = new GroupId(g);
+		timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
+		this.raw = raw;
+		bodyLength = raw.length - MESSAGE_HEADER_LENGTH;
 	}
 
 	/**
@@ -56,14 +85,40 @@ public class Message {
 	 * Returns the length of the raw message in bytes.
 	 */
 	public int getRawLength() {
-		return MESSAGE_HEADER_LENGTH + body.length;
+		return MESSAGE_HEADER_LENGTH + bodyLength;
 	}
 
 	/**
 	 * Returns the message body.
 	 */
 	public byte[] getBody() {
-		return body;
+		byte[] b = body;
+		if (b == null) {
+			byte[] r = raw;
+			if (r == null) throw new AssertionError();
+			b = new byte[bodyLength];
+			System.arraycopy(r, MESSAGE_HEADER_LENGTH, b, 0, bodyLength);
+			body = b;
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the raw message, which consists of the header followed by the
+	 * body. The returned array must not be modified.
+	 */
+	public byte[] getRaw() {
+		byte[] r = raw;
+		if (r == null) {
+			byte[] b = body;
+			if (b == null) throw new AssertionError();
+			r = new byte[MESSAGE_HEADER_LENGTH + bodyLength];
+			System.arraycopy(groupId.getBytes(), 0, r, 0, UniqueId.LENGTH);
+			ByteUtils.writeUint64(timestamp, r, UniqueId.LENGTH);
+			System.arraycopy(b, 0, r, MESSAGE_HEADER_LENGTH, bodyLength);
+			raw = r;
+		}
+		return r;
 	}
 
 	@Override
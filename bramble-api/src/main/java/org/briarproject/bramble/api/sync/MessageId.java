@@ -24,6 +24,12 @@ public class MessageId extends UniqueId {
 	public static final String BLOCK_LABEL =
 			"org.briarproject.bramble/MESSAGE_BLOCK";
 
+	/**
+	 * Label for hashing pairs of nodes in the block tree of a message.
+	 */
+	public static final String TREE_LABEL =
+			"org.briarproject.bramble/MESSAGE_TREE";
+
 	public MessageId(byte[] id) {
 		super(id);
 	}
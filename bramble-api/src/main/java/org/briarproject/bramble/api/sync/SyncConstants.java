@@ -19,6 +19,19 @@ public interface SyncConstants {
 	 */
 	List<Byte> SUPPORTED_VERSIONS = singletonList(PROTOCOL_VERSION);
 
+	/**
+	 * A capability that a peer advertises to show that it can read transport
+	 * streams with large frames.
+	 *
+	 * @see org.briarproject.bramble.api.transport.TransportConstants#PROTOCOL_VERSION_LARGE_FRAMES
+	 */
+	byte CAPABILITY_LARGE_FRAMES = 0;
+
+	/**
+	 * The capabilities this peer supports.
+	 */
+	List<Byte> SUPPORTED_CAPABILITIES = singletonList(CAPABILITY_LARGE_FRAMES);
+
 	/**
 	 * The maximum length of a group descriptor in bytes.
 	 */
@@ -30,9 +43,16 @@ public interface SyncConstants {
 	int MESSAGE_HEADER_LENGTH = UniqueId.LENGTH + 8;
 
 	/**
-	 * The maximum length of a message body in bytes.
+	 * The length of a block in bytes. A message body is hashed in blocks of
+	 * this length, and the last block may be shorter.
 	 */
-	int MAX_MESSAGE_BODY_LENGTH = 32 * 1024; // 32 KiB
+	int BLOCK_LENGTH = 32 * 1024; // 32 KiB
+
+	/**
+	 * The maximum length of a message body in bytes. Messages are currently
+	 * stored and sent whole, so a message body fits in a single block.
+	 */
+	int MAX_MESSAGE_BODY_LENGTH = BLOCK_LENGTH;
 
 	/**
 	 * The maximum length of a message in bytes.
@@ -44,9 +64,19 @@ public interface SyncConstants {
 	 */
 	int MAX_MESSAGE_IDS = MAX_RECORD_PAYLOAD_BYTES / UniqueId.LENGTH;
 
+	/**
+	 * The maximum number of blocks in a message.
+	 */
+	int MAX_BLOCKS = 1 << 16;
+
 	/**
 	 * The maximum number of versions of the sync protocol a peer may support
 	 * simultaneously.
 	 */
 	int MAX_SUPPORTED_VERSIONS = 10;
+
+	/**
+	 * The maximum number of capabilities a peer may support.
+	 */
+	int MAX_SUPPORTED_CAPABILITIES = 32;
 }
@@ -28,4 +28,8 @@ public interface SyncRecordReader {
 	boolean hasVersions() throws IOException;
 
 	Versions readVersions() throws IOException;
+
+	boolean hasCapabilities() throws IOException;
+
+	Capabilities readCapabilities() throws IOException;
 }
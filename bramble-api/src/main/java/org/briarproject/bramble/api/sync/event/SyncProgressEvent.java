@@ -0,0 +1,63 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast periodically while a simplex sync session is
+ * sending messages to a contact, or while a sync session is receiving
+ * messages from a contact, to report how much has been transferred.
+ */
+@Immutable
+@NotNullByDefault
+public class SyncProgressEvent extends Event {
+
+	private final ContactId contactId;
+	private final boolean outgoing;
+	private final long bytes, duration;
+
+	public SyncProgressEvent(ContactId contactId, boolean outgoing,
+			long bytes, long duration) {
+		this.contactId = contactId;
+		this.outgoing = outgoing;
+		this.bytes = bytes;
+		this.duration = duration;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns true if messages are being sent to the contact, or false if
+	 * they're being received from the contact.
+	 */
+	public boolean isOutgoing() {
+		return outgoing;
+	}
+
+	/**
+	 * Returns the total length in bytes of the messages transferred so far.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the time in milliseconds since the session started.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the average transfer rate in bytes per second since the
+	 * session started.
+	 */
+	public long getBytesPerSecond() {
+		return duration == 0 ? 0 : bytes * 1000 / duration;
+	}
+}
@@ -22,12 +22,13 @@ public class StreamContext {
 	private final TransportId transportId;
 	private final SecretKey tagKey, headerKey;
 	private final long streamNumber;
-	private final boolean handshakeMode;
+	private final boolean handshakeMode, largeFramesSupported;
 
 	public StreamContext(@Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
 			TransportId transportId, SecretKey tagKey, SecretKey headerKey,
-			long streamNumber, boolean handshakeMode) {
+			long streamNumber, boolean handshakeMode,
+			boolean largeFramesSupported) {
 		requireExactlyOneNull(contactId, pendingContactId);
 		this.contactId = contactId;
 		this.pendingContactId = pendingContactId;
@@ -36,6 +37,7 @@ public class StreamContext {
 		this.headerKey = headerKey;
 		this.streamNumber = streamNumber;
 		this.handshakeMode = handshakeMode;
+		this.largeFramesSupported = largeFramesSupported;
 	}
 
 	@Nullable
@@ -67,4 +69,13 @@ public class StreamContext {
 	public boolean isHandshakeMode() {
 		return handshakeMode;
 	}
+
+	/**
+	 * Returns true if the recipient of an outgoing stream has told us that it
+	 * can read streams with large frames. This is always false for incoming
+	 * streams.
+	 */
+	public boolean isLargeFramesSupported() {
+		return largeFramesSupported;
+	}
 }
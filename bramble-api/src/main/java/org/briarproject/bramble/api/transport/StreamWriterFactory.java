@@ -11,8 +11,12 @@ public interface StreamWriterFactory {
 	/**
 	 * Creates an {@link OutputStream OutputStream} for writing to a
 	 * transport stream
+	 *
+	 * @param largeFrames true if the stream should use large frames. This
+	 * must only be used if the recipient has said it can read them.
 	 */
-	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx);
+	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx,
+			boolean largeFrames);
 
 	/**
 	 * Creates an {@link OutputStream OutputStream} for writing to a contact
@@ -9,6 +9,14 @@ public interface TransportConstants {
 	 */
 	int PROTOCOL_VERSION = 4;
 
+	/**
+	 * The version of the transport protocol that allows large frames. This
+	 * version is only used in the stream header: tags are always encoded
+	 * with {@link #PROTOCOL_VERSION}, so peers can recognise the stream
+	 * before they know which frame size it uses.
+	 */
+	int PROTOCOL_VERSION_LARGE_FRAMES = 5;
+
 	/**
 	 * The length of the pseudo-random tag in bytes.
 	 */
@@ -63,6 +71,21 @@ public interface TransportConstants {
 	int MAX_PAYLOAD_LENGTH = MAX_FRAME_LENGTH - FRAME_HEADER_LENGTH
 			- MAC_LENGTH;
 
+	/**
+	 * The maximum length of an encrypted and authenticated frame in bytes,
+	 * including the header, for streams that use
+	 * {@link #PROTOCOL_VERSION_LARGE_FRAMES}. The payload length must fit
+	 * into the 15 bits available in the frame header.
+	 */
+	int MAX_LARGE_FRAME_LENGTH = 32 * 1024; // 32 KiB
+
+	/**
+	 * The maximum total length of the frame payload and padding in bytes,
+	 * for streams that use {@link #PROTOCOL_VERSION_LARGE_FRAMES}.
+	 */
+	int MAX_LARGE_PAYLOAD_LENGTH = MAX_LARGE_FRAME_LENGTH
+			- FRAME_HEADER_LENGTH - MAC_LENGTH;
+
 	/**
 	 * The maximum difference in milliseconds between two peers' clocks.
 	 */
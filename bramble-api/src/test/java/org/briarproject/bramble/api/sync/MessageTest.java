@@ -0,0 +1,47 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageTest extends BrambleTestCase {
+
+	private final MessageId messageId = new MessageId(getRandomId());
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final long timestamp = System.currentTimeMillis();
+	private final byte[] body = getRandomBytes(123);
+
+	@Test
+	public void testRawMessageRoundTrip() {
+		Message m = new Message(messageId, groupId, timestamp, body);
+		byte[] raw = m.getRaw();
+		assertEquals(MESSAGE_HEADER_LENGTH + body.length, raw.length);
+		assertEquals(raw.length, m.getRawLength());
+
+		Message m1 = new Message(messageId, raw);
+		assertEquals(groupId, m1.getGroupId());
+		assertEquals(timestamp, m1.getTimestamp());
+		assertEquals(raw.length, m1.getRawLength());
+		assertArrayEquals(body, m1.getBody());
+	}
+
+	@Test
+	public void testRawMessageIsNotCopied() {
+		byte[] raw = new Message(messageId, groupId, timestamp, body).getRaw();
+		Message m = new Message(messageId, raw);
+		assertSame(raw, m.getRaw());
+		// The body is copied out of the raw message once, when it's needed
+		assertSame(m.getBody(), m.getBody());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRawMessageWithEmptyBodyIsRejected() {
+		new Message(messageId, new byte[MESSAGE_HEADER_LENGTH]);
+	}
+}
@@ -0,0 +1,22 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+
+/**
+ * Creates the crypto components used by benchmarks in other packages.
+ */
+@NotNullByDefault
+public class BenchmarkCrypto {
+
+	public static CryptoComponent createCryptoComponent() {
+		return new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+	}
+
+	public static TransportCrypto createTransportCrypto(
+			CryptoComponent crypto) {
+		return new TransportCryptoImpl(crypto);
+	}
+}
@@ -0,0 +1,67 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.crypto.BenchmarkCrypto.createCryptoComponent;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CryptoComponentBenchmark {
+
+	private static final String LABEL = "org.briarproject.bramble.benchmark";
+
+	@Param({"32", "1024", "32768"})
+	public int inputLength;
+
+	private final CryptoComponent crypto = createCryptoComponent();
+	private final SecretKey macKey = getSecretKey();
+
+	private byte[] input, signature;
+	private PublicKey publicKey;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		input = getRandomBytes(inputLength);
+		KeyPair keyPair = crypto.generateSignatureKeyPair();
+		publicKey = keyPair.getPublic();
+		signature = crypto.sign(LABEL, input, keyPair.getPrivate());
+	}
+
+	@Benchmark
+	public byte[] hash() {
+		return crypto.hash(LABEL, input);
+	}
+
+	@Benchmark
+	public byte[] mac() {
+		return crypto.mac(LABEL, macKey, input);
+	}
+
+	@Benchmark
+	public boolean verifySignature() throws GeneralSecurityException {
+		return crypto.verifySignature(signature, LABEL, input, publicKey);
+	}
+}
@@ -0,0 +1,89 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures the cost per frame of encrypting and decrypting a stream of
+ * full-size frames, with and without large frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StreamCryptoBenchmark {
+
+	private static final int FRAMES = 64;
+
+	private final AuthenticatedCipher cipher =
+			new XSalsa20Poly1305AuthenticatedCipher();
+	private final SecretKey streamHeaderKey = getSecretKey();
+	private final SecretKey frameKey = getSecretKey();
+	private final byte[] streamHeaderNonce =
+			getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Param({"false", "true"})
+	public boolean largeFrames;
+
+	private byte[] payload, ciphertext;
+
+	@Setup
+	public void setUp() throws IOException {
+		payload = getRandomBytes(largeFrames ? MAX_LARGE_PAYLOAD_LENGTH
+				: MAX_PAYLOAD_LENGTH);
+		writeStream();
+		ciphertext = out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int writeFrame() throws IOException {
+		writeStream();
+		return out.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int readFrame() throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(ciphertext);
+		StreamDecrypterImpl d =
+				new StreamDecrypterImpl(in, cipher, 0, streamHeaderKey);
+		int total = 0;
+		for (int i = 0; i < FRAMES; i++) total += d.readFrame(payload);
+		return total;
+	}
+
+	private void writeStream() throws IOException {
+		out.reset();
+		StreamEncrypterImpl e = new StreamEncrypterImpl(out, cipher, 0, null,
+				streamHeaderNonce, streamHeaderKey, frameKey, largeFrames);
+		for (int i = 0; i < FRAMES; i++) {
+			e.writeFrame(payload, payload.length, 0, i == FRAMES - 1);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Measures the cost of encoding and decoding a list shaped like the body of
+ * a typical conversation message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BdfBenchmark {
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	private BdfList list;
+	private byte[] encoded;
+
+	@Setup
+	public void setUp() throws IOException {
+		BdfDictionary attachment = BdfDictionary.of(
+				new BdfEntry("contentType", "image/jpeg"),
+				new BdfEntry("id", getRandomId()));
+		list = BdfList.of(0, getRandomId(), System.currentTimeMillis(),
+				getRandomString(200), BdfList.of(attachment, attachment),
+				getRandomBytes(64));
+		encoded = write();
+	}
+
+	@Benchmark
+	public byte[] writeList() throws IOException {
+		return write();
+	}
+
+	@Benchmark
+	public BdfList readList() throws IOException {
+		BdfReader r = new BdfReaderImpl(encoded, 0, encoded.length,
+				DEFAULT_NESTED_LIMIT, DEFAULT_MAX_BUFFER_SIZE);
+		return r.readList();
+	}
+
+	private byte[] write() throws IOException {
+		out.reset();
+		new BdfWriterImpl(out).writeList(list);
+		return out.toByteArray();
+	}
+}
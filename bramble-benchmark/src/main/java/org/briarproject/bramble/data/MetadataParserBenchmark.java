@@ -0,0 +1,56 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+/**
+ * Measures the cost of parsing metadata shaped like that of a typical
+ * conversation message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MetadataParserBenchmark {
+
+	private final MetadataParser metadataParser =
+			new MetadataParserImpl(new BdfReaderFactoryImpl());
+
+	private Metadata metadata;
+
+	@Setup
+	public void setUp() throws FormatException {
+		BdfDictionary d = BdfDictionary.of(
+				new BdfEntry("timestamp", System.currentTimeMillis()),
+				new BdfEntry("local", true),
+				new BdfEntry("read", false),
+				new BdfEntry("messageType", 0),
+				new BdfEntry("sessionId", getRandomId()),
+				new BdfEntry("autoDeleteTimer", -1));
+		metadata = new MetadataEncoderImpl(new BdfWriterFactoryImpl())
+				.encode(d);
+	}
+
+	@Benchmark
+	public BdfDictionary parse() throws FormatException {
+		return metadataParser.parse(metadata);
+	}
+}
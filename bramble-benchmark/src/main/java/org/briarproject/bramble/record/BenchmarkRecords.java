@@ -0,0 +1,24 @@
+package org.briarproject.bramble.record;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.record.RecordReader;
+import org.briarproject.bramble.api.record.RecordWriter;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates the record readers and writers used by benchmarks in other
+ * packages.
+ */
+@NotNullByDefault
+public class BenchmarkRecords {
+
+	public static RecordReader createRecordReader(InputStream in) {
+		return new RecordReaderImpl(in);
+	}
+
+	public static RecordWriter createRecordWriter(OutputStream out) {
+		return new RecordWriterImpl(out);
+	}
+}
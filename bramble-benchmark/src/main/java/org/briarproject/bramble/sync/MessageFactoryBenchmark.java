@@ -0,0 +1,53 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.crypto.BenchmarkCrypto.createCryptoComponent;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
+
+/**
+ * Measures the cost of parsing a raw message and calculating its ID.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MessageFactoryBenchmark {
+
+	@Param({"100", "1024", "32768"})
+	public int bodyLength;
+
+	private final MessageFactory messageFactory =
+			new MessageFactoryImpl(createCryptoComponent());
+
+	private byte[] raw;
+
+	@Setup
+	public void setUp() {
+		raw = getRandomBytes(MESSAGE_HEADER_LENGTH + bodyLength);
+		writeUint64(System.currentTimeMillis(), raw, UniqueId.LENGTH);
+	}
+
+	@Benchmark
+	public Message createMessage() {
+		return messageFactory.createMessage(raw);
+	}
+}
@@ -0,0 +1,88 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.record.BenchmarkRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.crypto.BenchmarkCrypto.createCryptoComponent;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+/**
+ * Measures the cost per record of reading a stream of messages, acks and
+ * offers, in the proportions seen when a session is catching up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SyncRecordReaderBenchmark {
+
+	private static final int MESSAGES = 100, BODY_LENGTH = 1024;
+	private static final int RECORDS = MESSAGES + 2;
+
+	private final MessageFactory messageFactory =
+			new MessageFactoryImpl(createCryptoComponent());
+
+	private byte[] records;
+
+	@Setup
+	public void setUp() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SyncRecordWriter writer = new SyncRecordWriterImpl(messageFactory,
+				BenchmarkRecords.createRecordWriter(out));
+		GroupId g = new GroupId(getRandomId());
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < MESSAGES; i++) {
+			writer.writeMessage(messageFactory.createMessage(g, i,
+					getRandomBytes(BODY_LENGTH)));
+			if (ids.size() < MAX_MESSAGE_IDS)
+				ids.add(new MessageId(getRandomId()));
+		}
+		writer.writeAck(new Ack(ids));
+		writer.writeOffer(new Offer(ids));
+		writer.flush();
+		records = out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void readRecords(Blackhole bh) throws IOException {
+		SyncRecordReader reader = new SyncRecordReaderImpl(messageFactory,
+				BenchmarkRecords.createRecordReader(
+						new ByteArrayInputStream(records)));
+		while (!reader.eof()) {
+			if (reader.hasMessage()) bh.consume(reader.readMessage());
+			else if (reader.hasAck()) bh.consume(reader.readAck());
+			else if (reader.hasOffer()) bh.consume(reader.readOffer());
+			else throw new AssertionError();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.KeySetId;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.api.transport.TransportKeySet;
+import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.system.SystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.crypto.BenchmarkCrypto.createCryptoComponent;
+import static org.briarproject.bramble.crypto.BenchmarkCrypto.createTransportCrypto;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+/**
+ * Measures the cost of looking up the stream context for an incoming tag,
+ * both for a tag that belongs to a contact and for an unknown tag, and the
+ * cost of starting a key manager with keys from the previous time period.
+ * <p>
+ * The database is replaced by a stub that returns the contacts' keys and
+ * ignores updates, so only the key manager's own work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TransportKeyManagerBenchmark {
+
+	private static final long MAX_LATENCY = 30 * 1000;
+
+	/**
+	 * A key manager loaded with rotation keys for the given number of
+	 * contacts.
+	 */
+	@State(Scope.Thread)
+	public abstract static class KeyManager {
+
+		@Param({"1", "100", "1000"})
+		public int contacts;
+
+		final CryptoComponent crypto = createCryptoComponent();
+		final TransportCrypto transportCrypto = createTransportCrypto(crypto);
+		final Clock clock = new SystemClock();
+		final TransportId transportId = getTransportId();
+		final Transaction txn = new Transaction(new Object(), false);
+
+		ScheduledExecutorService scheduler;
+		TransportKeyManager transportKeyManager;
+		SecretKey[] tagKeys;
+		long[] nextStreamNumbers;
+		int nextContact = 0;
+
+		@Setup
+		public void setUp() throws DbException {
+			long timePeriod = clock.currentTimeMillis() /
+					(MAX_LATENCY + MAX_CLOCK_DIFFERENCE);
+			List<TransportKeySet> keySets = new ArrayList<>(contacts);
+			tagKeys = new SecretKey[contacts];
+			nextStreamNumbers = new long[contacts];
+			for (int i = 0; i < contacts; i++) {
+				// Derive the keys for our side, then use the tag key of the
+				// current incoming keys to generate tags from the other side
+				TransportKeys k = transportCrypto.deriveRotationKeys(
+						transportId, getSecretKey(), timePeriod, true, true);
+				keySets.add(new TransportKeySet(new KeySetId(i + 1),
+						new ContactId(i + 1), null, k));
+				tagKeys[i] = k.getCurrentIncomingKeys().getTagKey();
+			}
+			scheduler = newSingleThreadScheduledExecutor();
+			transportKeyManager = new TransportKeyManagerImpl(
+					createDatabaseStub(keySets), transportCrypto,
+					Runnable::run, Runnable::run, scheduler, clock,
+					transportId, MAX_LATENCY);
+			transportKeyManager.start(txn);
+		}
+
+		@TearDown
+		public void tearDown() {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Holds the tag for the next unused stream number. Each stream number
+	 * can only be used once, so a new tag is prepared for each invocation,
+	 * rotating between the contacts.
+	 */
+	@State(Scope.Thread)
+	public static class KnownTag extends KeyManager {
+
+		private final byte[] tag = new byte[TAG_LENGTH];
+
+		@Setup(Level.Invocation)
+		public void setUpTag() {
+			int i = nextContact;
+			nextContact = (i + 1) % contacts;
+			transportCrypto.encodeTag(tag, tagKeys[i], PROTOCOL_VERSION,
+					nextStreamNumbers[i]++);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class UnknownTag extends KeyManager {
+
+		private final byte[] tag = getRandomBytes(TAG_LENGTH);
+	}
+
+	/**
+	 * Rotation keys for the given number of contacts, which need to be
+	 * updated when a key manager is started. The crypto executor either runs
+	 * tasks on the calling thread or on a pool of threads.
+	 */
+	@State(Scope.Thread)
+	public static class Startup {
+
+		@Param({"100", "1000"})
+		public int contacts;
+
+		@Param({"false", "true"})
+		public boolean parallel;
+
+		final CryptoComponent crypto = createCryptoComponent();
+		final TransportCrypto transportCrypto = createTransportCrypto(crypto);
+		final Clock clock = new SystemClock();
+		final TransportId transportId = getTransportId();
+		final Transaction txn = new Transaction(new Object(), false);
+		final ScheduledExecutorService scheduler = createSchedulerStub();
+
+		DatabaseComponent db;
+		ExecutorService pool = null;
+		Executor cryptoExecutor;
+
+		@Setup
+		public void setUp() {
+			long timePeriod = clock.currentTimeMillis() /
+					(MAX_LATENCY + MAX_CLOCK_DIFFERENCE);
+			List<TransportKeySet> keySets = new ArrayList<>(contacts);
+			for (int i = 0; i < contacts; i++) {
+				TransportKeys k = transportCrypto.deriveRotationKeys(
+						transportId, getSecretKey(), timePeriod - 1, true,
+						true);
+				keySets.add(new TransportKeySet(new KeySetId(i + 1),
+						new ContactId(i + 1), null, k));
+			}
+			db = createDatabaseStub(keySets);
+			if (parallel) {
+				pool = newFixedThreadPool(
+						Runtime.getRuntime().availableProcessors());
+				cryptoExecutor = pool;
+			} else {
+				cryptoExecutor = Runnable::run;
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			if (pool != null) pool.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public StreamContext getStreamContextKnownTag(KnownTag s)
+			throws DbException {
+		StreamContext ctx =
+				s.transportKeyManager.getStreamContext(s.txn, s.tag);
+		if (ctx == null) throw new AssertionError();
+		return ctx;
+	}
+
+	@Benchmark
+	public StreamContext getStreamContextUnknownTag(UnknownTag s)
+			throws DbException {
+		return s.transportKeyManager.getStreamContext(s.txn, s.tag);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(MILLISECONDS)
+	public TransportKeyManager start(Startup s) throws DbException {
+		TransportKeyManager m = new TransportKeyManagerImpl(s.db,
+				s.transportCrypto, Runnable::run, s.cryptoExecutor,
+				s.scheduler, s.clock, s.transportId, MAX_LATENCY);
+		m.start(s.txn);
+		return m;
+	}
+
+	private static DatabaseComponent createDatabaseStub(
+			List<TransportKeySet> keySets) {
+		return (DatabaseComponent) Proxy.newProxyInstance(
+				DatabaseComponent.class.getClassLoader(),
+				new Class<?>[] {DatabaseComponent.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("getTransportKeys"))
+						return keySets;
+					// Ignore all updates
+					if (method.getReturnType() == void.class) return null;
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	/**
+	 * Returns a scheduler that ignores all tasks, so the key updates
+	 * scheduled by each key manager don't accumulate.
+	 */
+	private static ScheduledExecutorService createSchedulerStub() {
+		return (ScheduledExecutorService) Proxy.newProxyInstance(
+				ScheduledExecutorService.class.getClassLoader(),
+				new Class<?>[] {ScheduledExecutorService.class},
+				(proxy, method, args) -> null);
+	}
+}
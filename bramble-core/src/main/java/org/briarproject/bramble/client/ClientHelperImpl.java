@@ -18,6 +18,8 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorFactory;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -27,16 +29,23 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
+import org.briarproject.bramble.api.sync.event.MessageStateChangedEvent;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.identity.Author.FORMAT_VERSION;
@@ -47,9 +56,9 @@ import static org.briarproject.bramble.api.properties.TransportPropertyConstants
 import static org.briarproject.bramble.util.ValidationUtils.checkLength;
 import static org.briarproject.bramble.util.ValidationUtils.checkSize;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
-class ClientHelperImpl implements ClientHelper {
+class ClientHelperImpl implements ClientHelper, EventListener {
 
 	/**
 	 * Length in bytes of the random salt used for creating local messages for
@@ -57,6 +66,11 @@ class ClientHelperImpl implements ClientHelper {
 	 */
 	private static final int SALT_LENGTH = 32;
 
+	/**
+	 * The maximum number of messages whose parsed metadata is cached.
+	 */
+	private static final int MAX_CACHED_MESSAGES = 5000;
+
 	private final DatabaseComponent db;
 	private final MessageFactory messageFactory;
 	private final BdfReaderFactory bdfReaderFactory;
@@ -66,6 +80,19 @@ class ClientHelperImpl implements ClientHelper {
 	private final CryptoComponent crypto;
 	private final AuthorFactory authorFactory;
 
+	// Parsed metadata of the most recently used messages. Entries are
+	// removed when the metadata is merged or deleted, so hits are answered
+	// without loading the raw metadata
+	@GuardedBy("metadataCache")
+	private final Map<MessageId, BdfDictionary> metadataCache =
+			new LinkedHashMap<MessageId, BdfDictionary>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Entry<MessageId, BdfDictionary> eldest) {
+					return size() > MAX_CACHED_MESSAGES;
+				}
+			};
+
 	@Inject
 	ClientHelperImpl(DatabaseComponent db, MessageFactory messageFactory,
 			BdfReaderFactory bdfReaderFactory,
@@ -161,8 +188,13 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfDictionary getMessageMetadataAsDictionary(Transaction txn,
 			MessageId m) throws DbException, FormatException {
-		Metadata metadata = db.getMessageMetadata(txn, m);
-		return metadataParser.parse(metadata);
+		BdfDictionary cached = getCachedMetadata(m);
+		if (cached != null) return cached;
+		BdfDictionary d = metadataParser.parse(db.getMessageMetadata(txn, m));
+		// Messages that haven't been delivered have no metadata, so an empty
+		// result may change without the metadata being merged
+		if (!d.isEmpty()) cacheMetadata(txn, m, d);
+		return d;
 	}
 
 	@Override
@@ -175,10 +207,19 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			Transaction txn, GroupId g) throws DbException, FormatException {
+		// If the metadata of every delivered message is cached, the raw
+		// metadata doesn't need to be loaded
+		Collection<MessageId> delivered = db.getMessageIds(txn, g);
+		Map<MessageId, BdfDictionary> cached = getCachedMetadata(delivered);
+		if (cached != null) return cached;
 		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g);
-		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
-		for (Entry<MessageId, Metadata> e : raw.entrySet())
-			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		Map<MessageId, BdfDictionary> parsed = parseMessageMetadata(txn, raw);
+		// Cache the delivered messages without metadata so the next call
+		// can be answered from the cache
+		BdfDictionary empty = new BdfDictionary();
+		for (MessageId m : delivered) {
+			if (!raw.containsKey(m)) cacheMetadata(txn, m, empty);
+		}
 		return parsed;
 	}
 
@@ -196,12 +237,147 @@ class ClientHelperImpl implements ClientHelper {
 			FormatException {
 		Metadata metadata = metadataEncoder.encode(query);
 		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g, metadata);
-		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
-		for (Entry<MessageId, Metadata> e : raw.entrySet())
-			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parseMessageMetadata(txn, raw);
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, long timestamp, @Nullable MessageId m,
+			int limit) throws DbException, FormatException {
+		Map<MessageId, Long> page =
+				db.getMessageTimestamps(txn, g, timestamp, m, limit);
+		return getMessageMetadataAsDictionary(txn, page.keySet());
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException {
+		Map<MessageId, BdfDictionary> cached = new HashMap<>(ids.size());
+		List<MessageId> uncached = new ArrayList<>();
+		for (MessageId m : ids) {
+			BdfDictionary d = getCachedMetadata(m);
+			if (d == null) uncached.add(m);
+			else cached.put(m, d);
+		}
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, uncached);
+		for (Entry<MessageId, Metadata> e : raw.entrySet()) {
+			BdfDictionary d = metadataParser.parse(e.getValue());
+			cacheMetadata(txn, e.getKey(), d);
+			cached.put(e.getKey(), d);
+		}
+		// Preserve the order of the IDs
+		Map<MessageId, BdfDictionary> parsed = new LinkedHashMap<>();
+		for (MessageId m : ids) {
+			BdfDictionary d = cached.get(m);
+			if (d != null && !d.isEmpty()) parsed.put(m, d);
+		}
 		return parsed;
 	}
 
+	/**
+	 * Parses the given metadata, preserving its iteration order. Cached
+	 * results are used for any messages that have them, and the results for
+	 * other messages are added to the cache.
+	 */
+	private Map<MessageId, BdfDictionary> parseMessageMetadata(
+			Transaction txn, Map<MessageId, Metadata> raw)
+			throws FormatException {
+		Map<MessageId, BdfDictionary> parsed = new LinkedHashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet()) {
+			MessageId m = e.getKey();
+			BdfDictionary d = getCachedMetadata(m);
+			if (d == null) {
+				d = metadataParser.parse(e.getValue());
+				cacheMetadata(txn, m, d);
+			}
+			parsed.put(m, d);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Returns a copy of the cached metadata of the given message, or null if
+	 * the message's metadata isn't cached.
+	 */
+	@Nullable
+	private BdfDictionary getCachedMetadata(MessageId m) {
+		synchronized (metadataCache) {
+			BdfDictionary d = metadataCache.get(m);
+			return d == null ? null : copy(d);
+		}
+	}
+
+	/**
+	 * Returns copies of the cached metadata of the given messages, leaving
+	 * out messages without metadata, or null if the metadata of any of the
+	 * messages isn't cached.
+	 */
+	@Nullable
+	private Map<MessageId, BdfDictionary> getCachedMetadata(
+			Collection<MessageId> ids) {
+		Map<MessageId, BdfDictionary> cached = new HashMap<>(ids.size());
+		synchronized (metadataCache) {
+			for (MessageId m : ids) {
+				BdfDictionary d = metadataCache.get(m);
+				if (d == null) return null;
+				if (!d.isEmpty()) cached.put(m, copy(d));
+			}
+		}
+		return cached;
+	}
+
+	private void cacheMetadata(Transaction txn, MessageId m, BdfDictionary d) {
+		// A write transaction may be rolled back after reading its own
+		// uncommitted changes, so only cache what read-only transactions see
+		if (!txn.isReadOnly()) return;
+		// Callers may modify the dictionary and any lists or dictionaries
+		// nested inside it, so the cache never shares them with callers
+		BdfDictionary copy = copy(d);
+		synchronized (metadataCache) {
+			metadataCache.put(m, copy);
+		}
+	}
+
+	private void removeCachedMetadata(MessageId m) {
+		synchronized (metadataCache) {
+			metadataCache.remove(m);
+		}
+	}
+
+	private static BdfDictionary copy(BdfDictionary d) {
+		BdfDictionary copy = new BdfDictionary();
+		for (Entry<String, Object> e : d.entrySet())
+			copy.put(e.getKey(), copy(e.getValue()));
+		return copy;
+	}
+
+	private static Object copy(Object o) {
+		if (o instanceof BdfDictionary) return copy((BdfDictionary) o);
+		if (o instanceof BdfList) {
+			BdfList list = (BdfList) o;
+			BdfList copy = new BdfList();
+			for (Object element : list) copy.add(copy(element));
+			return copy;
+		}
+		if (o instanceof byte[]) return ((byte[]) o).clone();
+		// Null values, booleans, numbers and strings are immutable
+		return o;
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof GroupRemovedEvent) {
+			// The group's messages aren't known, so discard everything
+			synchronized (metadataCache) {
+				metadataCache.clear();
+			}
+		} else if (e instanceof MessageStateChangedEvent) {
+			MessageStateChangedEvent m = (MessageStateChangedEvent) e;
+			removeCachedMetadata(m.getMessageId());
+		}
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -223,9 +399,17 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public void mergeMessageMetadata(Transaction txn, MessageId m,
 			BdfDictionary metadata) throws DbException, FormatException {
+		removeCachedMetadata(m);
 		db.mergeMessageMetadata(txn, m, metadataEncoder.encode(metadata));
 	}
 
+	@Override
+	public void deleteMessageMetadata(Transaction txn, MessageId m)
+			throws DbException {
+		removeCachedMetadata(m);
+		db.deleteMessageMetadata(txn, m);
+	}
+
 	@Override
 	public byte[] toByteArray(BdfDictionary dictionary) throws FormatException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -257,8 +441,7 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfDictionary toDictionary(byte[] b, int off, int len)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfDictionary dictionary = reader.readDictionary();
 			if (!reader.eof()) throw new FormatException();
@@ -286,8 +469,7 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(byte[] b, int off, int len) throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfList list = reader.readList();
 			if (!reader.eof()) throw new FormatException();
@@ -388,5 +570,4 @@ class ClientHelperImpl implements ClientHelper {
 		}
 		return tpMap;
 	}
-
 }
@@ -2,6 +2,9 @@ package org.briarproject.bramble.client;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.event.EventBus;
+
+import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
@@ -10,7 +13,10 @@ import dagger.Provides;
 public class ClientModule {
 
 	@Provides
-	ClientHelper provideClientHelper(ClientHelperImpl clientHelper) {
+	@Singleton
+	ClientHelper provideClientHelper(EventBus eventBus,
+			ClientHelperImpl clientHelper) {
+		eventBus.addListener(clientHelper);
 		return clientHelper;
 	}
 
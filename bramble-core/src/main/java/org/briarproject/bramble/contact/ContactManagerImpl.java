@@ -213,6 +213,13 @@ class ContactManagerImpl implements ContactManager, EventListener {
 		return db.transactionWithResult(true, db::getContacts);
 	}
 
+	@Override
+	public List<Contact> getContacts(@Nullable ContactId after, int limit)
+			throws DbException {
+		return db.transactionWithResult(true, txn ->
+				db.getContacts(txn, after, limit));
+	}
+
 	@Override
 	public void removeContact(ContactId c) throws DbException {
 		db.transaction(false, txn -> removeContact(txn, c));
@@ -26,6 +26,7 @@ import org.spongycastle.crypto.digests.Blake2bDigest;
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
@@ -287,6 +288,32 @@ class CryptoComponentImpl implements CryptoComponent {
 		return output;
 	}
 
+	@Override
+	public byte[] hash(String label, ByteBuffer... inputs) {
+		byte[] labelBytes = StringUtils.toUtf8(label);
+		Digest digest = new Blake2bDigest(256);
+		byte[] length = new byte[INT_32_BYTES];
+		ByteUtils.writeUint32(labelBytes.length, length, 0);
+		digest.update(length, 0, length.length);
+		digest.update(labelBytes, 0, labelBytes.length);
+		for (ByteBuffer input : inputs) {
+			int len = input.remaining();
+			ByteUtils.writeUint32(len, length, 0);
+			digest.update(length, 0, length.length);
+			if (input.hasArray()) {
+				digest.update(input.array(),
+						input.arrayOffset() + input.position(), len);
+			} else {
+				byte[] b = new byte[len];
+				input.duplicate().get(b);
+				digest.update(b, 0, len);
+			}
+		}
+		byte[] output = new byte[digest.getDigestSize()];
+		digest.doFinal(output, 0);
+		return output;
+	}
+
 	@Override
 	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
 		byte[] labelBytes = StringUtils.toUtf8(label);
@@ -45,9 +45,14 @@ public class CryptoExecutorModule {
 		// Discard tasks that are submitted during shutdown
 		RejectedExecutionHandler policy =
 				new ThreadPoolExecutor.DiscardPolicy();
-		// Create a limited # of threads and keep them in the pool for 60 secs
-		cryptoExecutor = new TimeLoggingExecutor("CryptoExecutor", 0,
-				MAX_EXECUTOR_THREADS, 60, SECONDS, queue, policy);
+		// Create a limited # of threads and keep them in the pool for 60 secs.
+		// The core pool is the same size as the max pool because the queue
+		// is unbounded, so the pool would never grow beyond the core size
+		ThreadPoolExecutor executor = new TimeLoggingExecutor(
+				"CryptoExecutor", MAX_EXECUTOR_THREADS, MAX_EXECUTOR_THREADS,
+				60, SECONDS, queue, policy);
+		executor.allowCoreThreadTimeOut(true);
+		cryptoExecutor = executor;
 	}
 
 	@Provides
@@ -18,9 +18,10 @@ import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HE
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION_LARGE_FRAMES;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_PLAINTEXT_LENGTH;
@@ -35,10 +36,13 @@ class StreamDecrypterImpl implements StreamDecrypter {
 	private final AuthenticatedCipher cipher;
 	private final long streamNumber;
 	private final SecretKey streamHeaderKey;
-	private final byte[] frameNonce, frameHeader, frameCiphertext;
+	private final byte[] frameNonce, frameHeader;
 
 	@Nullable
 	private SecretKey frameKey;
+	@Nullable
+	private byte[] frameCiphertext; // Allocated when the header has been read
+	private int maxPayloadLength;
 	private long frameNumber;
 	private boolean finalFrame;
 
@@ -50,22 +54,23 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		this.streamHeaderKey = streamHeaderKey;
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
 		frameKey = null;
+		frameCiphertext = null;
+		maxPayloadLength = 0;
 		frameNumber = 0;
 		finalFrame = false;
 	}
 
 	@Override
 	public int readFrame(byte[] payload) throws IOException {
+		// Read the stream header if required
+		if (frameKey == null) readStreamHeader();
 		// The buffer must be big enough for a full-size frame
-		if (payload.length < MAX_PAYLOAD_LENGTH)
+		if (payload.length < maxPayloadLength)
 			throw new IllegalArgumentException();
 		if (finalFrame) return -1;
 		// Don't allow the frame counter to wrap
 		if (frameNumber < 0) throw new IOException();
-		// Read the stream header if required
-		if (frameKey == null) readStreamHeader();
 		// Read the frame header
 		int offset = 0;
 		while (offset < FRAME_HEADER_LENGTH) {
@@ -89,7 +94,7 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		finalFrame = FrameEncoder.isFinalFrame(frameHeader);
 		int payloadLength = FrameEncoder.getPayloadLength(frameHeader);
 		int paddingLength = FrameEncoder.getPaddingLength(frameHeader);
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new FormatException();
 		// Read the payload and padding
 		int frameLength = FRAME_HEADER_LENGTH + payloadLength + paddingLength
@@ -117,6 +122,12 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		return payloadLength;
 	}
 
+	@Override
+	public int getMaxPayloadLength() throws IOException {
+		if (frameKey == null) readStreamHeader();
+		return maxPayloadLength;
+	}
+
 	private void readStreamHeader() throws IOException {
 		byte[] streamHeaderCiphertext = new byte[STREAM_HEADER_LENGTH];
 		byte[] streamHeaderPlaintext = new byte[STREAM_HEADER_PLAINTEXT_LENGTH];
@@ -147,8 +158,11 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		// Check the protocol version
 		int receivedProtocolVersion =
 				ByteUtils.readUint16(streamHeaderPlaintext, 0);
-		if (receivedProtocolVersion != PROTOCOL_VERSION)
-			throw new FormatException();
+		if (receivedProtocolVersion == PROTOCOL_VERSION)
+			maxPayloadLength = MAX_PAYLOAD_LENGTH;
+		else if (receivedProtocolVersion == PROTOCOL_VERSION_LARGE_FRAMES)
+			maxPayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+		else throw new FormatException();
 		// Check the stream number
 		long receivedStreamNumber = ByteUtils.readUint64(streamHeaderPlaintext,
 				INT_16_BYTES);
@@ -158,5 +172,7 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		System.arraycopy(streamHeaderPlaintext, INT_16_BYTES + INT_64_BYTES,
 				frameKeyBytes, 0, SecretKey.LENGTH);
 		frameKey = new SecretKey(frameKeyBytes);
+		frameCiphertext =
+				new byte[FRAME_HEADER_LENGTH + maxPayloadLength + MAC_LENGTH];
 	}
 }
\ No newline at end of file
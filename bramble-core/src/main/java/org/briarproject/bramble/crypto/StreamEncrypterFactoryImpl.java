@@ -37,7 +37,7 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 
 	@Override
 	public StreamEncrypter createStreamEncrypter(OutputStream out,
-			StreamContext ctx) {
+			StreamContext ctx, boolean largeFrames) {
 		AuthenticatedCipher cipher = cipherProvider.get();
 		long streamNumber = ctx.getStreamNumber();
 		byte[] tag = new byte[TAG_LENGTH];
@@ -47,7 +47,7 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 		crypto.getSecureRandom().nextBytes(streamHeaderNonce);
 		SecretKey frameKey = crypto.generateSecretKey();
 		return new StreamEncrypterImpl(out, cipher, streamNumber, tag,
-				streamHeaderNonce, ctx.getHeaderKey(), frameKey);
+				streamHeaderNonce, ctx.getHeaderKey(), frameKey, largeFrames);
 	}
 
 	@Override
@@ -58,6 +58,6 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 		crypto.getSecureRandom().nextBytes(streamHeaderNonce);
 		SecretKey frameKey = crypto.generateSecretKey();
 		return new StreamEncrypterImpl(out, cipher, 0, null, streamHeaderNonce,
-				headerKey, frameKey);
+				headerKey, frameKey, false);
 	}
 }
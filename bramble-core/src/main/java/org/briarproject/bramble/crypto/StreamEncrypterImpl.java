@@ -16,9 +16,10 @@ import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HE
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION_LARGE_FRAMES;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_PLAINTEXT_LENGTH;
@@ -33,6 +34,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	private final AuthenticatedCipher cipher;
 	private final SecretKey streamHeaderKey, frameKey;
 	private final long streamNumber;
+	private final int protocolVersion, maxPayloadLength;
 	@Nullable
 	private final byte[] tag;
 	private final byte[] streamHeaderNonce;
@@ -44,7 +46,8 @@ class StreamEncrypterImpl implements StreamEncrypter {
 
 	StreamEncrypterImpl(OutputStream out, AuthenticatedCipher cipher,
 			long streamNumber, @Nullable byte[] tag, byte[] streamHeaderNonce,
-			SecretKey streamHeaderKey, SecretKey frameKey) {
+			SecretKey streamHeaderKey, SecretKey frameKey,
+			boolean largeFrames) {
 		this.out = out;
 		this.cipher = cipher;
 		this.streamNumber = streamNumber;
@@ -52,10 +55,18 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		this.streamHeaderNonce = streamHeaderNonce;
 		this.streamHeaderKey = streamHeaderKey;
 		this.frameKey = frameKey;
+		if (largeFrames) {
+			protocolVersion = PROTOCOL_VERSION_LARGE_FRAMES;
+			maxPayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+		} else {
+			protocolVersion = PROTOCOL_VERSION;
+			maxPayloadLength = MAX_PAYLOAD_LENGTH;
+		}
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
-		framePlaintext = new byte[MAX_PAYLOAD_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
+		framePlaintext = new byte[maxPayloadLength];
+		frameCiphertext =
+				new byte[FRAME_HEADER_LENGTH + maxPayloadLength + MAC_LENGTH];
 		frameNumber = 0;
 		writeTag = (tag != null);
 		writeStreamHeader = true;
@@ -66,7 +77,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 			int paddingLength, boolean finalFrame) throws IOException {
 		if (payloadLength < 0 || paddingLength < 0)
 			throw new IllegalArgumentException();
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new IllegalArgumentException();
 		// Don't allow the frame counter to wrap
 		if (frameNumber < 0) throw new IOException();
@@ -118,7 +129,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	private void writeStreamHeader() throws IOException {
 		// The header contains the protocol version, stream number and frame key
 		byte[] streamHeaderPlaintext = new byte[STREAM_HEADER_PLAINTEXT_LENGTH];
-		ByteUtils.writeUint16(PROTOCOL_VERSION, streamHeaderPlaintext, 0);
+		ByteUtils.writeUint16(protocolVersion, streamHeaderPlaintext, 0);
 		ByteUtils.writeUint64(streamNumber, streamHeaderPlaintext,
 				INT_16_BYTES);
 		System.arraycopy(frameKey.getBytes(), 0, streamHeaderPlaintext,
@@ -141,6 +152,11 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		writeStreamHeader = false;
 	}
 
+	@Override
+	public int getMaxPayloadLength() {
+		return maxPayloadLength;
+	}
+
 	@Override
 	public void flush() throws IOException {
 		// Write the tag if required
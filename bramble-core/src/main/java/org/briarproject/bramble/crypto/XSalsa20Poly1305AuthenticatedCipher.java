@@ -3,14 +3,16 @@ package org.briarproject.bramble.crypto;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.spongycastle.crypto.DataLengthException;
-import org.spongycastle.crypto.engines.XSalsa20Engine;
+import org.spongycastle.crypto.engines.Salsa20Engine;
 import org.spongycastle.crypto.generators.Poly1305KeyGenerator;
 import org.spongycastle.crypto.macs.Poly1305;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
+import org.spongycastle.util.Pack;
 
 import java.security.GeneralSecurityException;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
@@ -26,6 +28,9 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENG
  * <li>http://nacl.cr.yp.to/secretbox.html</li>
  * <li>http://cr.yp.to/highspeed/naclcrypto-20090310.pdf</li>
  * </ul>
+ * <p/>
+ * The cipher reuses its parameters and buffers between calls, so encrypting
+ * or decrypting does not allocate any memory.
  */
 @NotThreadSafe
 @NotNullByDefault
@@ -36,24 +41,46 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 	 */
 	private static final int SUBKEY_LENGTH = 32;
 
+	/**
+	 * Length of the XSalsa20 nonce
+	 */
+	private static final int NONCE_LENGTH = 24;
+
 	private final XSalsa20Engine xSalsa20Engine;
 	private final Poly1305 poly1305;
+	// The contents of these arrays are overwritten for each use
+	private final byte[] keyBytes, ivBytes, subKeyBytes;
+	// Parameters that return the arrays above
+	private final KeyParameter subKey;
+	private final ParametersWithIV keyAndIv;
+	private final byte[] zero, mac;
 
 	private boolean encrypting;
 
 	XSalsa20Poly1305AuthenticatedCipher() {
 		xSalsa20Engine = new XSalsa20Engine();
 		poly1305 = new Poly1305();
+		keyBytes = new byte[SecretKey.LENGTH];
+		ivBytes = new byte[NONCE_LENGTH];
+		subKeyBytes = new byte[SUBKEY_LENGTH];
+		keyAndIv = new ReusableParametersWithIV(
+				new ReusableKeyParameter(keyBytes), ivBytes);
+		subKey = new ReusableKeyParameter(subKeyBytes);
+		zero = new byte[SUBKEY_LENGTH];
+		mac = new byte[MAC_LENGTH];
 	}
 
 	@Override
 	public void init(boolean encrypt, SecretKey key, byte[] iv)
 			throws GeneralSecurityException {
+		if (iv.length != NONCE_LENGTH)
+			throw new GeneralSecurityException("Invalid IV");
 		encrypting = encrypt;
-		KeyParameter k = new KeyParameter(key.getBytes());
-		ParametersWithIV params = new ParametersWithIV(k, iv);
+		byte[] k = key.getBytes();
+		System.arraycopy(k, 0, keyBytes, 0, k.length);
+		System.arraycopy(iv, 0, ivBytes, 0, NONCE_LENGTH);
 		try {
-			xSalsa20Engine.init(encrypt, params);
+			xSalsa20Engine.init(encrypt, keyAndIv);
 		} catch (IllegalArgumentException e) {
 			throw new GeneralSecurityException(e.getMessage());
 		}
@@ -66,20 +93,17 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 			throw new GeneralSecurityException("Invalid MAC");
 		try {
 			// Generate the Poly1305 subkey from an empty array
-			byte[] zero = new byte[SUBKEY_LENGTH];
-			byte[] subKey = new byte[SUBKEY_LENGTH];
-			xSalsa20Engine.processBytes(zero, 0, SUBKEY_LENGTH, subKey, 0);
+			xSalsa20Engine.processBytes(zero, 0, SUBKEY_LENGTH, subKeyBytes,
+					0);
 
 			// Clamp the subkey
-			Poly1305KeyGenerator.clamp(subKey);
+			Poly1305KeyGenerator.clamp(subKeyBytes);
 
 			// Initialize Poly1305 with the subkey
-			KeyParameter k = new KeyParameter(subKey);
-			poly1305.init(k);
+			poly1305.init(subKey);
 
 			// If we are decrypting, verify the MAC
 			if (!encrypting) {
-				byte[] mac = new byte[MAC_LENGTH];
 				poly1305.update(input, inputOff + MAC_LENGTH, len - MAC_LENGTH);
 				poly1305.doFinal(mac, 0);
 				// Constant-time comparison
@@ -112,4 +136,85 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 	public int getMacBytes() {
 		return MAC_LENGTH;
 	}
+
+	/**
+	 * A key parameter that returns the given array rather than a copy of it,
+	 * so the key can be changed without creating a new parameter.
+	 */
+	private static class ReusableKeyParameter extends KeyParameter {
+
+		private final byte[] key;
+
+		private ReusableKeyParameter(byte[] key) {
+			super(key);
+			this.key = key;
+		}
+
+		@Override
+		public byte[] getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * Parameters that return the given IV array rather than a copy of it,
+	 * so the IV can be changed without creating new parameters.
+	 */
+	private static class ReusableParametersWithIV extends ParametersWithIV {
+
+		private final byte[] iv;
+
+		private ReusableParametersWithIV(KeyParameter key, byte[] iv) {
+			super(key, iv);
+			this.iv = iv;
+		}
+
+		@Override
+		public byte[] getIV() {
+			return iv;
+		}
+	}
+
+	/**
+	 * The same as Spongy Castle's XSalsa20 engine, except that the output of
+	 * HSalsa20 is written to a reused buffer rather than a new array each
+	 * time the engine is initialised.
+	 */
+	@NotThreadSafe
+	private static class XSalsa20Engine extends Salsa20Engine {
+
+		private final int[] hSalsa20Out = new int[16];
+
+		@Override
+		public String getAlgorithmName() {
+			return "XSalsa20";
+		}
+
+		@Override
+		protected int getNonceSize() {
+			return NONCE_LENGTH;
+		}
+
+		@Override
+		protected void setKey(@Nullable byte[] keyBytes, byte[] ivBytes) {
+			if (keyBytes == null || keyBytes.length != SecretKey.LENGTH)
+				throw new IllegalArgumentException("Invalid key");
+			// Set the key and the first 8 bytes of the nonce
+			super.setKey(keyBytes, ivBytes);
+			// Set the next 8 bytes of the nonce
+			Pack.littleEndianToInt(ivBytes, 8, engineState, 8, 2);
+			// Use HSalsa20 to derive the XSalsa20 key
+			salsaCore(20, engineState, hSalsa20Out);
+			engineState[1] = hSalsa20Out[0] - engineState[0];
+			engineState[2] = hSalsa20Out[5] - engineState[5];
+			engineState[3] = hSalsa20Out[10] - engineState[10];
+			engineState[4] = hSalsa20Out[15] - engineState[15];
+			engineState[11] = hSalsa20Out[6] - engineState[6];
+			engineState[12] = hSalsa20Out[7] - engineState[7];
+			engineState[13] = hSalsa20Out[8] - engineState[8];
+			engineState[14] = hSalsa20Out[9] - engineState[9];
+			// Set the last 8 bytes of the nonce
+			Pack.littleEndianToInt(ivBytes, 16, engineState, 6, 2);
+		}
+	}
 }
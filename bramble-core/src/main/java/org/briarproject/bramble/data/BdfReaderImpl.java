@@ -9,6 +9,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
@@ -37,9 +38,15 @@ class BdfReaderImpl implements BdfReader {
 
 	private static final byte[] EMPTY_BUFFER = new byte[0];
 
+	// The data is read from either an input stream or a byte array
+	@Nullable
 	private final InputStream in;
+	@Nullable
+	private final byte[] src;
+	private final int srcEnd;
 	private final int nestedLimit, maxBufferSize;
 
+	private int srcPos;
 	private boolean hasLookahead = false, eof = false;
 	private byte next;
 	private byte[] buf = new byte[8];
@@ -48,13 +55,33 @@ class BdfReaderImpl implements BdfReader {
 		this.in = in;
 		this.nestedLimit = nestedLimit;
 		this.maxBufferSize = maxBufferSize;
+		src = null;
+		srcPos = srcEnd = 0;
+	}
+
+	/**
+	 * Creates a reader that reads directly from the given byte array without
+	 * copying it. The array must not be modified while the reader is in use.
+	 */
+	BdfReaderImpl(byte[] src, int off, int len, int nestedLimit,
+			int maxBufferSize) {
+		if (off < 0 || len < 0 || off + len > src.length)
+			throw new IllegalArgumentException();
+		this.src = src;
+		this.nestedLimit = nestedLimit;
+		this.maxBufferSize = maxBufferSize;
+		srcPos = off;
+		srcEnd = off + len;
+		in = null;
 	}
 
 	private void readLookahead() throws IOException {
 		if (eof) return;
 		if (hasLookahead) throw new IllegalStateException();
 		// Read a lookahead byte
-		int i = in.read();
+		int i;
+		if (in == null) i = srcPos == srcEnd ? -1 : src[srcPos++] & 0xFF;
+		else i = in.read();
 		if (i == -1) {
 			eof = true;
 			return;
@@ -64,6 +91,12 @@ class BdfReaderImpl implements BdfReader {
 	}
 
 	private void readIntoBuffer(byte[] b, int length) throws IOException {
+		if (in == null) {
+			if (srcEnd - srcPos < length) throw new FormatException();
+			System.arraycopy(src, srcPos, b, 0, length);
+			srcPos += length;
+			return;
+		}
 		int offset = 0;
 		while (offset < length) {
 			int read = in.read(b, offset, length - offset);
@@ -78,6 +111,11 @@ class BdfReaderImpl implements BdfReader {
 	}
 
 	private void skip(int length) throws IOException {
+		if (in == null) {
+			if (srcEnd - srcPos < length) throw new FormatException();
+			srcPos += length;
+			return;
+		}
 		while (length > 0) {
 			int read = in.read(buf, 0, Math.min(length, buf.length));
 			if (read == -1) throw new FormatException();
@@ -86,30 +124,79 @@ class BdfReaderImpl implements BdfReader {
 	}
 
 	private Object readObject(int level) throws IOException {
-		if (hasNull()) {
-			readNull();
-			return NULL_VALUE;
+		if (!hasLookahead) readLookahead();
+		if (eof) throw new FormatException();
+		// Dispatch on the type byte rather than checking each type in turn
+		switch (next) {
+			case NULL:
+				readNull();
+				return NULL_VALUE;
+			case FALSE:
+			case TRUE:
+				return readBoolean();
+			case INT_8:
+			case INT_16:
+			case INT_32:
+			case INT_64:
+				return readLong();
+			case FLOAT_64:
+				return readDouble();
+			case STRING_8:
+			case STRING_16:
+			case STRING_32:
+				return readString();
+			case RAW_8:
+			case RAW_16:
+			case RAW_32:
+				return readRaw();
+			case LIST:
+				return readList(level);
+			case DICTIONARY:
+				return readDictionary(level);
+			default:
+				throw new FormatException();
 		}
-		if (hasBoolean()) return readBoolean();
-		if (hasLong()) return readLong();
-		if (hasDouble()) return readDouble();
-		if (hasString()) return readString();
-		if (hasRaw()) return readRaw();
-		if (hasList()) return readList(level);
-		if (hasDictionary()) return readDictionary(level);
-		throw new FormatException();
 	}
 
 	private void skipObject() throws IOException {
-		if (hasNull()) skipNull();
-		else if (hasBoolean()) skipBoolean();
-		else if (hasLong()) skipLong();
-		else if (hasDouble()) skipDouble();
-		else if (hasString()) skipString();
-		else if (hasRaw()) skipRaw();
-		else if (hasList()) skipList();
-		else if (hasDictionary()) skipDictionary();
-		else throw new FormatException();
+		if (!hasLookahead) readLookahead();
+		if (eof) throw new FormatException();
+		switch (next) {
+			case NULL:
+				skipNull();
+				break;
+			case FALSE:
+			case TRUE:
+				skipBoolean();
+				break;
+			case INT_8:
+			case INT_16:
+			case INT_32:
+			case INT_64:
+				skipLong();
+				break;
+			case FLOAT_64:
+				skipDouble();
+				break;
+			case STRING_8:
+			case STRING_16:
+			case STRING_32:
+				skipString();
+				break;
+			case RAW_8:
+			case RAW_16:
+			case RAW_32:
+				skipRaw();
+				break;
+			case LIST:
+				skipList();
+				break;
+			case DICTIONARY:
+				skipDictionary();
+				break;
+			default:
+				throw new FormatException();
+		}
 	}
 
 	@Override
@@ -120,7 +207,7 @@ class BdfReaderImpl implements BdfReader {
 
 	@Override
 	public void close() throws IOException {
-		in.close();
+		if (in != null) in.close();
 	}
 
 	@Override
@@ -253,6 +340,13 @@ class BdfReaderImpl implements BdfReader {
 		int length = readStringLength();
 		if (length < 0 || length > maxBufferSize) throw new FormatException();
 		if (length == 0) return "";
+		if (in == null) {
+			// Decode the string directly from the source array
+			if (srcEnd - srcPos < length) throw new FormatException();
+			String str = fromUtf8(src, srcPos, length);
+			srcPos += length;
+			return str;
+		}
 		readIntoBuffer(length);
 		return fromUtf8(buf, 0, length);
 	}
@@ -39,6 +39,8 @@ import static org.briarproject.bramble.data.Types.TRUE;
 class BdfWriterImpl implements BdfWriter {
 
 	private final OutputStream out;
+	// Scratch space for a type byte and up to eight bytes of value
+	private final byte[] buf = new byte[9];
 
 	BdfWriterImpl(OutputStream out) {
 		this.out = out;
@@ -67,78 +69,53 @@ class BdfWriterImpl implements BdfWriter {
 
 	@Override
 	public void writeLong(long i) throws IOException {
-		if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
-			out.write(INT_8);
-			out.write((byte) i);
-		} else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
-			out.write(INT_16);
-			writeInt16((short) i);
-		} else if (i >= Integer.MIN_VALUE && i <= Integer.MAX_VALUE) {
-			out.write(INT_32);
-			writeInt32((int) i);
-		} else {
-			out.write(INT_64);
-			writeInt64(i);
+		if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE)
+			writeTypeAndValue(INT_8, i, 1);
+		else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE)
+			writeTypeAndValue(INT_16, i, 2);
+		else if (i >= Integer.MIN_VALUE && i <= Integer.MAX_VALUE)
+			writeTypeAndValue(INT_32, i, 4);
+		else writeTypeAndValue(INT_64, i, 8);
+	}
+
+	/**
+	 * Writes a type byte followed by the given number of low-order bytes of
+	 * the value in big-endian order, using a single write to the underlying
+	 * stream.
+	 */
+	private void writeTypeAndValue(byte type, long value, int bytes)
+			throws IOException {
+		buf[0] = type;
+		for (int j = bytes; j > 0; j--) {
+			buf[j] = (byte) value;
+			value >>= 8;
 		}
-	}
-
-	private void writeInt16(short i) throws IOException {
-		out.write((byte) (i >> 8));
-		out.write((byte) ((i << 8) >> 8));
-	}
-
-	private void writeInt32(int i) throws IOException {
-		out.write((byte) (i >> 24));
-		out.write((byte) ((i << 8) >> 24));
-		out.write((byte) ((i << 16) >> 24));
-		out.write((byte) ((i << 24) >> 24));
-	}
-
-	private void writeInt64(long i) throws IOException {
-		out.write((byte) (i >> 56));
-		out.write((byte) ((i << 8) >> 56));
-		out.write((byte) ((i << 16) >> 56));
-		out.write((byte) ((i << 24) >> 56));
-		out.write((byte) ((i << 32) >> 56));
-		out.write((byte) ((i << 40) >> 56));
-		out.write((byte) ((i << 48) >> 56));
-		out.write((byte) ((i << 56) >> 56));
+		out.write(buf, 0, bytes + 1);
 	}
 
 	@Override
 	public void writeDouble(double d) throws IOException {
-		out.write(FLOAT_64);
-		writeInt64(Double.doubleToRawLongBits(d));
+		writeTypeAndValue(FLOAT_64, Double.doubleToRawLongBits(d), 8);
 	}
 
 	@Override
 	public void writeString(String s) throws IOException {
 		byte[] b = s.getBytes("UTF-8");
-		if (b.length <= Byte.MAX_VALUE) {
-			out.write(STRING_8);
-			out.write((byte) b.length);
-		} else if (b.length <= Short.MAX_VALUE) {
-			out.write(STRING_16);
-			writeInt16((short) b.length);
-		} else {
-			out.write(STRING_32);
-			writeInt32(b.length);
-		}
+		if (b.length <= Byte.MAX_VALUE)
+			writeTypeAndValue(STRING_8, b.length, 1);
+		else if (b.length <= Short.MAX_VALUE)
+			writeTypeAndValue(STRING_16, b.length, 2);
+		else writeTypeAndValue(STRING_32, b.length, 4);
 		out.write(b);
 	}
 
 	@Override
 	public void writeRaw(byte[] b) throws IOException {
-		if (b.length <= Byte.MAX_VALUE) {
-			out.write(RAW_8);
-			out.write((byte) b.length);
-		} else if (b.length <= Short.MAX_VALUE) {
-			out.write(RAW_16);
-			writeInt16((short) b.length);
-		} else {
-			out.write(RAW_32);
-			writeInt32(b.length);
-		}
+		if (b.length <= Byte.MAX_VALUE)
+			writeTypeAndValue(RAW_8, b.length, 1);
+		else if (b.length <= Short.MAX_VALUE)
+			writeTypeAndValue(RAW_16, b.length, 2);
+		else writeTypeAndValue(RAW_32, b.length, 4);
 		out.write(b);
 	}
 
@@ -118,6 +118,20 @@ interface Database<T> {
 	void addMessage(T txn, Message m, MessageState state, boolean shared,
 			boolean temporary, @Nullable ContactId sender) throws DbException;
 
+	/**
+	 * Stores the given messages, which must not already be in the database.
+	 * This is equivalent to calling
+	 * {@link #addMessage(Object, Message, MessageState, boolean, boolean, ContactId)
+	 * addMessage()} for each message, but the visibility of each group is
+	 * only looked up once.
+	 *
+	 * @param sender the contact from whom the messages were received, or null
+	 * if the messages were created locally.
+	 */
+	void addMessages(T txn, Collection<Message> messages, MessageState state,
+			boolean shared, boolean temporary, @Nullable ContactId sender)
+			throws DbException;
+
 	/**
 	 * Adds a dependency between two messages, where the dependent message is
 	 * in the given state.
@@ -252,6 +266,16 @@ interface Database<T> {
 	 */
 	Collection<Contact> getContacts(T txn) throws DbException;
 
+	/**
+	 * Returns up to the given number of contacts with IDs greater than the
+	 * given ID, ordered by ID. A null ID returns the contacts with the
+	 * lowest IDs.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Contact> getContacts(T txn, @Nullable ContactId after, int limit)
+			throws DbException;
+
 	/**
 	 * Returns a possibly empty collection of contacts with the given author ID.
 	 * <p/>
@@ -299,6 +323,14 @@ interface Database<T> {
 	Collection<Group> getGroups(T txn, ClientId c, int majorVersion)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of all groups belonging to the given client.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<GroupId> getGroupIds(T txn, ClientId c, int majorVersion)
+			throws DbException;
+
 	/**
 	 * Returns the given group's visibility to the given contact, or
 	 * {@link Visibility INVISIBLE} if the group is not in the database.
@@ -340,6 +372,17 @@ interface Database<T> {
 	 */
 	Message getMessage(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns any of the messages with the given IDs that exist, using one
+	 * query.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws MessageDeletedException if any of the messages has been deleted
+	 */
+	Map<MessageId, Message> getMessages(T txn, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Returns the IDs and states of all dependencies of the given message.
 	 * For missing dependencies and dependencies in other groups, the state
@@ -377,6 +420,19 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the IDs and timestamps of up to the given number of delivered
+	 * messages in the given group that come before the given position, newest
+	 * first. Messages are ordered by timestamp and then by message ID. A null
+	 * message ID represents the position after all messages with the given
+	 * timestamp. The map's iteration order is the order of the messages.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageTimestamps(T txn, GroupId g,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -411,6 +467,15 @@ interface Database<T> {
 	 */
 	Metadata getMessageMetadata(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that have been
+	 * delivered and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the validation and delivery state of the given message.
 	 * <p/>
@@ -438,6 +503,15 @@ interface Database<T> {
 	MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given delivered messages with respect
+	 * to the given contact whose groups are visible to the contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(T txn, ContactId c,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages received from the given contact that
 	 * need to be acknowledged, up to the given number of messages.
@@ -466,12 +540,12 @@ interface Database<T> {
 			int maxMessages) throws DbException;
 
 	/**
-	 * Returns the IDs of some messages that are eligible to be sent to the
-	 * given contact, up to the given total length.
+	 * Returns some messages that are eligible to be sent to the given
+	 * contact, up to the given total length.
 	 * <p/>
 	 * Read-only.
 	 */
-	Collection<MessageId> getMessagesToSend(T txn, ContactId c, int maxLength,
+	Collection<Message> getMessagesToSend(T txn, ContactId c, int maxLength,
 			int maxLatency) throws DbException;
 
 	/**
@@ -523,13 +597,12 @@ interface Database<T> {
 	Collection<PendingContact> getPendingContacts(T txn) throws DbException;
 
 	/**
-	 * Returns the IDs of some messages that are eligible to be sent to the
-	 * given contact and have been requested by the contact, up to the given
-	 * total length.
+	 * Returns some messages that are eligible to be sent to the given contact
+	 * and have been requested by the contact, up to the given total length.
 	 * <p/>
 	 * Read-only.
 	 */
-	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
+	Collection<Message> getRequestedMessagesToSend(T txn, ContactId c,
 			int maxLength, int maxLatency) throws DbException;
 
 	/**
@@ -546,6 +619,13 @@ interface Database<T> {
 	 */
 	List<Byte> getSyncVersions(T txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the capabilities advertised by the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Byte> getSyncCapabilities(T txn, ContactId c) throws DbException;
+
 	/**
 	 * Returns all transport keys for the given transport.
 	 * <p/>
@@ -724,6 +804,12 @@ interface Database<T> {
 	void setSyncVersions(T txn, ContactId c, List<Byte> supported)
 			throws DbException;
 
+	/**
+	 * Sets the capabilities advertised by the given contact.
+	 */
+	void setSyncCapabilities(T txn, ContactId c, List<Byte> supported)
+			throws DbException;
+
 	/**
 	 * Marks the given transport keys as usable for outgoing streams.
 	 */
@@ -731,12 +817,12 @@ interface Database<T> {
 			throws DbException;
 
 	/**
-	 * Updates the transmission count, expiry time and estimated time of arrival
-	 * of the given message with respect to the given contact, using the latency
-	 * of the transport over which it was sent.
+	 * Updates the transmission counts, expiry times and estimated times of
+	 * arrival of the given messages with respect to the given contact, using
+	 * the latency of the transport over which they were sent.
 	 */
-	void updateExpiryTimeAndEta(T txn, ContactId c, MessageId m, int maxLatency)
-			throws DbException;
+	void updateExpiryTimesAndEtas(T txn, ContactId c,
+			Collection<MessageId> ids, int maxLatency) throws DbException;
 
 	/**
 	 * Stores the given transport keys, deleting any keys they have replaced.
@@ -74,8 +74,11 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -411,14 +414,12 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
+		Collection<Message> messages =
 				db.getMessagesToSend(txn, c, maxLength, maxLatency);
-		List<Message> messages = new ArrayList<>(ids.size());
-		for (MessageId m : ids) {
-			messages.add(db.getMessage(txn, m));
-			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
-		}
-		if (ids.isEmpty()) return null;
+		if (messages.isEmpty()) return null;
+		List<MessageId> ids = new ArrayList<>(messages.size());
+		for (Message m : messages) ids.add(m.getId());
+		db.updateExpiryTimesAndEtas(txn, c, ids, maxLatency);
 		db.lowerRequestedFlag(txn, c, ids);
 		transaction.attach(new MessagesSentEvent(c, ids));
 		return messages;
@@ -435,8 +436,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		Collection<MessageId> ids =
 				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
 		if (ids.isEmpty()) return null;
-		for (MessageId m : ids)
-			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
+		db.updateExpiryTimesAndEtas(txn, c, ids, maxLatency);
 		return new Offer(ids);
 	}
 
@@ -463,14 +463,12 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
+		Collection<Message> messages =
 				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency);
-		List<Message> messages = new ArrayList<>(ids.size());
-		for (MessageId m : ids) {
-			messages.add(db.getMessage(txn, m));
-			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
-		}
-		if (ids.isEmpty()) return null;
+		if (messages.isEmpty()) return null;
+		List<MessageId> ids = new ArrayList<>(messages.size());
+		for (Message m : messages) ids.add(m.getId());
+		db.updateExpiryTimesAndEtas(txn, c, ids, maxLatency);
 		db.lowerRequestedFlag(txn, c, ids);
 		transaction.attach(new MessagesSentEvent(c, ids));
 		return messages;
@@ -492,6 +490,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getContacts(txn);
 	}
 
+	@Override
+	public List<Contact> getContacts(Transaction transaction,
+			@Nullable ContactId after, int limit) throws DbException {
+		T txn = unbox(transaction);
+		return db.getContacts(txn, after, limit);
+	}
+
 	@Override
 	public Collection<Contact> getContactsByAuthorId(Transaction transaction,
 			AuthorId remote) throws DbException {
@@ -533,6 +538,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroups(txn, c, majorVersion);
 	}
 
+	@Override
+	public Collection<GroupId> getGroupIds(Transaction transaction,
+			ClientId c, int majorVersion) throws DbException {
+		T txn = unbox(transaction);
+		return db.getGroupIds(txn, c, majorVersion);
+	}
+
 	@Override
 	public Visibility getGroupVisibility(Transaction transaction, ContactId c,
 			GroupId g) throws DbException {
@@ -567,6 +579,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessage(txn, m);
 	}
 
+	@Override
+	public Map<MessageId, Message> getMessages(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		Map<MessageId, Message> messages = db.getMessages(txn, ids);
+		if (messages.size() < new HashSet<>(ids).size())
+			throw new NoSuchMessageException();
+		return messages;
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction transaction,
 			GroupId g) throws DbException {
@@ -576,6 +598,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageIds(txn, g);
 	}
 
+	@Override
+	public Map<MessageId, Long> getMessageTimestamps(Transaction transaction,
+			GroupId g, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageTimestamps(txn, g, timestamp, m, limit);
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToValidate(Transaction transaction)
 			throws DbException {
@@ -624,6 +656,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, m);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageMetadata(txn, ids);
+	}
+
 	@Override
 	public Metadata getMessageMetadataForValidator(Transaction transaction,
 			MessageId m)
@@ -674,6 +713,23 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return status;
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(
+			Transaction transaction, ContactId c, Collection<MessageId> ids)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		Map<MessageId, MessageStatus> statuses =
+				db.getMessageStatus(txn, c, ids);
+		// No status rows exist for messages in invisible groups
+		for (MessageId m : ids) {
+			if (!statuses.containsKey(m))
+				statuses.put(m, new MessageStatus(m, c, false, false));
+		}
+		return statuses;
+	}
+
 	@Override
 	public Map<MessageId, MessageState> getMessageDependencies(
 			Transaction transaction, MessageId m) throws DbException {
@@ -731,6 +787,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getSyncVersions(txn, c);
 	}
 
+	@Override
+	public List<Byte> getSyncCapabilities(Transaction transaction,
+			ContactId c) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		return db.getSyncCapabilities(txn, c);
+	}
+
 	@Override
 	public Collection<TransportKeySet> getTransportKeys(Transaction transaction,
 			TransportId t) throws DbException {
@@ -823,6 +888,44 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void receiveMessages(Transaction transaction, ContactId c,
+			Collection<Message> messages) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		// Look up the visibility of each group once
+		Map<GroupId, Boolean> visible = new HashMap<>();
+		List<Message> added = new ArrayList<>();
+		Set<MessageId> addedIds = new HashSet<>();
+		boolean ack = false;
+		for (Message m : messages) {
+			GroupId g = m.getGroupId();
+			Boolean v = visible.get(g);
+			if (v == null) {
+				v = db.getGroupVisibility(txn, c, g) != INVISIBLE;
+				visible.put(g, v);
+			}
+			if (!v) continue;
+			ack = true;
+			// Ignore repeated messages in the same batch
+			if (addedIds.contains(m.getId())) continue;
+			if (db.containsMessage(txn, m.getId())) {
+				db.raiseSeenFlag(txn, c, m.getId());
+				db.raiseAckFlag(txn, c, m.getId());
+			} else {
+				added.add(m);
+				addedIds.add(m.getId());
+			}
+		}
+		if (!added.isEmpty())
+			db.addMessages(txn, added, UNKNOWN, false, false, c);
+		for (Message m : added)
+			transaction.attach(new MessageAddedEvent(m, c));
+		if (ack) transaction.attach(new MessageToAckEvent(c));
+	}
+
 	@Override
 	public void receiveOffer(Transaction transaction, ContactId c, Offer o)
 			throws DbException {
@@ -1072,6 +1175,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new SyncVersionsUpdatedEvent(c, supported));
 	}
 
+	@Override
+	public void setSyncCapabilities(Transaction transaction, ContactId c,
+			List<Byte> supported) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		db.setSyncCapabilities(txn, c, supported);
+	}
+
 	@Override
 	public void setTransportKeysActive(Transaction transaction, TransportId t,
 			KeySetId k) throws DbException {
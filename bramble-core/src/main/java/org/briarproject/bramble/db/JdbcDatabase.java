@@ -51,11 +51,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -64,11 +67,15 @@ import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+import static java.sql.Statement.SUCCESS_NO_INFO;
 import static java.sql.Types.BINARY;
 import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
@@ -98,7 +105,7 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 47;
+	static final int CODE_SCHEMA_VERSION = 49;
 
 	// Time period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
@@ -136,6 +143,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " localAuthorId _HASH NOT NULL,"
 					+ " verified BOOLEAN NOT NULL,"
 					+ " syncVersions _BINARY DEFAULT '00' NOT NULL,"
+					+ " syncCapabilities _BINARY DEFAULT '' NOT NULL,"
 					+ " PRIMARY KEY (contactId),"
 					+ " FOREIGN KEY (localAuthorId)"
 					+ " REFERENCES localAuthors (authorId)"
@@ -244,6 +252,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " expiry BIGINT NOT NULL,"
 					+ " txCount INT NOT NULL,"
 					+ " eta BIGINT NOT NULL,"
+					+ " sendable BOOLEAN NOT NULL," // Denormalised
 					+ " PRIMARY KEY (messageId, contactId),"
 					+ " FOREIGN KEY (messageId)"
 					+ " REFERENCES messages (messageId)"
@@ -324,6 +333,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
 					+ " ON messageMetadata (groupId, state)";
 
+	private static final String INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByGroupIdStateTimestamp"
+					+ " ON messages (groupId, state, timestamp)";
+
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
 					+ " ON messageDependencies (dependencyId)";
@@ -332,9 +345,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS statusesByContactIdGroupId"
 					+ " ON statuses (contactId, groupId)";
 
-	private static final String INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP =
-			"CREATE INDEX IF NOT EXISTS statusesByContactIdTimestamp"
-					+ " ON statuses (contactId, timestamp)";
+	private static final String
+			INDEX_STATUSES_BY_CONTACT_ID_SENDABLE_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdSendableTimestamp"
+					+ " ON statuses (contactId, sendable, timestamp)";
+
+	/**
+	 * The maximum number of prepared statements cached for each connection.
+	 */
+	private static final int MAX_CACHED_STATEMENTS = 64;
+
+	/**
+	 * The maximum number of message IDs in an IN clause or a batch of
+	 * updates. Larger collections are handled in chunks of this size. This
+	 * is a power of two, so chunks use the same rounded placeholder counts
+	 * as smaller IN clauses.
+	 */
+	private static final int MAX_IN_CLAUSE_IDS = 128;
 
 	private static final Logger LOG =
 			getLogger(JdbcDatabase.class.getName());
@@ -342,6 +369,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 	private final MessageFactory messageFactory;
 	private final Clock clock;
 	private final DatabaseTypes dbTypes;
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+	// The prepared statement caches of the open connections
+	private final Map<Connection, StatementCache> statementCaches =
+			new ConcurrentHashMap<>();
 
 	private final Lock connectionsLock = new ReentrantLock();
 	private final Condition connectionsChanged = connectionsLock.newCondition();
@@ -463,7 +495,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration43_44(dbTypes),
 				new Migration44_45(),
 				new Migration45_46(),
-				new Migration46_47(dbTypes)
+				new Migration46_47(dbTypes),
+				new Migration47_48(),
+				new Migration48_49(dbTypes)
 		);
 	}
 
@@ -528,9 +562,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
-			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_SENDABLE_TIMESTAMP);
 			s.close();
 		} catch (SQLException e) {
 			tryToClose(s, LOG, WARNING);
@@ -553,6 +588,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 				// Open a new connection
 				txn = createConnection();
 				txn.setAutoCommit(false);
+				statementCaches.put(txn, new StatementCache(txn,
+						MAX_CACHED_STATEMENTS, statementCacheHits,
+						statementCacheMisses));
 				connectionsLock.lock();
 				try {
 					openConnections++;
@@ -568,6 +606,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void abortTransaction(Connection txn) {
+		endTransaction(txn);
 		try {
 			txn.rollback();
 			connectionsLock.lock();
@@ -580,6 +619,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} catch (SQLException e) {
 			// Try to close the connection
 			logException(LOG, WARNING, e);
+			closeStatements(txn);
 			tryToClose(txn, LOG, WARNING);
 			// Whatever happens, allow the database to close
 			connectionsLock.lock();
@@ -594,6 +634,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void commitTransaction(Connection txn) throws DbException {
+		endTransaction(txn);
 		try {
 			txn.commit();
 		} catch (SQLException e) {
@@ -613,7 +654,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 		connectionsLock.lock();
 		try {
 			closed = true;
-			for (Connection c : connections) c.close();
+			for (Connection c : connections) {
+				closeStatements(c);
+				c.close();
+			}
 			openConnections -= connections.size();
 			connections.clear();
 			while (openConnections > 0) {
@@ -623,17 +667,58 @@ abstract class JdbcDatabase implements Database<Connection> {
 					LOG.warning("Interrupted while closing connections");
 					interrupted = true;
 				}
-				for (Connection c : connections) c.close();
+				for (Connection c : connections) {
+					closeStatements(c);
+					c.close();
+				}
 				openConnections -= connections.size();
 				connections.clear();
 			}
 		} finally {
 			connectionsLock.unlock();
 		}
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Prepared statement cache: "
+					+ statementCacheHits.get() + " hits, "
+					+ statementCacheMisses.get() + " misses");
+		}
 
 		if (interrupted) Thread.currentThread().interrupt();
 	}
 
+	/**
+	 * Returns a prepared statement for the given SQL, reusing a cached
+	 * statement if possible. The statement should be passed to
+	 * {@link #releaseStatement(Connection, PreparedStatement)} when it's no
+	 * longer needed, or closed if an error occurs.
+	 */
+	private PreparedStatement prepareStatement(Connection txn, String sql)
+			throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) return txn.prepareStatement(sql);
+		return cache.prepareStatement(sql);
+	}
+
+	/**
+	 * Returns a prepared statement to the cache for reuse.
+	 */
+	private void releaseStatement(Connection txn, PreparedStatement ps)
+			throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) ps.close();
+		else cache.release(ps);
+	}
+
+	private void endTransaction(Connection txn) {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache != null) cache.endTransaction();
+	}
+
+	private void closeStatements(Connection txn) {
+		StatementCache cache = statementCaches.remove(txn);
+		if (cache != null) cache.close();
+	}
+
 	@Override
 	public ContactId addContact(Connection txn, Author remote, AuthorId local,
 			@Nullable PublicKey handshake, boolean verified)
@@ -646,7 +731,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " (authorId, formatVersion, name, publicKey,"
 					+ " localAuthorId, handshakePublicKey, verified)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, remote.getId().getBytes());
 			ps.setInt(2, remote.getFormatVersion());
 			ps.setString(3, remote.getName());
@@ -657,17 +742,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(7, verified);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Get the new (highest) contact ID
 			sql = "SELECT contactId FROM contacts"
 					+ " ORDER BY contactId DESC LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			ContactId c = new ContactId(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return c;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -683,14 +768,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO groups"
 					+ " (groupId, clientId, majorVersion, descriptor)"
 					+ " VALUES (?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getId().getBytes());
 			ps.setString(2, g.getClientId().getString());
 			ps.setInt(3, g.getMajorVersion());
 			ps.setBytes(4, g.getDescriptor());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -705,13 +790,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO groupVisibilities"
 					+ " (contactId, groupId, shared)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			ps.setBoolean(3, groupShared);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Create a status row for each message in the group
 			addStatus(txn, c, g, groupShared);
 		} catch (SQLException e) {
@@ -729,7 +814,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " length, raw IS NULL"
 					+ " FROM messages"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			while (rs.next()) {
@@ -744,7 +829,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						messageShared, deleted, seen);
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -760,7 +845,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " (authorId, formatVersion, name, publicKey, privateKey,"
 					+ " handshakePublicKey, handshakePrivateKey, created)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			LocalAuthor local = i.getLocalAuthor();
 			ps.setBytes(1, local.getId().getBytes());
 			ps.setInt(2, local.getFormatVersion());
@@ -774,7 +859,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setLong(8, i.getTimeCreated());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -785,51 +870,157 @@ abstract class JdbcDatabase implements Database<Connection> {
 	public void addMessage(Connection txn, Message m, MessageState state,
 			boolean shared, boolean temporary, @Nullable ContactId sender)
 			throws DbException {
+		addMessages(txn, singletonList(m), state, shared, temporary, sender);
+	}
+
+	@Override
+	public void addMessages(Connection txn, Collection<Message> messages,
+			MessageState state, boolean shared, boolean temporary,
+			@Nullable ContactId sender) throws DbException {
+		if (messages.isEmpty()) return;
 		PreparedStatement ps = null;
 		try {
 			String sql = "INSERT INTO messages (messageId, groupId, timestamp,"
 					+ " state, shared, temporary, length, raw)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
-			ps.setBytes(1, m.getId().getBytes());
-			ps.setBytes(2, m.getGroupId().getBytes());
-			ps.setLong(3, m.getTimestamp());
+			ps = prepareStatement(txn, sql);
 			ps.setInt(4, state.getValue());
 			ps.setBoolean(5, shared);
 			ps.setBoolean(6, temporary);
-			byte[] raw = messageFactory.getRawMessage(m);
-			ps.setInt(7, raw.length);
-			ps.setBytes(8, raw);
-			int affected = ps.executeUpdate();
-			if (affected != 1) throw new DbStateException();
-			ps.close();
-			// Create a status row for each contact that can see the group
-			Map<ContactId, Boolean> visibility =
-					getGroupVisibility(txn, m.getGroupId());
-			for (Entry<ContactId, Boolean> e : visibility.entrySet()) {
-				ContactId c = e.getKey();
-				boolean offered = removeOfferedMessage(txn, c, m.getId());
-				boolean seen = offered || c.equals(sender);
-				addStatus(txn, m.getId(), c, m.getGroupId(), m.getTimestamp(),
-						raw.length, state, e.getValue(), shared, false, seen);
+			Map<GroupId, List<Message>> byGroup = new HashMap<>();
+			for (Message m : messages) {
+				ps.setBytes(1, m.getId().getBytes());
+				ps.setBytes(2, m.getGroupId().getBytes());
+				ps.setLong(3, m.getTimestamp());
+				byte[] raw = messageFactory.getRawMessage(m);
+				ps.setInt(7, raw.length);
+				ps.setBytes(8, raw);
+				ps.addBatch();
+				List<Message> group = byGroup.get(m.getGroupId());
+				if (group == null) {
+					group = new ArrayList<>();
+					byGroup.put(m.getGroupId(), group);
+				}
+				group.add(m);
+			}
+			checkBatchRowCounts(ps.executeBatch(), messages.size(), 1, 1);
+			releaseStatement(txn, ps);
+			// Create a status row for each contact that can see the group,
+			// looking up the visibility of each group once
+			for (Entry<GroupId, List<Message>> e : byGroup.entrySet()) {
+				Map<ContactId, Boolean> visibility =
+						getGroupVisibility(txn, e.getKey());
+				for (Entry<ContactId, Boolean> v : visibility.entrySet()) {
+					addStatus(txn, v.getKey(), e.getValue(), state,
+							v.getValue(), shared, sender);
+				}
 			}
 			// Update denormalised column in messageDependencies if dependency
 			// is in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
 					+ " WHERE groupId = ? AND dependencyId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
-			ps.setBytes(2, m.getGroupId().getBytes());
-			ps.setBytes(3, m.getId().getBytes());
-			affected = ps.executeUpdate();
-			if (affected < 0) throw new DbStateException();
-			ps.close();
+			for (Message m : messages) {
+				ps.setBytes(2, m.getGroupId().getBytes());
+				ps.setBytes(3, m.getId().getBytes());
+				ps.addBatch();
+			}
+			checkBatchRowCounts(ps.executeBatch(), messages.size(), 0,
+					Integer.MAX_VALUE);
+			releaseStatement(txn, ps);
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	// Creates a status row for each of the given messages, which all belong
+	// to a group that is visible to the given contact
+	private void addStatus(Connection txn, ContactId c,
+			Collection<Message> messages, MessageState state,
+			boolean groupShared, boolean messageShared,
+			@Nullable ContactId sender) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Messages that were offered by the contact have been seen
+			Collection<MessageId> offered = removeOffers(txn, c,
+					messages);
+			boolean fromContact = c.equals(sender);
+			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount, eta,"
+					+ " sendable)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, FALSE, ?, ?, FALSE,"
+					+ " 0, 0, 0, ?)";
+			ps = prepareStatement(txn, sql);
+			ps.setInt(2, c.getInt());
+			ps.setInt(6, state.getValue());
+			ps.setBoolean(7, groupShared);
+			ps.setBoolean(8, messageShared);
+			for (Message m : messages) {
+				boolean seen = fromContact || offered.contains(m.getId());
+				ps.setBytes(1, m.getId().getBytes());
+				ps.setBytes(3, m.getGroupId().getBytes());
+				ps.setLong(4, m.getTimestamp());
+				ps.setInt(5, m.getRawLength());
+				ps.setBoolean(9, seen);
+				ps.setBoolean(10, seen);
+				ps.setBoolean(11, isSendable(state, groupShared,
+						messageShared, false, seen));
+				ps.addBatch();
+			}
+			checkBatchRowCounts(ps.executeBatch(), messages.size(), 1, 1);
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
 	}
 
+	// Removes any of the given messages that were offered by the given
+	// contact, returns the IDs of the messages that were removed
+	private Collection<MessageId> removeOffers(Connection txn,
+			ContactId c, Collection<Message> messages) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Find the offered messages first, as drivers may not report
+			// which statements in a batch deleted a row
+			List<MessageId> ids = new ArrayList<>(messages.size());
+			for (Message m : messages) ids.add(m.getId());
+			Set<MessageId> offered = new HashSet<>();
+			for (List<MessageId> chunk : getInClauseChunks(ids)) {
+				String sql = "SELECT messageId FROM offers"
+						+ " WHERE contactId = ? AND messageId IN ("
+						+ getMessageIdPlaceholders(chunk.size()) + ")";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, c.getInt());
+				setMessageIdParameters(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) offered.add(new MessageId(rs.getBytes(1)));
+				rs.close();
+				releaseStatement(txn, ps);
+			}
+			if (offered.isEmpty()) return offered;
+			String sql =
+					"DELETE FROM offers WHERE contactId = ? AND messageId = ?";
+			ps = prepareStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			for (MessageId m : offered) {
+				ps.setBytes(2, m.getBytes());
+				ps.addBatch();
+			}
+			checkBatchRowCounts(ps.executeBatch(), offered.size(), 0, 1);
+			releaseStatement(txn, ps);
+			return offered;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void addOfferedMessage(Connection txn, ContactId c, MessageId m)
 			throws DbException {
@@ -838,22 +1029,22 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM offers"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			if (found) return;
 			sql = "INSERT INTO offers (messageId, contactId) VALUES (?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -869,10 +1060,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
 					+ " timestamp, length, state, groupShared, messageShared,"
-					+ " deleted, ack, seen, requested, expiry, txCount, eta)"
+					+ " deleted, ack, seen, requested, expiry, txCount, eta,"
+					+ " sendable)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, FALSE, 0, 0,"
-					+ " 0)";
-			ps = txn.prepareStatement(sql);
+					+ " 0, ?)";
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setBytes(3, g.getBytes());
@@ -884,15 +1076,29 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(9, deleted);
 			ps.setBoolean(10, seen);
 			ps.setBoolean(11, seen);
+			ps.setBoolean(12, isSendable(state, groupShared, messageShared,
+					deleted, seen));
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
 	}
 
+	/**
+	 * Returns true if a message with the given status can be offered or sent
+	 * to a contact, subject to its expiry time. This is denormalised into the
+	 * sendable column of the statuses table, so the messages to offer or
+	 * send can be read from an index.
+	 */
+	private boolean isSendable(MessageState state, boolean groupShared,
+			boolean messageShared, boolean deleted, boolean seen) {
+		return state == DELIVERED && groupShared && messageShared && !deleted
+				&& !seen;
+	}
+
 	@Override
 	public void addMessageDependency(Connection txn, Message dependent,
 			MessageId dependency, MessageState dependentState)
@@ -903,7 +1109,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Get state of dependency if present and in same group as dependent
 			String sql = "SELECT state FROM messages"
 					+ " WHERE messageId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, dependency.getBytes());
 			ps.setBytes(2, dependent.getGroupId().getBytes());
 			rs = ps.executeQuery();
@@ -913,13 +1119,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rs.next()) throw new DbStateException();
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Create messageDependencies row
 			sql = "INSERT INTO messageDependencies"
 					+ " (groupId, messageId, dependencyId, messageState,"
 					+ " dependencyState)"
 					+ " VALUES (?, ?, ?, ? ,?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, dependent.getGroupId().getBytes());
 			ps.setBytes(2, dependent.getId().getBytes());
 			ps.setBytes(3, dependency.getBytes());
@@ -928,7 +1134,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			else ps.setInt(5, dependencyState.getValue());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -944,14 +1150,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO pendingContacts (pendingContactId,"
 					+ " publicKey, alias, timestamp)"
 					+ " VALUES (?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, p.getId().getBytes());
 			ps.setBytes(2, p.getPublicKey().getEncoded());
 			ps.setString(3, p.getAlias());
 			ps.setLong(4, p.getTimestamp());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -965,12 +1171,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "INSERT INTO transports (transportId, maxLatency)"
 					+ " VALUES (?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setLong(2, maxLatency);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1000,7 +1206,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " contactId, pendingContactId, tagKey, headerKey,"
 					+ " stream, active, rootKey, alice)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, k.getTransportId().getString());
 			ps.setLong(2, k.getTimePeriod());
 			if (c == null) ps.setNull(3, INTEGER);
@@ -1021,23 +1227,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 			}
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Get the new (highest) key set ID
 			sql = "SELECT keySetId FROM outgoingKeys"
 					+ " ORDER BY keySetId DESC LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			KeySetId keySetId = new KeySetId(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Store the incoming keys
 			sql = "INSERT INTO incomingKeys (transportId, keySetId,"
 					+ " timePeriod, tagKey, headerKey, base, bitmap,"
 					+ " periodOffset)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, k.getTransportId().getString());
 			ps.setInt(2, keySetId.getInt());
 			// Previous time period
@@ -1071,7 +1277,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != 3) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			return keySetId;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1088,14 +1294,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM contacts"
 					+ " WHERE authorId = ? AND localAuthorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, remote.getBytes());
 			ps.setBytes(2, local.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1111,13 +1317,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1133,13 +1339,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1155,13 +1361,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM localAuthors WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1177,13 +1383,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1200,13 +1406,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM pendingContacts"
 					+ " WHERE pendingContactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, p.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1222,13 +1428,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM transports WHERE transportId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1246,14 +1452,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT NULL FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ?"
 					+ " AND messageShared = TRUE";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1270,14 +1476,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT COUNT (messageId) FROM offers "
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbException();
 			int count = rs.getInt(1);
 			if (rs.next()) throw new DbException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return count;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1291,19 +1497,20 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET raw = NULL WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			if (affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in statuses
-			sql = "UPDATE statuses SET deleted = TRUE WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			sql = "UPDATE statuses SET deleted = TRUE, sendable = FALSE"
+					+ " WHERE messageId = ?";
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1316,11 +1523,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM messageMetadata WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1336,7 +1543,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " publicKey, handshakePublicKey, localAuthorId, verified"
 					+ " FROM contacts"
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1349,7 +1556,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			AuthorId localAuthorId = new AuthorId(rs.getBytes(7));
 			boolean verified = rs.getBoolean(8);
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			Author author =
 					new Author(authorId, formatVersion, name, publicKey);
 			PublicKey handshakePublicKey = handshakePub == null ?
@@ -1374,24 +1581,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " FROM contacts";
 			s = txn.createStatement();
 			rs = s.executeQuery(sql);
-			List<Contact> contacts = new ArrayList<>();
-			while (rs.next()) {
-				ContactId contactId = new ContactId(rs.getInt(1));
-				AuthorId authorId = new AuthorId(rs.getBytes(2));
-				int formatVersion = rs.getInt(3);
-				String name = rs.getString(4);
-				String alias = rs.getString(5);
-				PublicKey publicKey = new SignaturePublicKey(rs.getBytes(6));
-				byte[] handshakePub = rs.getBytes(7);
-				AuthorId localAuthorId = new AuthorId(rs.getBytes(8));
-				boolean verified = rs.getBoolean(9);
-				Author author =
-						new Author(authorId, formatVersion, name, publicKey);
-				PublicKey handshakePublicKey = handshakePub == null ?
-						null : new AgreementPublicKey(handshakePub);
-				contacts.add(new Contact(contactId, author, localAuthorId,
-						alias, handshakePublicKey, verified));
-			}
+			List<Contact> contacts = getContacts(rs);
 			rs.close();
 			s.close();
 			return contacts;
@@ -1402,6 +1592,55 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public List<Contact> getContacts(Connection txn, @Nullable ContactId after,
+			int limit) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId, authorId, formatVersion, name,"
+					+ " alias, publicKey, handshakePublicKey, localAuthorId,"
+					+ " verified"
+					+ " FROM contacts"
+					+ " WHERE contactId > ?"
+					+ " ORDER BY contactId LIMIT ?";
+			ps = prepareStatement(txn, sql);
+			ps.setInt(1, after == null ? 0 : after.getInt());
+			ps.setInt(2, limit);
+			rs = ps.executeQuery();
+			List<Contact> contacts = getContacts(rs);
+			rs.close();
+			releaseStatement(txn, ps);
+			return contacts;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private List<Contact> getContacts(ResultSet rs) throws SQLException {
+		List<Contact> contacts = new ArrayList<>();
+		while (rs.next()) {
+			ContactId contactId = new ContactId(rs.getInt(1));
+			AuthorId authorId = new AuthorId(rs.getBytes(2));
+			int formatVersion = rs.getInt(3);
+			String name = rs.getString(4);
+			String alias = rs.getString(5);
+			PublicKey publicKey = new SignaturePublicKey(rs.getBytes(6));
+			byte[] handshakePub = rs.getBytes(7);
+			AuthorId localAuthorId = new AuthorId(rs.getBytes(8));
+			boolean verified = rs.getBoolean(9);
+			Author author =
+					new Author(authorId, formatVersion, name, publicKey);
+			PublicKey handshakePublicKey = handshakePub == null ?
+					null : new AgreementPublicKey(handshakePub);
+			contacts.add(new Contact(contactId, author, localAuthorId,
+					alias, handshakePublicKey, verified));
+		}
+		return contacts;
+	}
+
 	@Override
 	public Collection<ContactId> getContacts(Connection txn, AuthorId local)
 			throws DbException {
@@ -1410,13 +1649,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT contactId FROM contacts"
 					+ " WHERE localAuthorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, local.getBytes());
 			rs = ps.executeQuery();
 			List<ContactId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new ContactId(rs.getInt(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1435,7 +1674,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " publicKey, handshakePublicKey, localAuthorId, verified"
 					+ " FROM contacts"
 					+ " WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, remote.getBytes());
 			rs = ps.executeQuery();
 			List<Contact> contacts = new ArrayList<>();
@@ -1456,7 +1695,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						alias, handshakePublicKey, verified));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return contacts;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1476,13 +1715,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " alias, publicKey, verified"
 					+ " FROM contacts"
 					+ " WHERE handshakePublicKey = ? AND localAuthorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, handshakePublicKey.getEncoded());
 			ps.setBytes(2, localAuthorId.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) {
 				rs.close();
-				ps.close();
+				releaseStatement(txn, ps);
 				return null;
 			}
 			ContactId contactId = new ContactId(rs.getInt(1));
@@ -1494,7 +1733,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			boolean verified = rs.getBoolean(7);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			Author author =
 					new Author(authorId, formatVersion, name, publicKey);
 			return new Contact(contactId, author, localAuthorId, alias,
@@ -1513,7 +1752,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT clientId, majorVersion, descriptor"
 					+ " FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1521,7 +1760,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int majorVersion = rs.getInt(2);
 			byte[] descriptor = rs.getBytes(3);
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return new Group(g, clientId, majorVersion, descriptor);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1538,7 +1777,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT groupId, descriptor FROM groups"
 					+ " WHERE clientId = ? AND majorVersion = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, c.getString());
 			ps.setInt(2, majorVersion);
 			rs = ps.executeQuery();
@@ -1549,7 +1788,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				groups.add(new Group(id, c, majorVersion, descriptor));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return groups;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1558,6 +1797,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<GroupId> getGroupIds(Connection txn, ClientId c,
+			int majorVersion) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId FROM groups"
+					+ " WHERE clientId = ? AND majorVersion = ?";
+			ps = prepareStatement(txn, sql);
+			ps.setString(1, c.getString());
+			ps.setInt(2, majorVersion);
+			rs = ps.executeQuery();
+			List<GroupId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new GroupId(rs.getBytes(1)));
+			rs.close();
+			releaseStatement(txn, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Visibility getGroupVisibility(Connection txn, ContactId c, GroupId g)
 			throws DbException {
@@ -1566,7 +1829,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT shared FROM groupVisibilities"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			rs = ps.executeQuery();
@@ -1575,7 +1838,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			else v = INVISIBLE;
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return v;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1592,14 +1855,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT contactId, shared FROM groupVisibilities"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			Map<ContactId, Boolean> visible = new HashMap<>();
 			while (rs.next())
 				visible.put(new ContactId(rs.getInt(1)), rs.getBoolean(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return visible;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1617,7 +1880,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " handshakePublicKey, handshakePrivateKey, created"
 					+ " FROM localAuthors"
 					+ " WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1630,7 +1893,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			long created = rs.getLong(7);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			LocalAuthor local = new LocalAuthor(a, formatVersion, name,
 					publicKey, privateKey);
 			PublicKey handshakePublicKey = handshakePub == null ?
@@ -1656,7 +1919,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " privateKey, handshakePublicKey, handshakePrivateKey,"
 					+ " created"
 					+ " FROM localAuthors";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			rs = ps.executeQuery();
 			List<Identity> identities = new ArrayList<>();
 			while (rs.next()) {
@@ -1678,7 +1941,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						handshakePrivateKey, created));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return identities;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1692,23 +1955,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT groupId, timestamp, raw FROM messages"
-					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT raw FROM messages WHERE messageId = ?";
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
-			GroupId g = new GroupId(rs.getBytes(1));
-			long timestamp = rs.getLong(2);
-			byte[] raw = rs.getBytes(3);
+			byte[] raw = rs.getBytes(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			if (raw == null) throw new MessageDeletedException();
 			if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
-			byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-			System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
-			return new Message(m, g, timestamp, body);
+			// The message uses the raw bytes without copying them
+			return new Message(m, raw);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1716,6 +1975,56 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Message> getMessages(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			Map<MessageId, Message> messages = new HashMap<>();
+			for (List<MessageId> chunk : getInClauseChunks(ids)) {
+				String sql = "SELECT messageId, raw FROM messages"
+						+ " WHERE messageId IN ("
+						+ getMessageIdPlaceholders(chunk.size()) + ")";
+				ps = prepareStatement(txn, sql);
+				setMessageIdParameters(ps, 1, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId m = new MessageId(rs.getBytes(1));
+					byte[] raw = rs.getBytes(2);
+					if (raw == null) throw new MessageDeletedException();
+					if (raw.length <= MESSAGE_HEADER_LENGTH)
+						throw new AssertionError();
+					// The message uses the raw bytes without copying them
+					messages.put(m, new Message(m, raw));
+				}
+				rs.close();
+				releaseStatement(txn, ps);
+			}
+			return messages;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the given messages in the given order, using one query.
+	 */
+	private List<Message> getMessagesInOrder(Connection txn,
+			List<MessageId> ids) throws DbException {
+		Map<MessageId, Message> found = getMessages(txn, ids);
+		List<Message> messages = new ArrayList<>(ids.size());
+		for (MessageId m : ids) {
+			Message message = found.get(m);
+			if (message == null) throw new DbException(new DbStateException());
+			messages.add(message);
+		}
+		return messages;
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Connection txn, GroupId g)
 			throws DbException {
@@ -1724,14 +2033,119 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId FROM messages"
 					+ " WHERE groupId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			releaseStatement(txn, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Long> getMessageTimestamps(Connection txn,
+			GroupId g, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		// Message IDs are compared in Java rather than SQL, as the databases
+		// may compare binary values differently. Ties between timestamps are
+		// resolved by loading all messages with the tied timestamp, so each
+		// query is bounded by the limit or by the number of ties
+		Map<MessageId, Long> timestamps = new HashMap<>();
+		List<MessageId> ids = new ArrayList<>();
+		if (m != null) {
+			// Messages with the same timestamp and a lower ID
+			Collection<MessageId> tied =
+					getMessageIdsWithTimestamp(txn, g, timestamp);
+			for (MessageId id : tied) {
+				if (id.compareTo(m) < 0) {
+					ids.add(id);
+					timestamps.put(id, timestamp);
+				}
+			}
+		}
+		if (ids.size() < limit) {
+			// Messages with lower timestamps, or with the same timestamp if
+			// no message ID was given
+			PreparedStatement ps = null;
+			ResultSet rs = null;
+			long oldest = timestamp;
+			int rows = 0;
+			try {
+				String sql = "SELECT messageId, timestamp FROM messages"
+						+ " WHERE groupId = ? AND state = ?"
+						+ (m == null ? " AND timestamp <= ?"
+						: " AND timestamp < ?")
+						+ " ORDER BY timestamp DESC LIMIT ?";
+				ps = prepareStatement(txn, sql);
+				ps.setBytes(1, g.getBytes());
+				ps.setInt(2, DELIVERED.getValue());
+				ps.setLong(3, timestamp);
+				ps.setInt(4, limit - ids.size());
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId id = new MessageId(rs.getBytes(1));
+					oldest = rs.getLong(2);
+					ids.add(id);
+					timestamps.put(id, oldest);
+					rows++;
+				}
+				rs.close();
+				releaseStatement(txn, ps);
+			} catch (SQLException e) {
+				tryToClose(rs, LOG, WARNING);
+				tryToClose(ps, LOG, WARNING);
+				throw new DbException(e);
+			}
+			// If the limit was reached, the query may have returned some but
+			// not all of the messages with the oldest timestamp
+			if (rows > 0 && ids.size() == limit) {
+				Collection<MessageId> tied =
+						getMessageIdsWithTimestamp(txn, g, oldest);
+				for (MessageId id : tied) {
+					if (!timestamps.containsKey(id)) {
+						ids.add(id);
+						timestamps.put(id, oldest);
+					}
+				}
+			}
+		}
+		// Sort newest first, breaking ties by ID
+		Collections.sort(ids, (a, b) -> {
+			long timestampA = timestamps.get(a), timestampB = timestamps.get(b);
+			if (timestampA != timestampB) return timestampA < timestampB ? 1 : -1;
+			return b.compareTo(a);
+		});
+		Map<MessageId, Long> page = new LinkedHashMap<>();
+		for (MessageId id : ids) {
+			if (page.size() == limit) break;
+			page.put(id, timestamps.get(id));
+		}
+		return page;
+	}
+
+	private Collection<MessageId> getMessageIdsWithTimestamp(Connection txn,
+			GroupId g, long timestamp) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND timestamp = ?";
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, timestamp);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1748,29 +2162,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setBytes(1, g.getBytes());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
-			}
-			if (intersection == null) throw new AssertionError();
-			return intersection;
+			ps = prepareStatement(txn, getMatchingMessageIdsSql(query.size()));
+			setMatchingMessageIdsParameters(ps, 1, g, query);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			releaseStatement(txn, ps);
+			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1778,6 +2177,111 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns a query that selects the IDs of the delivered messages in a
+	 * group with metadata matching all of the given number of query terms.
+	 * Each term matches at most one row per message, as metadata keys are
+	 * unique per message, so a message matches if the number of rows it
+	 * matches equals the number of terms.
+	 */
+	private String getMatchingMessageIdsSql(int terms) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT messageId FROM messageMetadata");
+		sb.append(" WHERE groupId = ? AND state = ? AND (");
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) sb.append(" OR ");
+			sb.append("(metaKey = ? AND value = ?)");
+		}
+		sb.append(") GROUP BY messageId HAVING COUNT (*) = ?");
+		return sb.toString();
+	}
+
+	/**
+	 * Splits the given message IDs into chunks of at most
+	 * {@link #MAX_IN_CLAUSE_IDS} IDs, preserving their order.
+	 */
+	private List<List<MessageId>> getInClauseChunks(
+			Collection<MessageId> ids) {
+		List<MessageId> list = ids instanceof List ?
+				(List<MessageId>) ids : new ArrayList<>(ids);
+		List<List<MessageId>> chunks = new ArrayList<>();
+		for (int i = 0; i < list.size(); i += MAX_IN_CLAUSE_IDS) {
+			int end = Math.min(list.size(), i + MAX_IN_CLAUSE_IDS);
+			chunks.add(list.subList(i, end));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns a comma-separated list of placeholders for an IN clause that
+	 * matches the given number of message IDs, which must not be more than
+	 * {@link #MAX_IN_CLAUSE_IDS}.
+	 * <p>
+	 * The number of placeholders is rounded up to a power of two, so IN
+	 * clauses for different numbers of IDs share a few prepared statements
+	 * rather than each taking a slot in the statement cache.
+	 */
+	private String getMessageIdPlaceholders(int count) {
+		if (count > MAX_IN_CLAUSE_IDS) throw new IllegalArgumentException();
+		StringBuilder sb = new StringBuilder("?");
+		for (int i = 1; i < getInClauseSize(count); i++) sb.append(", ?");
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters of an IN clause returned by
+	 * {@link #getMessageIdPlaceholders(int)}, starting from the given index.
+	 * Any unused placeholders are filled by repeating the last ID.
+	 */
+	private void setMessageIdParameters(PreparedStatement ps, int index,
+			Collection<MessageId> ids) throws SQLException {
+		byte[] last = null;
+		for (MessageId m : ids) {
+			last = m.getBytes();
+			ps.setBytes(index++, last);
+		}
+		for (int i = ids.size(); i < getInClauseSize(ids.size()); i++)
+			ps.setBytes(index++, last);
+	}
+
+	/**
+	 * Checks that a batch of the given size was executed and that each
+	 * statement affected between the given minimum and maximum numbers of
+	 * rows. Drivers may return {@link Statement#SUCCESS_NO_INFO} instead of
+	 * a row count, which is accepted.
+	 */
+	private static void checkBatchRowCounts(int[] batchAffected, int size,
+			int minRows, int maxRows) throws DbStateException {
+		if (batchAffected.length != size) throw new DbStateException();
+		for (int rows : batchAffected) {
+			if (rows == SUCCESS_NO_INFO) continue;
+			if (rows < minRows || rows > maxRows)
+				throw new DbStateException();
+		}
+	}
+
+	private int getInClauseSize(int count) {
+		int size = Integer.highestOneBit(count);
+		return size == count ? size : size << 1;
+	}
+
+	/**
+	 * Sets the parameters of a query returned by
+	 * {@link #getMatchingMessageIdsSql(int)}, starting from the given index,
+	 * and returns the index of the next parameter.
+	 */
+	private int setMatchingMessageIdsParameters(PreparedStatement ps,
+			int index, GroupId g, Metadata query) throws SQLException {
+		ps.setBytes(index++, g.getBytes());
+		ps.setInt(index++, DELIVERED.getValue());
+		for (Entry<String, byte[]> e : query.entrySet()) {
+			ps.setString(index++, e.getKey());
+			ps.setBytes(index++, e.getValue());
+		}
+		ps.setInt(index++, query.size());
+		return index;
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g) throws DbException {
@@ -1787,7 +2291,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId, metaKey, value"
 					+ " FROM messageMetadata"
 					+ " WHERE groupId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
@@ -1802,7 +2306,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				metadata.put(rs.getString(2), rs.getBytes(3));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return all;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1814,13 +2318,46 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<>(matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
+		if (query.isEmpty()) {
+			// Return the metadata of all delivered messages, including
+			// messages without any metadata
+			Map<MessageId, Metadata> all = getMessageMetadata(txn, g);
+			for (MessageId m : getMessageIds(txn, g)) {
+				if (!all.containsKey(m)) all.put(m, new Metadata());
+			}
+			return all;
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Retrieve the matching messages and their metadata in one query
+			String sql = "SELECT messageId, metaKey, value"
+					+ " FROM messageMetadata"
+					+ " WHERE groupId = ? AND state = ? AND messageId IN ("
+					+ getMatchingMessageIdsSql(query.size()) + ")";
+			ps = prepareStatement(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			setMatchingMessageIdsParameters(ps, 3, g, query);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new HashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				Metadata metadata = all.get(messageId);
+				if (metadata == null) {
+					metadata = new Metadata();
+					all.put(messageId, metadata);
+				}
+				metadata.put(rs.getString(2), rs.getBytes(3));
+			}
+			rs.close();
+			releaseStatement(txn, ps);
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -1831,13 +2368,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT metaKey, value FROM groupMetadata"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1854,14 +2391,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT metaKey, value FROM messageMetadata"
 					+ " WHERE state = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setBytes(2, m.getBytes());
 			rs = ps.executeQuery();
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1870,6 +2407,43 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			Map<MessageId, Metadata> all = new HashMap<>();
+			for (List<MessageId> chunk : getInClauseChunks(ids)) {
+				String sql = "SELECT messageId, metaKey, value"
+						+ " FROM messageMetadata"
+						+ " WHERE state = ? AND messageId IN ("
+						+ getMessageIdPlaceholders(chunk.size()) + ")";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, DELIVERED.getValue());
+				setMessageIdParameters(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					Metadata metadata = all.get(messageId);
+					if (metadata == null) {
+						metadata = new Metadata();
+						all.put(messageId, metadata);
+					}
+					metadata.put(rs.getString(2), rs.getBytes(3));
+				}
+				rs.close();
+				releaseStatement(txn, ps);
+			}
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Metadata getMessageMetadataForValidator(Connection txn, MessageId m)
 			throws DbException {
@@ -1879,7 +2453,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT metaKey, value FROM messageMetadata"
 					+ " WHERE (state = ? OR state = ?)"
 					+ " AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setInt(2, PENDING.getValue());
 			ps.setBytes(3, m.getBytes());
@@ -1887,7 +2461,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1904,7 +2478,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId, txCount > 0, seen FROM statuses"
 					+ " WHERE groupId = ? AND contactId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setInt(3, DELIVERED.getValue());
@@ -1917,7 +2491,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				statuses.add(new MessageStatus(messageId, c, sent, seen));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return statuses;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1935,7 +2509,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT txCount > 0, seen FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setInt(3, DELIVERED.getValue());
@@ -1948,7 +2522,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			}
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return status;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1957,6 +2531,43 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(Connection txn,
+			ContactId c, Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			Map<MessageId, MessageStatus> statuses = new HashMap<>();
+			for (List<MessageId> chunk : getInClauseChunks(ids)) {
+				String sql = "SELECT messageId, txCount > 0, seen"
+						+ " FROM statuses"
+						+ " WHERE contactId = ? AND state = ?"
+						+ " AND messageId IN ("
+						+ getMessageIdPlaceholders(chunk.size()) + ")";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, c.getInt());
+				ps.setInt(2, DELIVERED.getValue());
+				setMessageIdParameters(ps, 3, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					boolean sent = rs.getBoolean(2);
+					boolean seen = rs.getBoolean(3);
+					statuses.put(messageId,
+							new MessageStatus(messageId, c, sent, seen));
+				}
+				rs.close();
+				releaseStatement(txn, ps);
+			}
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, MessageState> getMessageDependencies(Connection txn,
 			MessageId m) throws DbException {
@@ -1966,7 +2577,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT dependencyId, dependencyState"
 					+ " FROM messageDependencies"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			Map<MessageId, MessageState> dependencies = new HashMap<>();
@@ -1978,7 +2589,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				dependencies.put(dependency, state);
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return dependencies;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1999,7 +2610,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " FROM messageDependencies"
 					+ " WHERE dependencyId = ?"
 					+ " AND dependencyState IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			Map<MessageId, MessageState> dependents = new HashMap<>();
@@ -2009,7 +2620,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				dependents.put(dependent, state);
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return dependents;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2025,14 +2636,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT state FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			MessageState state = MessageState.fromValue(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return state;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2050,14 +2661,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM statuses"
 					+ " WHERE contactId = ? AND ack = TRUE"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2075,23 +2686,20 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = FALSE"
+					+ " WHERE contactId = ? AND sendable = TRUE"
+					+ " AND requested = FALSE"
 					+ " AND (expiry <= ? OR eta > ?)"
 					+ " ORDER BY timestamp LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
-			ps.setInt(5, maxMessages);
+			ps.setLong(2, now);
+			ps.setLong(3, eta);
+			ps.setInt(4, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2109,14 +2717,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM offers"
 					+ " WHERE contactId = ?"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2126,7 +2734,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getMessagesToSend(Connection txn, ContactId c,
+	public Collection<Message> getMessagesToSend(Connection txn, ContactId c,
 			int maxLength, int maxLatency) throws DbException {
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
@@ -2134,17 +2742,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE"
+					+ " WHERE contactId = ? AND sendable = TRUE"
 					+ " AND (expiry <= ? OR eta > ?)"
 					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
+			ps.setLong(2, now);
+			ps.setLong(3, eta);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			int total = 0;
@@ -2155,8 +2759,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 				total += length;
 			}
 			rs.close();
-			ps.close();
-			return ids;
+			releaseStatement(txn, ps);
+			return getMessagesInOrder(txn, ids);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -2183,13 +2787,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId FROM messages"
 					+ " WHERE state = ? AND raw IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2211,13 +2815,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " ON d.messageId = m1.messageId"
 					+ " WHERE m.state = ?"
 					+ " AND m.shared = FALSE AND m1.shared = TRUE";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2237,7 +2841,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
 					+ " AND deleted = FALSE AND seen = FALSE"
 					+ " ORDER BY expiry LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
@@ -2247,7 +2851,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rs.next()) throw new AssertionError();
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return nextSendTime;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2265,7 +2869,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT publicKey, alias, timestamp"
 					+ " FROM pendingContacts"
 					+ " WHERE pendingContactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, p.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -2310,7 +2914,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
+	public Collection<Message> getRequestedMessagesToSend(Connection txn,
 			ContactId c, int maxLength, int maxLatency) throws DbException {
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
@@ -2318,17 +2922,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = TRUE"
+					+ " WHERE contactId = ? AND sendable = TRUE"
+					+ " AND requested = TRUE"
 					+ " AND (expiry <= ? OR eta > ?)"
 					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
+			ps.setLong(2, now);
+			ps.setLong(3, eta);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			int total = 0;
@@ -2339,8 +2940,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 				total += length;
 			}
 			rs.close();
-			ps.close();
-			return ids;
+			releaseStatement(txn, ps);
+			return getMessagesInOrder(txn, ids);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -2356,13 +2957,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT settingKey, value FROM settings"
 					+ " WHERE namespace = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, namespace);
 			rs = ps.executeQuery();
 			Settings s = new Settings();
 			while (rs.next()) s.put(rs.getString(1), rs.getString(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return s;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2379,7 +2980,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT syncVersions FROM contacts"
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -2388,7 +2989,33 @@ abstract class JdbcDatabase implements Database<Connection> {
 			for (byte b : bytes) supported.add(b);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
+			return supported;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<Byte> getSyncCapabilities(Connection txn, ContactId c)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT syncCapabilities FROM contacts"
+					+ " WHERE contactId = ?";
+			ps = prepareStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			byte[] bytes = rs.getBytes(1);
+			List<Byte> supported = new ArrayList<>(bytes.length);
+			for (byte b : bytes) supported.add(b);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			releaseStatement(txn, ps);
 			return supported;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2408,7 +3035,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " FROM incomingKeys"
 					+ " WHERE transportId = ?"
 					+ " ORDER BY keySetId, periodOffset";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			List<IncomingKeys> inKeys = new ArrayList<>();
@@ -2422,14 +3049,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 						windowBase, windowBitmap));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Retrieve the outgoing keys in the same order
 			sql = "SELECT keySetId, timePeriod, contactId, pendingContactId,"
 					+ " tagKey, headerKey, stream, active, rootKey, alice"
 					+ " FROM outgoingKeys"
 					+ " WHERE transportId = ?"
 					+ " ORDER BY keySetId";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			Collection<TransportKeySet> keys = new ArrayList<>();
@@ -2466,7 +3093,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						pendingContactId, transportKeys));
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			return keys;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2482,12 +3109,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE outgoingKeys SET stream = stream + 1"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2501,7 +3128,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET ack = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(2, c.getInt());
 			for (MessageId m : acked) {
 				ps.setBytes(1, m.getBytes());
@@ -2514,7 +3141,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2528,20 +3155,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET requested = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(2, c.getInt());
-			for (MessageId m : requested) {
-				ps.setBytes(1, m.getBytes());
-				ps.addBatch();
-			}
-			int[] batchAffected = ps.executeBatch();
-			if (batchAffected.length != requested.size())
-				throw new DbStateException();
-			for (int rows : batchAffected) {
-				if (rows < 0) throw new DbStateException();
-				if (rows > 1) throw new DbStateException();
+			// Execute the updates in fixed-size batches
+			for (List<MessageId> chunk : getInClauseChunks(requested)) {
+				for (MessageId m : chunk) {
+					ps.setBytes(1, m.getBytes());
+					ps.addBatch();
+				}
+				checkBatchRowCounts(ps.executeBatch(), chunk.size(), 0, 1);
 			}
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2559,7 +3183,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Insert any keys that don't already exist
 			String sql = "INSERT INTO groupMetadata (groupId, metaKey, value)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			for (Entry<String, byte[]> e : added.entrySet()) {
 				ps.setString(2, e.getKey());
@@ -2571,7 +3195,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2590,19 +3214,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Get the group ID and message state for the denormalised columns
 			String sql = "SELECT groupId, state FROM messages"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			GroupId g = new GroupId(rs.getBytes(1));
 			MessageState state = MessageState.fromValue(rs.getInt(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Insert any keys that don't already exist
 			sql = "INSERT INTO messageMetadata"
 					+ " (messageId, groupId, state, metaKey, value)"
 					+ " VALUES (?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setBytes(2, g.getBytes());
 			ps.setInt(3, state.getValue());
@@ -2616,7 +3240,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -2642,7 +3266,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (!removed.isEmpty()) {
 				String sql = "DELETE FROM " + tableName
 						+ " WHERE " + columnName + " = ? AND metaKey = ?";
-				ps = txn.prepareStatement(sql);
+				ps = prepareStatement(txn, sql);
 				ps.setBytes(1, id);
 				for (String key : removed) {
 					ps.setString(2, key);
@@ -2655,13 +3279,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 					if (rows < 0) throw new DbStateException();
 					if (rows > 1) throw new DbStateException();
 				}
-				ps.close();
+				releaseStatement(txn, ps);
 			}
 			if (notRemoved.isEmpty()) return Collections.emptyMap();
 			// Update any keys that already exist
 			String sql = "UPDATE " + tableName + " SET value = ?"
 					+ " WHERE " + columnName + " = ? AND metaKey = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(2, id);
 			for (Entry<String, byte[]> e : notRemoved.entrySet()) {
 				ps.setBytes(1, e.getValue());
@@ -2675,7 +3299,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			releaseStatement(txn, ps);
 			// Are there any keys that don't already exist?
 			Map<String, byte[]> added = new HashMap<>();
 			int updateIndex = 0;
@@ -2698,7 +3322,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Update any settings that already exist
 			String sql = "UPDATE settings SET value = ?"
 					+ " WHERE namespace = ? AND settingKey = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			for (Entry<String, String> e : s.entrySet()) {
 				ps.setString(1, e.getValue());
 				ps.setString(2, namespace);
@@ -2714,7 +3338,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Insert any settings that don't already exist
 			sql = "INSERT INTO settings (namespace, settingKey, value)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			int updateIndex = 0, inserted = 0;
 			for (Entry<String, String> e : s.entrySet()) {
 				if (batchAffected[updateIndex] == 0) {
@@ -2730,7 +3354,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != inserted) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2744,12 +3368,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET ack = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2763,12 +3387,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET requested = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2780,14 +3404,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			throws DbException {
 		PreparedStatement ps = null;
 		try {
-			String sql = "UPDATE statuses SET seen = TRUE"
+			String sql = "UPDATE statuses SET seen = TRUE, sendable = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2800,11 +3424,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2816,11 +3440,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2834,21 +3458,21 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM groupVisibilities"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Remove status rows for the messages in the group
 			sql = "DELETE FROM statuses"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2860,11 +3484,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM localAuthors WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2876,11 +3500,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2893,12 +3517,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM offers"
 					+ " WHERE contactId = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			return affected == 1;
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
@@ -2913,7 +3537,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM offers"
 					+ " WHERE contactId = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			for (MessageId m : requested) {
 				ps.setBytes(2, m.getBytes());
@@ -2924,7 +3548,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2938,11 +3562,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM pendingContacts"
 					+ " WHERE pendingContactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, p.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2970,11 +3594,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM transports WHERE transportId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2990,12 +3614,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// incoming keys with the same key set ID
 			String sql = "DELETE FROM outgoingKeys"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3009,12 +3633,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET expiry = 0, txCount = 0"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3027,12 +3651,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE contacts SET verified = ? WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBoolean(1, true);
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3045,13 +3669,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE contacts SET alias = ? WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			if (alias == null) ps.setNull(1, VARCHAR);
 			else ps.setString(1, alias);
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3065,23 +3689,34 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE groupVisibilities SET shared = ?"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBoolean(1, shared);
 			ps.setInt(2, c.getInt());
 			ps.setBytes(3, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in statuses
-			sql = "UPDATE statuses SET groupShared = ?"
-					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setBoolean(1, shared);
-			ps.setInt(2, c.getInt());
-			ps.setBytes(3, g.getBytes());
+			if (shared) {
+				sql = "UPDATE statuses SET groupShared = TRUE,"
+						+ " sendable = (state = ? AND messageShared = TRUE"
+						+ " AND deleted = FALSE AND seen = FALSE)"
+						+ " WHERE contactId = ? AND groupId = ?";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, DELIVERED.getValue());
+				ps.setInt(2, c.getInt());
+				ps.setBytes(3, g.getBytes());
+			} else {
+				sql = "UPDATE statuses SET groupShared = FALSE,"
+						+ " sendable = FALSE"
+						+ " WHERE contactId = ? AND groupId = ?";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, c.getInt());
+				ps.setBytes(2, g.getBytes());
+			}
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3096,13 +3731,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "UPDATE localAuthors"
 					+ " SET handshakePublicKey = ?, handshakePrivateKey = ?"
 					+ " WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, publicKey.getEncoded());
 			ps.setBytes(2, privateKey.getEncoded());
 			ps.setBytes(3, local.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3116,11 +3751,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE messages SET temporary = FALSE"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3134,19 +3769,22 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE messages SET shared = TRUE"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in statuses
-			sql = "UPDATE statuses SET messageShared = TRUE"
+			sql = "UPDATE statuses SET messageShared = TRUE,"
+					+ " sendable = (state = ? AND groupShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE)"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setBytes(1, m.getBytes());
+			ps = prepareStatement(txn, sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3159,47 +3797,56 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in messageMetadata
 			sql = "UPDATE messageMetadata SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in statuses
-			sql = "UPDATE statuses SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			if (state == DELIVERED) {
+				sql = "UPDATE statuses SET state = ?,"
+						+ " sendable = (groupShared = TRUE"
+						+ " AND messageShared = TRUE"
+						+ " AND deleted = FALSE AND seen = FALSE)"
+						+ " WHERE messageId = ?";
+			} else {
+				sql = "UPDATE statuses SET state = ?, sendable = FALSE"
+						+ " WHERE messageId = ?";
+			}
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in messageDependencies
 			sql = "UPDATE messageDependencies SET messageState = ?"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update denormalised column in messageDependencies if dependency
 			// is present and in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
 					+ " WHERE dependencyId = ? AND dependencyState IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3215,7 +3862,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "UPDATE incomingKeys SET base = ?, bitmap = ?"
 					+ " WHERE transportId = ? AND keySetId = ?"
 					+ " AND timePeriod = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setLong(1, base);
 			ps.setBytes(2, bitmap);
 			ps.setString(3, t.getString());
@@ -3223,7 +3870,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setLong(5, timePeriod);
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3237,7 +3884,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE contacts SET syncVersions = ?"
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
+			byte[] bytes = new byte[supported.size()];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = supported.get(i);
+			}
+			ps.setBytes(1, bytes);
+			ps.setInt(2, c.getInt());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			releaseStatement(txn, ps);
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void setSyncCapabilities(Connection txn, ContactId c,
+			List<Byte> supported) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE contacts SET syncCapabilities = ?"
+					+ " WHERE contactId = ?";
+			ps = prepareStatement(txn, sql);
 			byte[] bytes = new byte[supported.size()];
 			for (int i = 0; i < bytes.length; i++) {
 				bytes[i] = supported.get(i);
@@ -3246,7 +3916,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3260,12 +3930,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE outgoingKeys SET active = true"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3273,35 +3943,43 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public void updateExpiryTimeAndEta(Connection txn, ContactId c, MessageId m,
-			int maxLatency) throws DbException {
+	public void updateExpiryTimesAndEtas(Connection txn, ContactId c,
+			Collection<MessageId> ids, int maxLatency) throws DbException {
+		long now = clock.currentTimeMillis();
+		long eta = now + maxLatency;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT txCount FROM statuses"
-					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setBytes(1, m.getBytes());
-			ps.setInt(2, c.getInt());
-			rs = ps.executeQuery();
-			if (!rs.next()) throw new DbStateException();
-			int txCount = rs.getInt(1);
-			if (rs.next()) throw new DbStateException();
-			rs.close();
-			ps.close();
-			sql = "UPDATE statuses"
-					+ " SET expiry = ?, txCount = txCount + 1, eta = ?"
-					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
-			long now = clock.currentTimeMillis();
-			long eta = now + maxLatency;
-			ps.setLong(1, calculateExpiry(now, maxLatency, txCount));
-			ps.setLong(2, eta);
-			ps.setBytes(3, m.getBytes());
-			ps.setInt(4, c.getInt());
-			int affected = ps.executeUpdate();
-			if (affected != 1) throw new DbStateException();
-			ps.close();
+			for (List<MessageId> chunk : getInClauseChunks(ids)) {
+				String sql = "SELECT messageId, txCount FROM statuses"
+						+ " WHERE contactId = ? AND messageId IN ("
+						+ getMessageIdPlaceholders(chunk.size()) + ")";
+				ps = prepareStatement(txn, sql);
+				ps.setInt(1, c.getInt());
+				setMessageIdParameters(ps, 2, chunk);
+				rs = ps.executeQuery();
+				Map<MessageId, Integer> txCounts = new HashMap<>();
+				while (rs.next())
+					txCounts.put(new MessageId(rs.getBytes(1)), rs.getInt(2));
+				rs.close();
+				releaseStatement(txn, ps);
+				if (txCounts.size() != chunk.size())
+					throw new DbStateException();
+				sql = "UPDATE statuses"
+						+ " SET expiry = ?, txCount = txCount + 1, eta = ?"
+						+ " WHERE messageId = ? AND contactId = ?";
+				ps = prepareStatement(txn, sql);
+				ps.setLong(2, eta);
+				ps.setInt(4, c.getInt());
+				for (Entry<MessageId, Integer> e : txCounts.entrySet()) {
+					ps.setLong(1,
+							calculateExpiry(now, maxLatency, e.getValue()));
+					ps.setBytes(3, e.getKey().getBytes());
+					ps.addBatch();
+				}
+				checkBatchRowCounts(ps.executeBatch(), txCounts.size(), 1, 1);
+				releaseStatement(txn, ps);
+			}
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -3318,7 +3996,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "UPDATE outgoingKeys SET timePeriod = ?,"
 					+ " tagKey = ?, headerKey = ?, stream = ?"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			TransportKeys k = ks.getKeys();
 			OutgoingKeys outCurr = k.getCurrentOutgoingKeys();
 			ps.setLong(1, outCurr.getTimePeriod());
@@ -3329,13 +4007,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(6, ks.getKeySetId().getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 			// Update the incoming keys
 			sql = "UPDATE incomingKeys SET timePeriod = ?,"
 					+ " tagKey = ?, headerKey = ?, base = ?, bitmap = ?"
 					+ " WHERE transportId = ? AND keySetId = ?"
 					+ " AND periodOffset = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareStatement(txn, sql);
 			ps.setString(6, k.getTransportId().getString());
 			ps.setInt(7, ks.getKeySetId().getInt());
 			// Previous time period
@@ -3369,7 +4047,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != 3) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows < 0 || rows > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -0,0 +1,54 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration47_48 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration47_48.class.getName());
+
+	@Override
+	public int getStartVersion() {
+		return 47;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 48;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		PreparedStatement ps = null;
+		try {
+			s = txn.createStatement();
+			s.execute("ALTER TABLE statuses"
+					+ " ADD COLUMN sendable BOOLEAN DEFAULT FALSE NOT NULL");
+			// The new index on the sendable column replaces this index
+			s.execute("DROP INDEX IF EXISTS statusesByContactIdTimestamp");
+			s.close();
+			ps = txn.prepareStatement("UPDATE statuses SET sendable = TRUE"
+					+ " WHERE state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE");
+			ps.setInt(1, DELIVERED.getValue());
+			ps.executeUpdate();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+/**
+ * Caches the prepared statements of a single database connection.
+ * <p>
+ * {@link #prepareStatement(String)} returns a cached statement for the same
+ * SQL if there is one, and {@link #release(PreparedStatement)} returns the
+ * statement to the cache instead of closing it. A statement is removed from
+ * the cache while it's in use, so nested uses of the same SQL get separate
+ * statements. The least recently used statement is closed when the cache is
+ * full.
+ * <p>
+ * Like the connection itself, the cache must only be used by one thread at a
+ * time.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class StatementCache {
+
+	private static final Logger LOG =
+			getLogger(StatementCache.class.getName());
+
+	private final Connection txn;
+	private final int maxSize;
+	private final AtomicLong hits, misses;
+	// Statements that aren't in use, least recently used first
+	private final LinkedHashMap<String, PreparedStatement> statements =
+			new LinkedHashMap<>();
+	// The SQL of each statement that's in use
+	private final Map<PreparedStatement, String> inUse =
+			new IdentityHashMap<>();
+
+	/**
+	 * Creates a cache that holds up to the given number of prepared
+	 * statements for the given connection. The hit and miss counters are
+	 * incremented whenever a statement is prepared.
+	 */
+	StatementCache(Connection txn, int maxSize, AtomicLong hits,
+			AtomicLong misses) {
+		this.txn = txn;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL. The statement should
+	 * be passed to {@link #release(PreparedStatement)} when it's no longer
+	 * needed, or closed if it may be in an unknown state.
+	 */
+	PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement ps = statements.remove(sql);
+		// A released statement may have been closed after an error
+		if (ps == null || ps.isClosed()) {
+			misses.incrementAndGet();
+			ps = txn.prepareStatement(sql);
+		} else {
+			hits.incrementAndGet();
+		}
+		inUse.put(ps, sql);
+		return ps;
+	}
+
+	/**
+	 * Returns the given statement to the cache, or closes it if it wasn't
+	 * prepared by the cache.
+	 */
+	void release(PreparedStatement ps) {
+		String sql = inUse.remove(ps);
+		if (sql == null) {
+			close(ps);
+			return;
+		}
+		try {
+			ResultSet rs = ps.getResultSet();
+			if (rs != null) rs.close();
+			ps.clearParameters();
+			ps.clearBatch();
+		} catch (SQLException e) {
+			// Don't reuse a statement that's in an unknown state
+			logException(LOG, WARNING, e);
+			close(ps);
+			return;
+		}
+		if (statements.containsKey(sql)) {
+			// Another statement for the same SQL was released first
+			close(ps);
+			return;
+		}
+		statements.put(sql, ps);
+		if (statements.size() > maxSize) {
+			Iterator<PreparedStatement> it = statements.values().iterator();
+			close(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Closes any statements that are still in use at the end of a
+	 * transaction. These statements were closed directly after an error, or
+	 * never released.
+	 */
+	void endTransaction() {
+		for (PreparedStatement ps : inUse.keySet()) close(ps);
+		inUse.clear();
+	}
+
+	/**
+	 * Closes all statements. The cache must not be used afterwards.
+	 */
+	void close() {
+		endTransaction();
+		for (PreparedStatement ps : statements.values()) close(ps);
+		statements.clear();
+	}
+
+	private void close(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+}
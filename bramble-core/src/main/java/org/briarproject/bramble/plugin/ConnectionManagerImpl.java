@@ -55,7 +55,8 @@ class ConnectionManagerImpl implements ConnectionManager {
 
 	@Inject
 	ConnectionManagerImpl(@IoExecutor Executor ioExecutor,
-			KeyManager keyManager, StreamReaderFactory streamReaderFactory,
+			KeyManager keyManager,
+			StreamReaderFactory streamReaderFactory,
 			StreamWriterFactory streamWriterFactory,
 			SyncSessionFactory syncSessionFactory,
 			HandshakeManager handshakeManager,
@@ -123,22 +124,32 @@ class ConnectionManagerImpl implements ConnectionManager {
 
 	private SyncSession createSimplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w) throws IOException {
-		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
 		ContactId c = requireNonNull(ctx.getContactId());
+		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
+				w.getOutputStream(), ctx, useLargeFrames(ctx, w));
 		return syncSessionFactory.createSimplexOutgoingSession(c,
 				w.getMaxLatency(), streamWriter);
 	}
 
 	private SyncSession createDuplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w) throws IOException {
-		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
 		ContactId c = requireNonNull(ctx.getContactId());
+		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
+				w.getOutputStream(), ctx, useLargeFrames(ctx, w));
 		return syncSessionFactory.createDuplexOutgoingSession(c,
 				w.getMaxLatency(), w.getMaxIdleTime(), streamWriter);
 	}
 
+	/**
+	 * Returns true if the outgoing stream should use large frames. Large
+	 * frames are only used if the transport has enough bandwidth to benefit
+	 * from them and the contact has told us that it can read them.
+	 */
+	private boolean useLargeFrames(StreamContext ctx,
+			TransportConnectionWriter w) {
+		return ctx.isLargeFramesSupported() && w.isHighBandwidth();
+	}
+
 	private void disposeOnError(TransportConnectionReader reader,
 			boolean recognised) {
 		try {
@@ -559,7 +570,7 @@ class ConnectionManagerImpl implements ConnectionManager {
 						reader.getInputStream(), ctxIn);
 				// Flush the output stream to send the outgoing stream header
 				StreamWriter out = streamWriterFactory.createStreamWriter(
-						writer.getOutputStream(), ctxOut);
+						writer.getOutputStream(), ctxOut, false);
 				out.getOutputStream().flush();
 				HandshakeResult result = handshakeManager.handshake(
 						pendingContactId, in, out);
@@ -623,7 +634,7 @@ class ConnectionManagerImpl implements ConnectionManager {
 			StreamWriter out;
 			try {
 				out = streamWriterFactory.createStreamWriter(
-						writer.getOutputStream(), ctxOut);
+						writer.getOutputStream(), ctxOut, false);
 				out.getOutputStream().flush();
 			} catch (IOException e) {
 				logException(LOG, WARNING, e);
@@ -7,10 +7,12 @@ import org.briarproject.bramble.api.plugin.TransportConnectionWriter;
 import org.briarproject.bramble.api.plugin.simplex.SimplexPlugin;
 import org.briarproject.bramble.api.properties.TransportProperties;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.WARNING;
@@ -25,6 +27,13 @@ abstract class FilePlugin implements SimplexPlugin {
 	private static final Logger LOG =
 			getLogger(FilePlugin.class.getName());
 
+	/**
+	 * The size of the buffers used for reading and writing files. Files are
+	 * usually on removable media, which are much faster with large reads and
+	 * writes than with one read or write per frame.
+	 */
+	static final int BUFFER_SIZE = 256 * 1024;
+
 	protected final PluginCallback callback;
 	protected final int maxLatency;
 
@@ -50,7 +59,8 @@ abstract class FilePlugin implements SimplexPlugin {
 		if (isNullOrEmpty(path)) return null;
 		try {
 			File file = new File(path);
-			FileInputStream in = new FileInputStream(file);
+			InputStream in = new BufferedInputStream(
+					new FileInputStream(file), BUFFER_SIZE);
 			return new FileTransportReader(file, in, this);
 		} catch (IOException e) {
 			logException(LOG, WARNING, e);
@@ -3,12 +3,17 @@ package org.briarproject.bramble.plugin.file;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportConnectionWriter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.plugin.file.FilePlugin.BUFFER_SIZE;
 import static org.briarproject.bramble.util.IoUtils.tryToClose;
+import static org.briarproject.bramble.util.LogUtils.logException;
 
 @NotNullByDefault
 class FileTransportWriter implements TransportConnectionWriter {
@@ -17,13 +22,17 @@ class FileTransportWriter implements TransportConnectionWriter {
 			Logger.getLogger(FileTransportWriter.class.getName());
 
 	private final File file;
+	private final FileOutputStream fileOut;
 	private final OutputStream out;
 	private final FilePlugin plugin;
 
-	FileTransportWriter(File file, OutputStream out, FilePlugin plugin) {
+	FileTransportWriter(File file, FileOutputStream fileOut,
+			FilePlugin plugin) {
 		this.file = file;
-		this.out = out;
+		this.fileOut = fileOut;
 		this.plugin = plugin;
+		// Collect the stream's frames into large writes
+		out = new BufferedOutputStream(fileOut, BUFFER_SIZE);
 	}
 
 	@Override
@@ -36,6 +45,11 @@ class FileTransportWriter implements TransportConnectionWriter {
 		return plugin.getMaxIdleTime();
 	}
 
+	@Override
+	public boolean isHighBandwidth() {
+		return true;
+	}
+
 	@Override
 	public OutputStream getOutputStream() {
 		return out;
@@ -43,6 +57,16 @@ class FileTransportWriter implements TransportConnectionWriter {
 
 	@Override
 	public void dispose(boolean exception) {
+		if (!exception) {
+			// Make sure the file is on the medium before the user removes it
+			try {
+				out.flush();
+				fileOut.getChannel().force(true);
+			} catch (IOException e) {
+				logException(LOG, WARNING, e);
+				exception = true;
+			}
+		}
 		tryToClose(out, LOG, WARNING);
 		plugin.writerFinished(file, exception);
 	}
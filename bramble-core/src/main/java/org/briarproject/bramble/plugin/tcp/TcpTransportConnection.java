@@ -33,6 +33,11 @@ class TcpTransportConnection extends AbstractDuplexTransportConnection {
 		return IoUtils.getOutputStream(socket);
 	}
 
+	@Override
+	protected boolean isHighBandwidth() {
+		return true;
+	}
+
 	@Override
 	protected void closeConnection(boolean exception) throws IOException {
 		socket.close();
@@ -117,11 +117,11 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 				if (d.getLong("version") > latest.version) {
 					// This update is newer - delete the previous update
 					db.deleteMessage(txn, latest.messageId);
-					db.deleteMessageMetadata(txn, latest.messageId);
+					clientHelper.deleteMessageMetadata(txn, latest.messageId);
 				} else {
 					// We've already received a newer update - delete this one
 					db.deleteMessage(txn, m.getId());
-					db.deleteMessageMetadata(txn, m.getId());
+					clientHelper.deleteMessageMetadata(txn, m.getId());
 				}
 			}
 		} catch (FormatException e) {
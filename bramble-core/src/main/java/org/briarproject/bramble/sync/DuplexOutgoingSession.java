@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
@@ -12,7 +13,9 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
@@ -31,10 +34,12 @@ import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -43,7 +48,9 @@ import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -52,6 +59,9 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p>
+ * Events are coalesced over a short window, and all types of record that may
+ * be available are generated in a single transaction.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -68,34 +78,49 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
+	private final ScheduledExecutorService scheduler;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final ContactId contactId;
-	private final int maxLatency, maxIdleTime;
+	private final int maxLatency, maxIdleTime, coalescingWindow;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
-
-	private final AtomicBoolean generateAckQueued = new AtomicBoolean(false);
-	private final AtomicBoolean generateBatchQueued = new AtomicBoolean(false);
-	private final AtomicBoolean generateOfferQueued = new AtomicBoolean(false);
-	private final AtomicBoolean generateRequestQueued =
-			new AtomicBoolean(false);
+	private final Runnable generator = new GenerateRecords();
+
+	// The types of record that may be available to generate
+	private final AtomicBoolean ackPending = new AtomicBoolean(false);
+	private final AtomicBoolean batchPending = new AtomicBoolean(false);
+	private final AtomicBoolean offerPending = new AtomicBoolean(false);
+	private final AtomicBoolean requestPending = new AtomicBoolean(false);
+	private final AtomicBoolean generateQueued = new AtomicBoolean(false);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
 
+	// Counters for the records generated per transaction and bytes per flush
+	private final AtomicLong transactions = new AtomicLong(0);
+	private final AtomicLong recordsGenerated = new AtomicLong(0);
+	private final AtomicLong flushes = new AtomicLong(0);
+	private final AtomicLong bytesFlushed = new AtomicLong(0);
+
 	private volatile boolean interrupted = false;
 
+	// Only accessed by the thread that writes records
+	private long bytesSinceFlush = 0;
+
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, Clock clock, ContactId contactId, int maxLatency,
-			int maxIdleTime, StreamWriter streamWriter,
+			ScheduledExecutorService scheduler, EventBus eventBus, Clock clock,
+			ContactId contactId, int maxLatency, int maxIdleTime,
+			int coalescingWindow, StreamWriter streamWriter,
 			SyncRecordWriter recordWriter) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.scheduler = scheduler;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.contactId = contactId;
 		this.maxLatency = maxLatency;
 		this.maxIdleTime = maxIdleTime;
+		this.coalescingWindow = coalescingWindow;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
 		writerTasks = new LinkedBlockingQueue<>();
@@ -106,13 +131,16 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	public void run() throws IOException {
 		eventBus.addListener(this);
 		try {
-			// Send our supported protocol versions
+			// Send our supported protocol versions and capabilities
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
+			recordWriter.writeCapabilities(
+					new Capabilities(SUPPORTED_CAPABILITIES));
 			// Start a query for each type of record
-			generateAck();
-			generateBatch();
-			generateOffer();
-			generateRequest();
+			ackPending.set(true);
+			batchPending.set(true);
+			offerPending.set(true);
+			requestPending.set(true);
+			generate(false);
 			long now = clock.currentTimeMillis();
 			long nextKeepalive = now + maxIdleTime;
 			boolean dataToFlush = true;
@@ -126,7 +154,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 					long wait = Math.min(keepaliveWait, sendWait);
 					// Flush any unflushed data if we're going to wait
 					if (wait > 0 && dataToFlush && writerTasks.isEmpty()) {
-						recordWriter.flush();
+						flush();
 						dataToFlush = false;
 						nextKeepalive = now + maxIdleTime;
 					}
@@ -139,13 +167,14 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 							// Check for retransmittable messages
 							LOG.info("Checking for retransmittable messages");
 							setNextSendTime(Long.MAX_VALUE);
-							generateBatch();
-							generateOffer();
+							batchPending.set(true);
+							offerPending.set(true);
+							generate(false);
 						}
 						if (now >= nextKeepalive) {
 							// Flush the stream to keep it alive
 							LOG.info("Sending keepalive");
-							recordWriter.flush();
+							flush();
 							dataToFlush = false;
 							nextKeepalive = now + maxIdleTime;
 						}
@@ -166,27 +195,71 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			}
 		} finally {
 			eventBus.removeListener(this);
+			logCounters();
+		}
+	}
+
+	@IoExecutor
+	private void flush() throws IOException {
+		recordWriter.flush();
+		if (bytesSinceFlush > 0) {
+			flushes.incrementAndGet();
+			bytesFlushed.addAndGet(bytesSinceFlush);
+			bytesSinceFlush = 0;
+		}
+	}
+
+	private void logCounters() {
+		if (LOG.isLoggable(INFO)) {
+			long txns = transactions.get(), records = recordsGenerated.get();
+			long f = flushes.get(), bytes = bytesFlushed.get();
+			LOG.info("Generated " + records + " records in " + txns
+					+ " transactions, mean "
+					+ (txns == 0 ? 0 : records / txns) + " per transaction");
+			LOG.info("Flushed " + bytes + " bytes in " + f
+					+ " flushes, mean " + (f == 0 ? 0 : bytes / f)
+					+ " per flush");
 		}
 	}
 
-	private void generateAck() {
-		if (generateAckQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateAck());
+	long getTransactions() {
+		return transactions.get();
+	}
+
+	long getRecordsGenerated() {
+		return recordsGenerated.get();
 	}
 
-	private void generateBatch() {
-		if (generateBatchQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateBatch());
+	long getFlushes() {
+		return flushes.get();
 	}
 
-	private void generateOffer() {
-		if (generateOfferQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateOffer());
+	long getBytesFlushed() {
+		return bytesFlushed.get();
 	}
 
-	private void generateRequest() {
-		if (generateRequestQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateRequest());
+	/**
+	 * Marks a type of record as pending and makes sure a task is queued to
+	 * generate all pending records. If {@code coalesce} is true and no task
+	 * is queued, the task is delayed by the coalescing window, so events that
+	 * arrive close together are handled by one task and one transaction.
+	 * Records are generated without delay after other records have been
+	 * written, as more are likely to be available.
+	 */
+	private void generate(AtomicBoolean pending, boolean coalesce) {
+		pending.set(true);
+		generate(coalesce);
+	}
+
+	private void generate(boolean coalesce) {
+		if (generateQueued.compareAndSet(false, true)) {
+			if (coalesce && coalescingWindow > 0) {
+				scheduler.schedule(() -> dbExecutor.execute(generator),
+						coalescingWindow, MILLISECONDS);
+			} else {
+				dbExecutor.execute(generator);
+			}
+		}
 	}
 
 	private void setNextSendTime(long time) {
@@ -206,39 +279,68 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			ContactRemovedEvent c = (ContactRemovedEvent) e;
 			if (c.getContactId().equals(contactId)) interrupt();
 		} else if (e instanceof MessageSharedEvent) {
-			generateOffer();
+			generate(offerPending, true);
 		} else if (e instanceof GroupVisibilityUpdatedEvent) {
 			GroupVisibilityUpdatedEvent g = (GroupVisibilityUpdatedEvent) e;
 			if (g.getAffectedContacts().contains(contactId))
-				generateOffer();
+				generate(offerPending, true);
 		} else if (e instanceof MessageRequestedEvent) {
 			if (((MessageRequestedEvent) e).getContactId().equals(contactId))
-				generateBatch();
+				generate(batchPending, true);
 		} else if (e instanceof MessageToAckEvent) {
 			if (((MessageToAckEvent) e).getContactId().equals(contactId))
-				generateAck();
+				generate(ackPending, true);
 		} else if (e instanceof MessageToRequestEvent) {
 			if (((MessageToRequestEvent) e).getContactId().equals(contactId))
-				generateRequest();
+				generate(requestPending, true);
 		} else if (e instanceof LifecycleEvent) {
 			LifecycleEvent l = (LifecycleEvent) e;
 			if (l.getLifecycleState() == STOPPING) interrupt();
 		}
 	}
 
-	private class GenerateAck implements Runnable {
+	private class GenerateRecords implements Runnable {
 
 		@DatabaseExecutor
 		@Override
 		public void run() {
 			if (interrupted) return;
-			if (!generateAckQueued.getAndSet(false)) throw new AssertionError();
+			if (!generateQueued.getAndSet(false)) throw new AssertionError();
+			boolean ack = ackPending.getAndSet(false);
+			boolean batch = batchPending.getAndSet(false);
+			boolean offer = offerPending.getAndSet(false);
+			boolean request = requestPending.getAndSet(false);
+			if (!ack && !batch && !offer && !request) return;
 			try {
-				Ack a = db.transactionWithNullableResult(false, txn ->
-						db.generateAck(txn, contactId, MAX_MESSAGE_IDS));
+				WriteRecords w = db.transactionWithResult(false, txn -> {
+					WriteRecords records = new WriteRecords();
+					if (ack) {
+						records.ack = db.generateAck(txn, contactId,
+								MAX_MESSAGE_IDS);
+					}
+					if (request) {
+						records.request = db.generateRequest(txn, contactId,
+								MAX_MESSAGE_IDS);
+					}
+					if (offer) {
+						records.offer = db.generateOffer(txn, contactId,
+								MAX_MESSAGE_IDS, maxLatency);
+					}
+					if (batch) {
+						records.batch = db.generateRequestedBatch(txn,
+								contactId, MAX_RECORD_PAYLOAD_BYTES,
+								maxLatency);
+					}
+					if (offer || batch)
+						setNextSendTime(db.getNextSendTime(txn, contactId));
+					return records;
+				});
+				int count = w.countRecords();
+				transactions.incrementAndGet();
+				recordsGenerated.addAndGet(count);
 				if (LOG.isLoggable(INFO))
-					LOG.info("Generated ack: " + (a != null));
-				if (a != null) writerTasks.add(new WriteAck(a));
+					LOG.info("Generated " + count + " records");
+				if (count > 0) writerTasks.add(w);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -246,149 +348,62 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class WriteAck implements ThrowingRunnable<IOException> {
-
-		private final Ack ack;
-
-		private WriteAck(Ack ack) {
-			this.ack = ack;
+	private class WriteRecords implements ThrowingRunnable<IOException> {
+
+		@Nullable
+		private Ack ack = null;
+		@Nullable
+		private Request request = null;
+		@Nullable
+		private Offer offer = null;
+		@Nullable
+		private Collection<Message> batch = null;
+
+		private int countRecords() {
+			int count = 0;
+			if (ack != null) count++;
+			if (request != null) count++;
+			if (offer != null) count++;
+			if (batch != null) count += batch.size();
+			return count;
 		}
 
 		@IoExecutor
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
-			recordWriter.writeAck(ack);
-			LOG.info("Sent ack");
-			generateAck();
-		}
-	}
-
-	private class GenerateBatch implements Runnable {
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			if (interrupted) return;
-			if (!generateBatchQueued.getAndSet(false))
-				throw new AssertionError();
-			try {
-				Collection<Message> b =
-						db.transactionWithNullableResult(false, txn -> {
-							Collection<Message> batch =
-									db.generateRequestedBatch(txn, contactId,
-											MAX_RECORD_PAYLOAD_BYTES,
-											maxLatency);
-							setNextSendTime(db.getNextSendTime(txn, contactId));
-							return batch;
-						});
-				if (LOG.isLoggable(INFO))
-					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+			// More records of each type that was written may be available
+			if (ack != null) {
+				recordWriter.writeAck(ack);
+				bytesSinceFlush += getLength(ack.getMessageIds());
+				LOG.info("Sent ack");
+				ackPending.set(true);
 			}
-		}
-	}
-
-	private class WriteBatch implements ThrowingRunnable<IOException> {
-
-		private final Collection<Message> batch;
-
-		private WriteBatch(Collection<Message> batch) {
-			this.batch = batch;
-		}
-
-		@IoExecutor
-		@Override
-		public void run() throws IOException {
-			if (interrupted) return;
-			for (Message m : batch) recordWriter.writeMessage(m);
-			LOG.info("Sent batch");
-			generateBatch();
-		}
-	}
-
-	private class GenerateOffer implements Runnable {
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			if (interrupted) return;
-			if (!generateOfferQueued.getAndSet(false))
-				throw new AssertionError();
-			try {
-				Offer o = db.transactionWithNullableResult(false, txn -> {
-					Offer offer = db.generateOffer(txn, contactId,
-							MAX_MESSAGE_IDS, maxLatency);
-					setNextSendTime(db.getNextSendTime(txn, contactId));
-					return offer;
-				});
-				if (LOG.isLoggable(INFO))
-					LOG.info("Generated offer: " + (o != null));
-				if (o != null) writerTasks.add(new WriteOffer(o));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+			if (request != null) {
+				recordWriter.writeRequest(request);
+				bytesSinceFlush += getLength(request.getMessageIds());
+				LOG.info("Sent request");
+				requestPending.set(true);
 			}
-		}
-	}
-
-	private class WriteOffer implements ThrowingRunnable<IOException> {
-
-		private final Offer offer;
-
-		private WriteOffer(Offer offer) {
-			this.offer = offer;
-		}
-
-		@IoExecutor
-		@Override
-		public void run() throws IOException {
-			if (interrupted) return;
-			recordWriter.writeOffer(offer);
-			LOG.info("Sent offer");
-			generateOffer();
-		}
-	}
-
-	private class GenerateRequest implements Runnable {
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			if (interrupted) return;
-			if (!generateRequestQueued.getAndSet(false))
-				throw new AssertionError();
-			try {
-				Request r = db.transactionWithNullableResult(false, txn ->
-						db.generateRequest(txn, contactId, MAX_MESSAGE_IDS));
-				if (LOG.isLoggable(INFO))
-					LOG.info("Generated request: " + (r != null));
-				if (r != null) writerTasks.add(new WriteRequest(r));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+			if (offer != null) {
+				recordWriter.writeOffer(offer);
+				bytesSinceFlush += getLength(offer.getMessageIds());
+				LOG.info("Sent offer");
+				offerPending.set(true);
 			}
-		}
-	}
-
-	private class WriteRequest implements ThrowingRunnable<IOException> {
-
-		private final Request request;
-
-		private WriteRequest(Request request) {
-			this.request = request;
+			if (batch != null) {
+				for (Message m : batch) {
+					recordWriter.writeMessage(m);
+					bytesSinceFlush += RECORD_HEADER_BYTES + m.getRawLength();
+				}
+				LOG.info("Sent batch");
+				batchPending.set(true);
+			}
+			generate(false);
 		}
 
-		@IoExecutor
-		@Override
-		public void run() throws IOException {
-			if (interrupted) return;
-			recordWriter.writeRequest(request);
-			LOG.info("Sent request");
-			generateRequest();
+		private int getLength(Collection<MessageId> ids) {
+			return RECORD_HEADER_BYTES + ids.size() * UniqueId.LENGTH;
 		}
 	}
 }
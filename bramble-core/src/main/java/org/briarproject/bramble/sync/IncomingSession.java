@@ -1,11 +1,13 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -13,27 +15,39 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.system.Clock;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
 /**
- * An incoming {@link SyncSession}.
+ * An incoming {@link SyncSession}. Records are read on the calling thread and
+ * queued for storage. Consecutive queued records are stored in batches, each
+ * batch in a single transaction. If the queue is full, reading blocks until
+ * there is space in the queue.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -42,22 +56,51 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The maximum number of records that may be waiting to be stored before
+	 * reading blocks.
+	 */
+	private static final int MAX_QUEUED_RECORDS = 128;
+
+	/**
+	 * The maximum number of records that are stored in a single transaction.
+	 */
+	// Package access for testing
+	static final int MAX_BATCH_RECORDS = 64;
+
+	/**
+	 * The maximum total length in bytes of the records that are stored in a
+	 * single transaction. A batch always contains at least one record.
+	 */
+	private static final int MAX_BATCH_BYTES = 1024 * 1024; // 1 MiB
+
+	/**
+	 * How often to check whether the session has been interrupted while
+	 * waiting for space in the queue.
+	 */
+	private static final int QUEUE_POLL_INTERVAL_MS = 1000;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
+	private final BlockingQueue<IncomingRecord> queue;
+	private final AtomicBoolean storeRecordsQueued = new AtomicBoolean(false);
+	private final TransferProgress progress; // Used by the IO thread
 
 	private volatile boolean interrupted = false;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, ContactId contactId,
+			EventBus eventBus, Clock clock, ContactId contactId,
 			SyncRecordReader recordReader) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
+		queue = new LinkedBlockingQueue<>(MAX_QUEUED_RECORDS);
+		progress = new TransferProgress(eventBus, clock, contactId, false);
 	}
 
 	@IoExecutor
@@ -69,33 +112,54 @@ class IncomingSession implements SyncSession, EventListener {
 			while (!interrupted) {
 				if (recordReader.eof()) {
 					LOG.info("End of stream");
+					progress.finish();
 					return;
 				}
+				IncomingRecord record;
 				if (recordReader.hasAck()) {
-					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
+					record = new ReceiveAck(recordReader.readAck());
 				} else if (recordReader.hasMessage()) {
-					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					record = new ReceiveMessage(recordReader.readMessage());
 				} else if (recordReader.hasOffer()) {
-					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					record = new ReceiveOffer(recordReader.readOffer());
 				} else if (recordReader.hasRequest()) {
-					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					record = new ReceiveRequest(recordReader.readRequest());
 				} else if (recordReader.hasVersions()) {
-					Versions v = recordReader.readVersions();
-					dbExecutor.execute(new ReceiveVersions(v));
+					record = new ReceiveVersions(recordReader.readVersions());
+				} else if (recordReader.hasCapabilities()) {
+					record = new ReceiveCapabilities(
+							recordReader.readCapabilities());
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
 				}
+				queueRecord(record);
+				if (record instanceof ReceiveMessage)
+					progress.addBytes(record.getLength());
 			}
+		} catch (InterruptedException e) {
+			LOG.info("Interrupted while waiting to queue a record");
+			Thread.currentThread().interrupt();
 		} finally {
 			eventBus.removeListener(this);
 		}
 	}
 
+	@IoExecutor
+	private void queueRecord(IncomingRecord record)
+			throws InterruptedException {
+		// Wait for space in the queue unless the session is interrupted
+		while (!queue.offer(record, QUEUE_POLL_INTERVAL_MS, MILLISECONDS)) {
+			if (interrupted) return;
+		}
+		storeRecords();
+	}
+
+	private void storeRecords() {
+		if (storeRecordsQueued.compareAndSet(false, true))
+			dbExecutor.execute(new StoreRecords());
+	}
+
 	@Override
 	public void interrupt() {
 		// FIXME: This won't interrupt a blocking read
@@ -113,28 +177,98 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
-		}
+	private class StoreRecords implements Runnable {
 
 		@DatabaseExecutor
 		@Override
 		public void run() {
+			// Take as many queued records as fit in one batch
+			List<IncomingRecord> batch = new ArrayList<>();
+			int length = 0;
+			while (batch.size() < MAX_BATCH_RECORDS) {
+				IncomingRecord record = queue.peek();
+				if (record == null) break;
+				if (!batch.isEmpty() &&
+						length + record.getLength() > MAX_BATCH_BYTES) break;
+				batch.add(queue.remove());
+				length += record.getLength();
+			}
 			try {
-				db.transaction(false, txn ->
-						db.receiveAck(txn, contactId, ack));
+				if (!batch.isEmpty()) {
+					db.transaction(false, txn -> storeBatch(txn, batch));
+					if (LOG.isLoggable(FINE)) {
+						LOG.fine("Stored " + batch.size() + " records, "
+								+ length + " bytes");
+					}
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
+			} finally {
+				// Queue another task if more records arrived meanwhile
+				if (!storeRecordsQueued.getAndSet(false))
+					throw new AssertionError();
+				if (!queue.isEmpty()) storeRecords();
 			}
 		}
 	}
 
-	private class ReceiveMessage implements Runnable {
+	@DatabaseExecutor
+	private void storeBatch(Transaction txn, List<IncomingRecord> batch)
+			throws DbException {
+		int i = 0;
+		while (i < batch.size()) {
+			IncomingRecord record = batch.get(i);
+			// Store each run of two or more consecutive messages with a
+			// single call
+			List<Message> messages = new ArrayList<>();
+			for (int j = i; j < batch.size(); j++) {
+				IncomingRecord next = batch.get(j);
+				if (!(next instanceof ReceiveMessage)) break;
+				messages.add(((ReceiveMessage) next).message);
+			}
+			if (messages.size() > 1) {
+				db.receiveMessages(txn, contactId, messages);
+				i += messages.size();
+			} else {
+				record.store(txn);
+				i++;
+			}
+		}
+	}
+
+	private interface IncomingRecord {
+
+		/**
+		 * Returns the approximate length of the record in bytes.
+		 */
+		int getLength();
+
+		@DatabaseExecutor
+		void store(Transaction txn) throws DbException;
+	}
+
+	private class ReceiveAck implements IncomingRecord {
+
+		private final Ack ack;
+
+		private ReceiveAck(Ack ack) {
+			this.ack = ack;
+		}
+
+		@Override
+		public int getLength() {
+			return ack.getMessageIds().size() * UniqueId.LENGTH;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void store(Transaction txn) throws DbException {
+			db.receiveAck(txn, contactId, ack);
+		}
+	}
+
+	private class ReceiveMessage implements IncomingRecord {
 
 		private final Message message;
 
@@ -142,20 +276,19 @@ class IncomingSession implements SyncSession, EventListener {
 			this.message = message;
 		}
 
+		@Override
+		public int getLength() {
+			return message.getRawLength();
+		}
+
 		@DatabaseExecutor
 		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveMessage(txn, contactId, message));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+		public void store(Transaction txn) throws DbException {
+			db.receiveMessage(txn, contactId, message);
 		}
 	}
 
-	private class ReceiveOffer implements Runnable {
+	private class ReceiveOffer implements IncomingRecord {
 
 		private final Offer offer;
 
@@ -163,20 +296,19 @@ class IncomingSession implements SyncSession, EventListener {
 			this.offer = offer;
 		}
 
+		@Override
+		public int getLength() {
+			return offer.getMessageIds().size() * UniqueId.LENGTH;
+		}
+
 		@DatabaseExecutor
 		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveOffer(txn, contactId, offer));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+		public void store(Transaction txn) throws DbException {
+			db.receiveOffer(txn, contactId, offer);
 		}
 	}
 
-	private class ReceiveRequest implements Runnable {
+	private class ReceiveRequest implements IncomingRecord {
 
 		private final Request request;
 
@@ -184,20 +316,19 @@ class IncomingSession implements SyncSession, EventListener {
 			this.request = request;
 		}
 
+		@Override
+		public int getLength() {
+			return request.getMessageIds().size() * UniqueId.LENGTH;
+		}
+
 		@DatabaseExecutor
 		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveRequest(txn, contactId, request));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+		public void store(Transaction txn) throws DbException {
+			db.receiveRequest(txn, contactId, request);
 		}
 	}
 
-	private class ReceiveVersions implements Runnable {
+	private class ReceiveVersions implements IncomingRecord {
 
 		private final Versions versions;
 
@@ -205,17 +336,41 @@ class IncomingSession implements SyncSession, EventListener {
 			this.versions = versions;
 		}
 
+		@Override
+		public int getLength() {
+			return versions.getSupportedVersions().size();
+		}
+
 		@DatabaseExecutor
 		@Override
-		public void run() {
-			try {
-				List<Byte> supported = versions.getSupportedVersions();
-				db.transaction(false,
-						txn -> db.setSyncVersions(txn, contactId, supported));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+		public void store(Transaction txn) throws DbException {
+			List<Byte> supported = versions.getSupportedVersions();
+			db.setSyncVersions(txn, contactId, supported);
+			// Peers send their capabilities after their versions, so clear
+			// any capabilities from an earlier connection in case the
+			// contact has downgraded to a peer that doesn't send them
+			db.setSyncCapabilities(txn, contactId, emptyList());
+		}
+	}
+
+	private class ReceiveCapabilities implements IncomingRecord {
+
+		private final Capabilities capabilities;
+
+		private ReceiveCapabilities(Capabilities capabilities) {
+			this.capabilities = capabilities;
+		}
+
+		@Override
+		public int getLength() {
+			return capabilities.getSupportedCapabilities().size();
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void store(Transaction txn) throws DbException {
+			List<Byte> supported = capabilities.getSupportedCapabilities();
+			db.setSyncCapabilities(txn, contactId, supported);
 		}
 	}
 }
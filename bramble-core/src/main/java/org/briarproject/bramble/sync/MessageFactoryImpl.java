@@ -9,12 +9,17 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.util.ByteUtils;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.sync.Message.FORMAT_VERSION;
 import static org.briarproject.bramble.api.sync.MessageId.BLOCK_LABEL;
 import static org.briarproject.bramble.api.sync.MessageId.ID_LABEL;
+import static org.briarproject.bramble.api.sync.MessageId.TREE_LABEL;
+import static org.briarproject.bramble.api.sync.SyncConstants.BLOCK_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_BLOCKS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
@@ -39,13 +44,50 @@ class MessageFactoryImpl implements MessageFactory {
 		if (body.length == 0) throw new IllegalArgumentException();
 		if (body.length > MAX_MESSAGE_BODY_LENGTH)
 			throw new IllegalArgumentException();
-		MessageId id = getMessageId(g, timestamp, body);
+		MessageId id = getMessageId(g, timestamp,
+				getRootHash(ByteBuffer.wrap(body)));
 		return new Message(id, g, timestamp, body);
 	}
 
-	private MessageId getMessageId(GroupId g, long timestamp, byte[] body) {
-		// There's only one block, so the root hash is the hash of the block
-		byte[] rootHash = crypto.hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
+	/**
+	 * Returns the root hash of the block tree for the given body. The body
+	 * is split into blocks of BLOCK_LENGTH bytes and each block is hashed.
+	 * Pairs of hashes are then hashed together, level by level, until one
+	 * hash remains. If a level has an odd number of hashes, the last one
+	 * moves up to the next level unchanged, so the root hash of a
+	 * single-block body is the hash of the block.
+	 */
+	// Package access for testing
+	byte[] getRootHash(ByteBuffer body) {
+		int length = body.remaining();
+		int blocks = Math.max(1, (length + BLOCK_LENGTH - 1) / BLOCK_LENGTH);
+		if (blocks > MAX_BLOCKS) throw new IllegalArgumentException();
+		ByteBuffer formatVersion = ByteBuffer.wrap(FORMAT_VERSION_BYTES);
+		byte[][] level = new byte[blocks][];
+		for (int i = 0; i < blocks; i++) {
+			ByteBuffer block = body.duplicate();
+			block.position(body.position() + i * BLOCK_LENGTH);
+			block.limit(Math.min(block.position() + BLOCK_LENGTH,
+					body.limit()));
+			level[i] = crypto.hash(BLOCK_LABEL, formatVersion.duplicate(),
+					block);
+		}
+		// Hash each level in place, the parents overwrite their children
+		int size = blocks;
+		while (size > 1) {
+			int parents = (size + 1) / 2;
+			for (int i = 0; i < size / 2; i++) {
+				level[i] = crypto.hash(TREE_LABEL, FORMAT_VERSION_BYTES,
+						level[2 * i], level[2 * i + 1]);
+			}
+			if (size % 2 == 1) level[parents - 1] = level[size - 1];
+			size = parents;
+		}
+		return level[0];
+	}
+
+	private MessageId getMessageId(GroupId g, long timestamp,
+			byte[] rootHash) {
 		byte[] timeBytes = new byte[INT_64_BYTES];
 		ByteUtils.writeUint64(timestamp, timeBytes, 0);
 		byte[] idHash = crypto.hash(ID_LABEL, FORMAT_VERSION_BYTES,
@@ -63,19 +105,15 @@ class MessageFactoryImpl implements MessageFactory {
 		System.arraycopy(raw, 0, groupId, 0, UniqueId.LENGTH);
 		GroupId g = new GroupId(groupId);
 		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
-		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
-		MessageId id = getMessageId(g, timestamp, body);
-		return new Message(id, g, timestamp, body);
+		// Hash the body in place, and keep the raw message without copying
+		ByteBuffer body = ByteBuffer.wrap(raw, MESSAGE_HEADER_LENGTH,
+				raw.length - MESSAGE_HEADER_LENGTH);
+		MessageId id = getMessageId(g, timestamp, getRootHash(body));
+		return new Message(id, raw);
 	}
 
 	@Override
 	public byte[] getRawMessage(Message m) {
-		byte[] body = m.getBody();
-		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + body.length];
-		System.arraycopy(m.getGroupId().getBytes(), 0, raw, 0, UniqueId.LENGTH);
-		ByteUtils.writeUint64(m.getTimestamp(), raw, UniqueId.LENGTH);
-		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
-		return raw;
+		return m.getRaw();
 	}
 }
@@ -12,10 +12,12 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
 
 import java.io.IOException;
@@ -32,8 +34,8 @@ import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
-import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -41,6 +43,11 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * An outgoing {@link SyncSession} suitable for simplex transports. The session
  * sends messages without offering them first, and closes its output stream
  * when there are no more records to send.
+ * <p>
+ * Simplex transports such as removable drives may carry a contact's whole
+ * history, so messages are loaded in large batches. The next batch is only
+ * loaded after the current batch has been written, so a failed write
+ * doesn't mark any more messages as sent.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -52,6 +59,13 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private static final ThrowingRunnable<IOException> CLOSE = () -> {
 	};
 
+	/**
+	 * The maximum total length in bytes of the messages that are loaded in
+	 * a single transaction.
+	 */
+	// Package access for testing
+	static final int MAX_BATCH_BYTES = 1024 * 1024; // 1 MiB
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
@@ -61,12 +75,14 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private final SyncRecordWriter recordWriter;
 	private final AtomicInteger outstandingQueries;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
+	private final TransferProgress progress; // Used by the IO thread
 
 	private volatile boolean interrupted = false;
 
 	SimplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, ContactId contactId, int maxLatency,
-			StreamWriter streamWriter, SyncRecordWriter recordWriter) {
+			EventBus eventBus, Clock clock, ContactId contactId,
+			int maxLatency, StreamWriter streamWriter,
+			SyncRecordWriter recordWriter) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
@@ -76,6 +92,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		this.recordWriter = recordWriter;
 		outstandingQueries = new AtomicInteger(2); // One per type of record
 		writerTasks = new LinkedBlockingQueue<>();
+		progress = new TransferProgress(eventBus, clock, contactId, true);
 	}
 
 	@IoExecutor
@@ -83,8 +100,10 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	public void run() throws IOException {
 		eventBus.addListener(this);
 		try {
-			// Send our supported protocol versions
+			// Send our supported protocol versions and capabilities
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
+			recordWriter.writeCapabilities(
+					new Capabilities(SUPPORTED_CAPABILITIES));
 			// Start a query for each type of record
 			dbExecutor.execute(new GenerateAck());
 			dbExecutor.execute(new GenerateBatch());
@@ -96,6 +115,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 					task.run();
 				}
 				streamWriter.sendEndOfStream();
+				progress.finish();
 			} catch (InterruptedException e) {
 				LOG.info("Interrupted while waiting for a record to write");
 				Thread.currentThread().interrupt();
@@ -174,7 +194,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 				Collection<Message> b =
 						db.transactionWithNullableResult(false, txn ->
 								db.generateBatch(txn, contactId,
-										MAX_RECORD_PAYLOAD_BYTES, maxLatency));
+										MAX_BATCH_BYTES, maxLatency));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
 				if (b == null) decrementOutstandingQueries();
@@ -198,8 +218,13 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
-			for (Message m : batch) recordWriter.writeMessage(m);
+			long length = 0;
+			for (Message m : batch) {
+				recordWriter.writeMessage(m);
+				length += m.getRawLength();
+			}
 			LOG.info("Sent batch");
+			progress.addBytes(length);
 			dbExecutor.execute(new GenerateBatch());
 		}
 	}
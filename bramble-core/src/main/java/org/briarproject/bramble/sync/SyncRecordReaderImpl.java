@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -24,10 +25,12 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.CAPABILITIES;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
@@ -48,7 +51,7 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private static boolean isKnownRecordType(byte type) {
 		return type == ACK || type == MESSAGE || type == OFFER ||
-				type == REQUEST || type == VERSIONS;
+				type == REQUEST || type == VERSIONS || type == CAPABILITIES;
 	}
 
 	private final MessageFactory messageFactory;
@@ -174,4 +177,22 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		nextRecord = null;
 		return supported;
 	}
+
+	@Override
+	public boolean hasCapabilities() throws IOException {
+		return !eof() && getNextRecordType() == CAPABILITIES;
+	}
+
+	@Override
+	public Capabilities readCapabilities() throws IOException {
+		if (!hasCapabilities()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		if (payload.length > MAX_SUPPORTED_CAPABILITIES)
+			throw new FormatException();
+		List<Byte> supported = new ArrayList<>(payload.length);
+		for (byte b : payload) supported.add(b);
+		nextRecord = null;
+		return new Capabilities(supported);
+	}
 }
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordWriter;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -18,6 +19,7 @@ import java.io.IOException;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.CAPABILITIES;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
@@ -73,6 +75,12 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 		writeRecord(VERSIONS);
 	}
 
+	@Override
+	public void writeCapabilities(Capabilities c) throws IOException {
+		for (byte b : c.getSupportedCapabilities()) payload.write(b);
+		writeRecord(CAPABILITIES);
+	}
+
 	@Override
 	public void flush() throws IOException {
 		writer.flush();
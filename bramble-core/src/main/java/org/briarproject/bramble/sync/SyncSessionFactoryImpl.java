@@ -12,11 +12,13 @@ import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.Scheduler;
 import org.briarproject.bramble.api.transport.StreamWriter;
 
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -25,8 +27,16 @@ import javax.inject.Inject;
 @NotNullByDefault
 class SyncSessionFactoryImpl implements SyncSessionFactory {
 
+	/**
+	 * How long a duplex outgoing session waits after an event makes records
+	 * available before generating them, so that events arriving close
+	 * together are handled in one transaction.
+	 */
+	private static final int COALESCING_WINDOW = 100; // Milliseconds
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
+	private final ScheduledExecutorService scheduler;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final SyncRecordReaderFactory recordReaderFactory;
@@ -34,11 +44,13 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
+			@DatabaseExecutor Executor dbExecutor,
+			@Scheduler ScheduledExecutorService scheduler, EventBus eventBus,
 			Clock clock, SyncRecordReaderFactory recordReaderFactory,
 			SyncRecordWriterFactory recordWriterFactory) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.scheduler = scheduler;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
@@ -49,7 +61,8 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 	public SyncSession createIncomingSession(ContactId c, InputStream in) {
 		SyncRecordReader recordReader =
 				recordReaderFactory.createRecordReader(in);
-		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader);
+		return new IncomingSession(db, dbExecutor, eventBus, clock, c,
+				recordReader);
 	}
 
 	@Override
@@ -58,7 +71,7 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new SimplexOutgoingSession(db, dbExecutor, eventBus, c,
+		return new SimplexOutgoingSession(db, dbExecutor, eventBus, clock, c,
 				maxLatency, streamWriter, recordWriter);
 	}
 
@@ -68,7 +81,8 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c,
-				maxLatency, maxIdleTime, streamWriter, recordWriter);
+		return new DuplexOutgoingSession(db, dbExecutor, scheduler, eventBus,
+				clock, c, maxLatency, maxIdleTime, COALESCING_WINDOW,
+				streamWriter, recordWriter);
 	}
 }
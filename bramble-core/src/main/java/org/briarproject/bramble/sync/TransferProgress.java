@@ -0,0 +1,74 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.event.SyncProgressEvent;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Counts the message bytes transferred by a sync session and broadcasts a
+ * {@link SyncProgressEvent} at most once per {@link #PROGRESS_INTERVAL},
+ * and once more when the transfer finishes.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class TransferProgress {
+
+	private static final Logger LOG =
+			getLogger(TransferProgress.class.getName());
+
+	// Package access for testing
+	static final long PROGRESS_INTERVAL = 1000; // Milliseconds
+
+	private final EventBus eventBus;
+	private final Clock clock;
+	private final ContactId contactId;
+	private final boolean outgoing;
+	private final long start;
+
+	private long bytes = 0, lastProgress;
+
+	TransferProgress(EventBus eventBus, Clock clock, ContactId contactId,
+			boolean outgoing) {
+		this.eventBus = eventBus;
+		this.clock = clock;
+		this.contactId = contactId;
+		this.outgoing = outgoing;
+		start = lastProgress = clock.currentTimeMillis();
+	}
+
+	void addBytes(long length) {
+		bytes += length;
+		long now = clock.currentTimeMillis();
+		if (now - lastProgress >= PROGRESS_INTERVAL) broadcast(now);
+	}
+
+	/**
+	 * Broadcasts the final progress, if any messages were transferred.
+	 */
+	void finish() {
+		if (bytes == 0) return;
+		SyncProgressEvent e = broadcast(clock.currentTimeMillis());
+		if (LOG.isLoggable(INFO)) {
+			LOG.info((outgoing ? "Sent " : "Received ") + bytes
+					+ " bytes of messages at "
+					+ e.getBytesPerSecond() + " bytes/s");
+		}
+	}
+
+	private SyncProgressEvent broadcast(long now) {
+		lastProgress = now;
+		SyncProgressEvent e =
+				new SyncProgressEvent(contactId, outgoing, bytes, now - start);
+		eventBus.broadcast(e);
+		return e;
+	}
+}
@@ -14,6 +14,7 @@ import org.briarproject.bramble.api.lifecycle.Service;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageContext;
@@ -25,12 +26,16 @@ import org.briarproject.bramble.api.sync.validation.MessageValidator;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
@@ -38,12 +43,15 @@ import java.util.logging.Logger;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.lang.Math.max;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 @ThreadSafe
 @NotNullByDefault
@@ -53,11 +61,20 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages to load for validation, or to store the
+	 * validation results of, in a single transaction.
+	 */
+	private static final int MAX_MESSAGES_PER_BATCH = 50;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor, validationExecutor;
 	private final Map<ClientMajorVersion, MessageValidator> validators;
 	private final Map<ClientMajorVersion, IncomingMessageHook> hooks;
 	private final AtomicBoolean used = new AtomicBoolean(false);
+	private final Queue<ValidatedMessage> validated =
+			new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean storeQueued = new AtomicBoolean(false);
 
 	@Inject
 	ValidationManagerImpl(DatabaseComponent db,
@@ -103,35 +120,68 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> unvalidated = new LinkedList<>(
 					db.transactionWithResult(true, db::getMessagesToValidate));
-			validateNextMessageAsync(unvalidated);
+			validateNextMessagesAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void validateNextMessageAsync(Queue<MessageId> unvalidated) {
+	private void validateNextMessagesAsync(Queue<MessageId> unvalidated) {
 		if (unvalidated.isEmpty()) return;
-		dbExecutor.execute(() -> validateNextMessage(unvalidated));
+		dbExecutor.execute(() -> validateNextMessages(unvalidated));
+	}
+
+	@DatabaseExecutor
+	private void validateNextMessages(Queue<MessageId> unvalidated) {
+		List<MessageId> polled = new ArrayList<>();
+		try {
+			// Load a batch of raw messages and their groups
+			List<Pair<Message, Group>> loaded =
+					db.transactionWithResult(true, txn -> {
+						List<Pair<Message, Group>> batch = new ArrayList<>();
+						Map<GroupId, Group> groups = new HashMap<>();
+						while (polled.size() < MAX_MESSAGES_PER_BATCH) {
+							MessageId id = unvalidated.poll();
+							if (id == null) break;
+							polled.add(id);
+							try {
+								Message m = db.getMessage(txn, id);
+								Group g = groups.get(m.getGroupId());
+								if (g == null) {
+									g = db.getGroup(txn, m.getGroupId());
+									groups.put(g.getId(), g);
+								}
+								batch.add(new Pair<>(m, g));
+							} catch (NoSuchMessageException e) {
+								LOG.info("Message removed before validation");
+							} catch (NoSuchGroupException e) {
+								LOG.info("Group removed before validation");
+							}
+						}
+						return batch;
+					});
+			for (Pair<Message, Group> mg : loaded)
+				validateMessageAsync(mg.getFirst(), mg.getSecond());
+		} catch (DbException e) {
+			// The batch couldn't be loaded, so load the messages separately
+			logException(LOG, WARNING, e);
+			for (MessageId id : polled) loadAndValidate(id);
+		}
+		validateNextMessagesAsync(unvalidated);
 	}
 
 	@DatabaseExecutor
-	private void validateNextMessage(Queue<MessageId> unvalidated) {
+	private void loadAndValidate(MessageId id) {
 		try {
 			Pair<Message, Group> mg = db.transactionWithResult(true, txn -> {
-				MessageId id = unvalidated.poll();
-				if (id == null) throw new AssertionError();
 				Message m = db.getMessage(txn, id);
-				Group g = db.getGroup(txn, m.getGroupId());
-				return new Pair<>(m, g);
+				return new Pair<>(m, db.getGroup(txn, m.getGroupId()));
 			});
 			validateMessageAsync(mg.getFirst(), mg.getSecond());
-			validateNextMessageAsync(unvalidated);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed before validation");
-			validateNextMessageAsync(unvalidated);
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before validation");
-			validateNextMessageAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
@@ -146,73 +196,110 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> pending = new LinkedList<>(
 					db.transactionWithResult(true, db::getPendingMessages));
-			deliverNextPendingMessageAsync(pending);
+			deliverNextPendingMessagesAsync(pending);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void deliverNextPendingMessageAsync(Queue<MessageId> pending) {
+	private void deliverNextPendingMessagesAsync(Queue<MessageId> pending) {
 		if (pending.isEmpty()) return;
-		dbExecutor.execute(() -> deliverNextPendingMessage(pending));
+		dbExecutor.execute(() -> deliverNextPendingMessages(pending));
 	}
 
+	/**
+	 * Delivers pending messages from the queue in a single transaction.
+	 * The pending dependents of each delivered message are added to the
+	 * queue, so the queue is processed in topological order and a delivered
+	 * message's dependents can be delivered in the same transaction.
+	 */
 	@DatabaseExecutor
-	private void deliverNextPendingMessage(Queue<MessageId> pending) {
+	private void deliverNextPendingMessages(Queue<MessageId> pending) {
+		List<MessageId> polled = new ArrayList<>();
 		try {
 			Queue<MessageId> toShare = new LinkedList<>();
 			Queue<MessageId> invalidate = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				MessageId id = pending.poll();
-				if (id == null) throw new AssertionError();
-				// Check if message is still pending
-				if (db.getMessageState(txn, id) == PENDING) {
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-					if (anyInvalid) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					} else if (allDelivered) {
-						Message m = db.getMessage(txn, id);
-						Group g = db.getGroup(txn, m.getGroupId());
-						ClientId c = g.getClientId();
-						int majorVersion = g.getMajorVersion();
-						Metadata meta =
-								db.getMessageMetadataForValidator(txn, id);
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							addPendingDependents(txn, id, pending);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare.addAll(states.keySet());
-							}
-						} else {
-							addDependentsToInvalidate(txn, id, invalidate);
-						}
-					}
+				while (polled.size() < MAX_MESSAGES_PER_BATCH) {
+					MessageId id = pending.poll();
+					if (id == null) break;
+					polled.add(id);
+					deliverPendingMessage(txn, id, pending, invalidate,
+							toShare);
 				}
 			});
 			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
 			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-			deliverNextPendingMessageAsync(pending);
+		} catch (NoSuchMessageException | NoSuchGroupException e) {
+			// A message or group was removed before delivery and the
+			// transaction was rolled back, so deliver the messages separately
+			LOG.info("Message or group removed before delivery");
+			for (MessageId id : polled) deliverPendingMessage(id, pending);
+		} catch (DbException e) {
+			// The transaction was rolled back, so deliver the messages
+			// separately to stop one message from holding up the others
+			logException(LOG, WARNING, e);
+			for (MessageId id : polled) deliverPendingMessage(id, pending);
+		}
+		deliverNextPendingMessagesAsync(pending);
+	}
+
+	@DatabaseExecutor
+	private void deliverPendingMessage(MessageId id,
+			Queue<MessageId> pending) {
+		try {
+			Queue<MessageId> toShare = new LinkedList<>();
+			Queue<MessageId> invalidate = new LinkedList<>();
+			db.transaction(false, txn -> deliverPendingMessage(txn, id,
+					pending, invalidate, toShare));
+			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
+			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed before delivery");
-			deliverNextPendingMessageAsync(pending);
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before delivery");
-			deliverNextPendingMessageAsync(pending);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
+	@DatabaseExecutor
+	private void deliverPendingMessage(Transaction txn, MessageId id,
+			Queue<MessageId> pending, Queue<MessageId> invalidate,
+			Queue<MessageId> toShare) throws DbException {
+		// Check if message is still pending
+		if (db.getMessageState(txn, id) != PENDING) return;
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if dependencies are valid and delivered
+		Map<MessageId, MessageState> states =
+				db.getMessageDependencies(txn, id);
+		for (Entry<MessageId, MessageState> e : states.entrySet()) {
+			if (e.getValue() == INVALID) anyInvalid = true;
+			if (e.getValue() != DELIVERED) allDelivered = false;
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			addDependentsToInvalidate(txn, id, invalidate);
+		} else if (allDelivered) {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			ClientId c = g.getClientId();
+			int majorVersion = g.getMajorVersion();
+			Metadata meta = db.getMessageMetadataForValidator(txn, id);
+			DeliveryResult result =
+					deliverMessage(txn, m, c, majorVersion, meta);
+			if (result.valid) {
+				addPendingDependents(txn, id, pending);
+				if (result.share) {
+					db.setMessageShared(txn, id);
+					toShare.addAll(states.keySet());
+				}
+			} else {
+				addDependentsToInvalidate(txn, id, invalidate);
+			}
+		}
+	}
+
 	private void validateMessageAsync(Message m, Group g) {
 		validationExecutor.execute(() -> validateMessage(m, g));
 	}
@@ -240,59 +327,78 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	private void storeMessageContextAsync(Message m, ClientId c,
 			int majorVersion, MessageContext result) {
-		dbExecutor.execute(() ->
-				storeMessageContext(m, c, majorVersion, result));
+		validated.add(new ValidatedMessage(m, c, majorVersion, result));
+		storeMessageContextsAsync();
+	}
+
+	private void storeMessageContextsAsync() {
+		if (storeQueued.compareAndSet(false, true))
+			dbExecutor.execute(this::storeMessageContexts);
 	}
 
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c, int majorVersion,
-			MessageContext context) {
+	private void storeMessageContexts() {
+		List<ValidatedMessage> batch = new ArrayList<>();
+		while (batch.size() < MAX_MESSAGES_PER_BATCH) {
+			ValidatedMessage v = validated.poll();
+			if (v == null) break;
+			batch.add(v);
+		}
+		try {
+			if (batch.size() == 1) storeMessageContext(batch.get(0));
+			else if (batch.size() > 1) storeMessageContexts(batch);
+		} finally {
+			// Queue another task if more results arrived meanwhile
+			storeQueued.set(false);
+			if (!validated.isEmpty()) storeMessageContextsAsync();
+		}
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContexts(List<ValidatedMessage> batch) {
+		long start = now();
 		try {
-			MessageId id = m.getId();
 			Queue<MessageId> invalidate = new LinkedList<>();
 			Queue<MessageId> pending = new LinkedList<>();
 			Queue<MessageId> toShare = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							addPendingDependents(txn, id, pending);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare.addAll(dependencies);
-							}
-						} else {
-							addDependentsToInvalidate(txn, id, invalidate);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
+				for (ValidatedMessage v : batch) {
+					storeMessageContext(txn, v, invalidate, pending,
+							toShare);
 				}
 			});
+			if (LOG.isLoggable(FINE)) {
+				long duration = max(1, now() - start);
+				LOG.fine("Stored " + batch.size() + " validation results, "
+						+ (batch.size() * 1000 / duration) + " messages/s, "
+						+ validated.size() + " queued");
+			}
+			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
+			if (!pending.isEmpty()) deliverNextPendingMessagesAsync(pending);
+			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
+		} catch (NoSuchMessageException | NoSuchGroupException e) {
+			// A message or group was removed during validation and the
+			// transaction was rolled back, so store the results separately
+			LOG.info("Message or group removed during validation");
+			for (ValidatedMessage v : batch) storeMessageContext(v);
+		} catch (DbException e) {
+			// The transaction was rolled back, so store the results
+			// separately to stop one result from holding up the others
+			logException(LOG, WARNING, e);
+			for (ValidatedMessage v : batch) storeMessageContext(v);
+		}
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContext(ValidatedMessage v) {
+		try {
+			Queue<MessageId> invalidate = new LinkedList<>();
+			Queue<MessageId> pending = new LinkedList<>();
+			Queue<MessageId> toShare = new LinkedList<>();
+			db.transaction(false, txn ->
+					storeMessageContext(txn, v, invalidate, pending, toShare));
 			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
-			if (!pending.isEmpty()) deliverNextPendingMessageAsync(pending);
+			if (!pending.isEmpty()) deliverNextPendingMessagesAsync(pending);
 			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed during validation");
@@ -303,6 +409,52 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		}
 	}
 
+	@DatabaseExecutor
+	private void storeMessageContext(Transaction txn, ValidatedMessage v,
+			Queue<MessageId> invalidate, Queue<MessageId> pending,
+			Queue<MessageId> toShare) throws DbException {
+		Message m = v.message;
+		MessageId id = m.getId();
+		MessageContext context = v.context;
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, MessageState> states =
+					db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, MessageState> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				addDependentsToInvalidate(txn, id, invalidate);
+			}
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryResult result = deliverMessage(txn, m, v.clientId,
+						v.majorVersion, meta);
+				if (result.valid) {
+					addPendingDependents(txn, id, pending);
+					if (result.share) {
+						db.setMessageShared(txn, id);
+						toShare.addAll(dependencies);
+					}
+				} else {
+					addDependentsToInvalidate(txn, id, invalidate);
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
+		}
+	}
+
 	@DatabaseExecutor
 	private DeliveryResult deliverMessage(Transaction txn, Message m,
 			ClientId c, int majorVersion, Metadata meta) throws DbException {
@@ -448,6 +600,22 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		}
 	}
 
+	private static class ValidatedMessage {
+
+		private final Message message;
+		private final ClientId clientId;
+		private final int majorVersion;
+		private final MessageContext context;
+
+		private ValidatedMessage(Message message, ClientId clientId,
+				int majorVersion, MessageContext context) {
+			this.message = message;
+			this.clientId = clientId;
+			this.majorVersion = majorVersion;
+			this.context = context;
+		}
+	}
+
 	private static class DeliveryResult {
 
 		private final boolean valid, share;
@@ -40,6 +40,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static java.util.logging.Level.INFO;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
 
 @ThreadSafe
 @NotNullByDefault
@@ -177,8 +178,11 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 	public StreamContext getStreamContext(ContactId c, TransportId t)
 			throws DbException {
 		return withManager(t, m ->
-				db.transactionWithNullableResult(false, txn ->
-						m.getStreamContext(txn, c)));
+				db.transactionWithNullableResult(false, txn -> {
+					boolean largeFrames = db.getSyncCapabilities(txn, c)
+							.contains(CAPABILITY_LARGE_FRAMES);
+					return m.getStreamContext(txn, c, largeFrames);
+				}));
 	}
 
 	@Override
@@ -4,6 +4,9 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.transport.IncomingKeys;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 @NotThreadSafe
@@ -13,12 +16,21 @@ class MutableIncomingKeys {
 	private final SecretKey tagKey, headerKey;
 	private final long timePeriod;
 	private final ReorderingWindow window;
+	// Tags that have been encoded for stream numbers in the window, indexed
+	// by stream number modulo the window size. As the window contains
+	// consecutive stream numbers, each slot is used by at most one stream
+	// number in the window
+	private final byte[][] tags;
+	private final long[] tagStreamNumbers;
 
 	MutableIncomingKeys(IncomingKeys in) {
 		tagKey = in.getTagKey();
 		headerKey = in.getHeaderKey();
 		timePeriod = in.getTimePeriod();
 		window = new ReorderingWindow(in.getWindowBase(), in.getWindowBitmap());
+		tags = new byte[window.getSize()][];
+		tagStreamNumbers = new long[window.getSize()];
+		Arrays.fill(tagStreamNumbers, -1);
 	}
 
 	IncomingKeys snapshot() {
@@ -41,4 +53,37 @@ class MutableIncomingKeys {
 	ReorderingWindow getWindow() {
 		return window;
 	}
+
+	/**
+	 * Returns the tag that was encoded for the given stream number, or null
+	 * if no tag has been stored for the stream number.
+	 */
+	@Nullable
+	byte[] getTag(long streamNumber) {
+		int slot = (int) (streamNumber % tags.length);
+		if (tagStreamNumbers[slot] != streamNumber) return null;
+		return tags[slot];
+	}
+
+	/**
+	 * Stores the tag that was encoded for the given stream number, replacing
+	 * any tag stored for a stream number that's no longer in the window.
+	 */
+	void setTag(long streamNumber, byte[] tag) {
+		int slot = (int) (streamNumber % tags.length);
+		tags[slot] = tag;
+		tagStreamNumbers[slot] = streamNumber;
+	}
+
+	/**
+	 * Copies the stored tags from the given keys, which must be for the same
+	 * time period and tag key.
+	 */
+	void copyTags(MutableIncomingKeys other) {
+		if (other.timePeriod != timePeriod || other.tags.length != tags.length)
+			throw new IllegalArgumentException();
+		System.arraycopy(other.tags, 0, tags, 0, tags.length);
+		System.arraycopy(other.tagStreamNumbers, 0, tagStreamNumbers, 0,
+				tags.length);
+	}
 }
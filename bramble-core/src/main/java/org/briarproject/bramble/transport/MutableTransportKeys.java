@@ -45,6 +45,24 @@ class MutableTransportKeys {
 		}
 	}
 
+	/**
+	 * Reuses any tags that were encoded by the given keys for incoming keys
+	 * that are also used by these keys. This avoids encoding the tags again
+	 * when the keys are updated to a new time period.
+	 */
+	void reuseTags(MutableTransportKeys old) {
+		for (MutableIncomingKeys in : new MutableIncomingKeys[] {inPrev,
+				inCurr, inNext}) {
+			for (MutableIncomingKeys oldIn : new MutableIncomingKeys[] {
+					old.inPrev, old.inCurr, old.inNext}) {
+				if (oldIn.getTimePeriod() == in.getTimePeriod()) {
+					in.copyTags(oldIn);
+					break;
+				}
+			}
+		}
+	}
+
 	TransportId getTransportId() {
 		return transportId;
 	}
@@ -2,101 +2,131 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 
+/**
+ * A window of stream numbers, recording which of them have been seen.
+ * <p>
+ * The window is stored as a bitset in a single long, so it can hold up to
+ * 64 elements. The most significant bit of the bitset (within the size of
+ * the window) is the lowest element, which matches the order of the bits in
+ * the bitmap.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class ReorderingWindow {
 
+	private static final long[] EMPTY = new long[0];
+
+	private final int size;
+	private final long mask;
+
 	private long base;
-	private boolean[] seen;
+	private long seen;
 
 	ReorderingWindow(long base, byte[] bitmap) {
 		if (base < 0) throw new IllegalArgumentException();
 		if (base > MAX_32_BIT_UNSIGNED + 1)
 			throw new IllegalArgumentException();
+		if (bitmap.length == 0 || bitmap.length > 8)
+			throw new IllegalArgumentException();
 		this.base = base;
-		seen = new boolean[bitmap.length * 8];
-		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if ((bitmap[i] & (128 >> j)) != 0) seen[i * 8 + j] = true;
-			}
-		}
+		size = bitmap.length * 8;
+		mask = size == 64 ? -1L : (1L << size) - 1;
+		for (byte b : bitmap) seen = (seen << 8) | (b & 0xFF);
 	}
 
 	long getBase() {
 		return base;
 	}
 
+	int getSize() {
+		return size;
+	}
+
 	byte[] getBitmap() {
-		byte[] bitmap = new byte[seen.length / 8];
-		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if (seen[i * 8 + j]) bitmap[i] |= 128 >> j;
-			}
+		byte[] bitmap = new byte[size / 8];
+		long bits = seen;
+		for (int i = bitmap.length - 1; i >= 0; i--) {
+			bitmap[i] = (byte) bits;
+			bits >>>= 8;
 		}
 		return bitmap;
 	}
 
-	List<Long> getUnseen() {
-		List<Long> unseen = new ArrayList<>(seen.length);
-		for (int i = 0; i < seen.length; i++)
-			if (!seen[i]) unseen.add(base + i);
-		return unseen;
+	/**
+	 * Returns the elements of the window that have not been seen, in
+	 * ascending order.
+	 */
+	long[] getUnseen() {
+		long unseen = ~seen & mask;
+		long[] elements = new long[Long.bitCount(unseen)];
+		int i = 0;
+		while (unseen != 0) {
+			int offset = size - 64 + Long.numberOfLeadingZeros(unseen);
+			elements[i++] = base + offset;
+			unseen &= ~bit(offset);
+		}
+		return elements;
 	}
 
 	Change setSeen(long index) {
 		if (index < base) throw new IllegalArgumentException();
-		if (index >= base + seen.length) throw new IllegalArgumentException();
+		if (index >= base + size) throw new IllegalArgumentException();
 		if (index > MAX_32_BIT_UNSIGNED) throw new IllegalArgumentException();
 		int offset = (int) (index - base);
-		if (seen[offset]) throw new IllegalArgumentException();
-		seen[offset] = true;
+		if (isSeen(offset)) throw new IllegalArgumentException();
+		seen |= bit(offset);
 		// Rule 1: Slide until all elements above the midpoint are unseen
-		int slide = Math.max(0, offset + 1 - seen.length / 2);
+		int slide = Math.max(0, offset + 1 - size / 2);
 		// Rule 2: Slide until the lowest element is unseen
-		while (seen[slide]) slide++;
+		while (isSeen(slide)) slide++;
 		// If the window doesn't need to slide, return
-		if (slide == 0) {
-			List<Long> added = Collections.emptyList();
-			List<Long> removed = Collections.singletonList(index);
-			return new Change(added, removed);
-		}
+		if (slide == 0) return new Change(EMPTY, new long[] {index});
 		// Record the elements that will be added and removed
-		List<Long> added = new ArrayList<>(slide);
-		List<Long> removed = new ArrayList<>(slide);
+		long[] added = new long[slide];
+		long[] removed = new long[slide + 1];
+		int removedCount = 0;
 		for (int i = 0; i < slide; i++) {
-			if (!seen[i]) removed.add(base + i);
-			added.add(base + seen.length + i);
+			if (!isSeen(i)) removed[removedCount++] = base + i;
+			added[i] = base + size + i;
+		}
+		removed[removedCount++] = index;
+		if (removedCount < removed.length) {
+			long[] trimmed = new long[removedCount];
+			System.arraycopy(removed, 0, trimmed, 0, removedCount);
+			removed = trimmed;
 		}
-		removed.add(index);
 		// Update the window
 		base += slide;
-		for (int i = 0; i + slide < seen.length; i++) seen[i] = seen[i + slide];
-		for (int i = seen.length - slide; i < seen.length; i++) seen[i] = false;
+		seen = slide == 64 ? 0 : (seen << slide) & mask;
 		return new Change(added, removed);
 	}
 
+	private boolean isSeen(int offset) {
+		return (seen & bit(offset)) != 0;
+	}
+
+	private long bit(int offset) {
+		return 1L << (size - 1 - offset);
+	}
+
 	static class Change {
 
-		private final List<Long> added, removed;
+		private final long[] added, removed;
 
-		Change(List<Long> added, List<Long> removed) {
+		Change(long[] added, long[] removed) {
 			this.added = added;
 			this.removed = removed;
 		}
 
-		List<Long> getAdded() {
+		long[] getAdded() {
 			return added;
 		}
 
-		List<Long> getRemoved() {
+		long[] getRemoved() {
 			return removed;
 		}
 	}
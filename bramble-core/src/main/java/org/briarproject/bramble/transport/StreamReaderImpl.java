@@ -6,10 +6,9 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
-
 /**
  * An {@link InputStream} that unpacks payload data from transport frames.
  */
@@ -18,13 +17,14 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYL
 class StreamReaderImpl extends InputStream {
 
 	private final StreamDecrypter decrypter;
-	private final byte[] payload;
 
+	// The frame size isn't known until the stream header has been read
+	@Nullable
+	private byte[] payload = null;
 	private int offset = 0, length = 0;
 
 	StreamReaderImpl(StreamDecrypter decrypter) {
 		this.decrypter = decrypter;
-		payload = new byte[MAX_PAYLOAD_LENGTH];
 	}
 
 	@Override
@@ -59,6 +59,8 @@ class StreamReaderImpl extends InputStream {
 
 	private void readFrame() throws IOException {
 		if (length != 0) throw new IllegalStateException();
+		if (payload == null)
+			payload = new byte[decrypter.getMaxPayloadLength()];
 		offset = 0;
 		length = decrypter.readFrame(payload);
 	}
@@ -25,9 +25,9 @@ class StreamWriterFactoryImpl implements StreamWriterFactory {
 
 	@Override
 	public StreamWriter createStreamWriter(OutputStream out,
-			StreamContext ctx) {
-		return new StreamWriterImpl(
-				streamEncrypterFactory.createStreamEncrypter(out, ctx));
+			StreamContext ctx, boolean largeFrames) {
+		return new StreamWriterImpl(streamEncrypterFactory
+				.createStreamEncrypter(out, ctx, largeFrames));
 	}
 
 	@Override
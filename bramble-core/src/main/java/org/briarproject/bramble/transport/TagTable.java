@@ -0,0 +1,167 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * A hash table that maps tags to values.
+ * <p>
+ * Lookups don't allocate or take a lock, and can be made from any thread.
+ * Each bucket holds an immutable chain of entries that's replaced as a whole
+ * when the bucket changes. This means a lookup always sees a consistent
+ * chain. Updates must be made by a single thread at a time, for example
+ * while holding a lock.
+ * <p>
+ * Tags are pseudo-random, so the table uses the first bytes of the tag as the
+ * hash code. Only the owner of the tag keys can choose which tags go into the
+ * table, so peers can't make the chains long.
+ */
+@ThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// Written by the updating thread, read by any thread
+	private volatile AtomicReferenceArray<Node<V>> buckets =
+			new AtomicReferenceArray<>(MIN_CAPACITY);
+	private volatile int size = 0;
+
+	/**
+	 * Returns the value for the given tag, or null if the tag is not in the
+	 * table.
+	 */
+	@Nullable
+	V get(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		AtomicReferenceArray<Node<V>> b = buckets;
+		Node<V> n = b.get(indexFor(tag, b.length()));
+		while (n != null) {
+			if (Arrays.equals(n.tag, tag)) return n.value;
+			n = n.next;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the given tag and value to the table, replacing any existing value
+	 * for the tag, and returns the old value. The tag must not be modified
+	 * after calling this method.
+	 * <p>
+	 * Must only be called by one thread at a time.
+	 */
+	@Nullable
+	V put(byte[] tag, V value) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		V old = remove(tag);
+		AtomicReferenceArray<Node<V>> b = buckets;
+		int i = indexFor(tag, b.length());
+		b.set(i, new Node<>(tag, value, b.get(i)));
+		size++;
+		if (size > b.length() * 3 / 4) resize(b.length() * 2);
+		return old;
+	}
+
+	/**
+	 * Removes the given tag from the table and returns its value, or null
+	 * if the tag is not in the table.
+	 * <p>
+	 * Must only be called by one thread at a time.
+	 */
+	@Nullable
+	V remove(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		AtomicReferenceArray<Node<V>> b = buckets;
+		int i = indexFor(tag, b.length());
+		Node<V> head = b.get(i);
+		for (Node<V> n = head; n != null; n = n.next) {
+			if (Arrays.equals(n.tag, tag)) {
+				b.set(i, without(head, n));
+				size--;
+				return n.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all tags with values that match the given predicate.
+	 * <p>
+	 * Must only be called by one thread at a time.
+	 */
+	void removeIf(Predicate<V> predicate) {
+		AtomicReferenceArray<Node<V>> b = buckets;
+		for (int i = 0; i < b.length(); i++) {
+			Node<V> head = b.get(i);
+			Node<V> kept = null;
+			int removed = 0;
+			for (Node<V> n = head; n != null; n = n.next) {
+				if (predicate.test(n.value)) removed++;
+				else kept = new Node<>(n.tag, n.value, kept);
+			}
+			if (removed > 0) {
+				b.set(i, kept);
+				size -= removed;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of tags in the table.
+	 */
+	int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		AtomicReferenceArray<Node<V>> old = buckets;
+		AtomicReferenceArray<Node<V>> b = new AtomicReferenceArray<>(capacity);
+		for (int i = 0; i < old.length(); i++) {
+			for (Node<V> n = old.get(i); n != null; n = n.next) {
+				int j = indexFor(n.tag, capacity);
+				b.set(j, new Node<>(n.tag, n.value, b.get(j)));
+			}
+		}
+		// Publish the new buckets when they're complete
+		buckets = b;
+	}
+
+	/**
+	 * Returns a copy of the given chain without the given node. The nodes
+	 * after the removed node are shared with the original chain.
+	 */
+	@Nullable
+	private static <V> Node<V> without(Node<V> head, Node<V> remove) {
+		if (head == remove) return head.next;
+		return new Node<>(head.tag, head.value,
+				without(head.next, remove));
+	}
+
+	private static int indexFor(byte[] tag, int capacity) {
+		int hash = ((tag[0] & 0xFF) << 24) | ((tag[1] & 0xFF) << 16)
+				| ((tag[2] & 0xFF) << 8) | (tag[3] & 0xFF);
+		return hash & (capacity - 1);
+	}
+
+	private static class Node<V> {
+
+		private final byte[] tag;
+		private final V value;
+		@Nullable
+		private final Node<V> next;
+
+		private Node(byte[] tag, V value, @Nullable Node<V> next) {
+			this.tag = tag;
+			this.value = value;
+			this.next = next;
+		}
+	}
+}
@@ -37,8 +37,8 @@ interface TransportKeyManager {
 	boolean canSendOutgoingStreams(PendingContactId p);
 
 	@Nullable
-	StreamContext getStreamContext(Transaction txn, ContactId c)
-			throws DbException;
+	StreamContext getStreamContext(Transaction txn, ContactId c,
+			boolean largeFramesSupported) throws DbException;
 
 	@Nullable
 	StreamContext getStreamContext(Transaction txn, PendingContactId p)
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.transport;
 
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
@@ -21,7 +22,7 @@ class TransportKeyManagerFactoryImpl implements
 
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, cryptoExecutor;
 	private final ScheduledExecutorService scheduler;
 	private final Clock clock;
 
@@ -29,10 +30,12 @@ class TransportKeyManagerFactoryImpl implements
 	TransportKeyManagerFactoryImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto,
 			@DatabaseExecutor Executor dbExecutor,
+			@CryptoExecutor Executor cryptoExecutor,
 			@Scheduler ScheduledExecutorService scheduler, Clock clock) {
 		this.db = db;
 		this.transportCrypto = transportCrypto;
 		this.dbExecutor = dbExecutor;
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.clock = clock;
 	}
@@ -41,7 +44,7 @@ class TransportKeyManagerFactoryImpl implements
 	public TransportKeyManager createTransportKeyManager(
 			TransportId transportId, long maxLatency) {
 		return new TransportKeyManagerImpl(db, transportCrypto, dbExecutor,
-				scheduler, clock, transportId, maxLatency);
+				cryptoExecutor, scheduler, clock, transportId, maxLatency);
 	}
 
 }
@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -22,10 +21,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
@@ -33,7 +37,9 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.nullsafety.NullSafety.requireExactlyOneNull;
@@ -41,7 +47,9 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOC
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 @ThreadSafe
 @NotNullByDefault
@@ -52,18 +60,20 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, cryptoExecutor;
 	private final ScheduledExecutorService scheduler;
 	private final Clock clock;
 	private final TransportId transportId;
 	private final long timePeriodLength;
 	private final AtomicBoolean used = new AtomicBoolean(false);
 	private final ReentrantLock lock = new ReentrantLock();
+	private final AtomicLong tagLookups = new AtomicLong();
+	private final AtomicLong tagLookupNanos = new AtomicLong();
 
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
-	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	// Updated while holding the lock, looked up without holding it
+	private volatile TagTable<TagContext> inContexts = new TagTable<>();
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
@@ -73,11 +83,13 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	TransportKeyManagerImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto, Executor dbExecutor,
+			Executor cryptoExecutor,
 			@Scheduler ScheduledExecutorService scheduler, Clock clock,
 			TransportId transportId, long maxLatency) {
 		this.db = db;
 		this.transportCrypto = transportCrypto;
 		this.dbExecutor = dbExecutor;
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.clock = clock;
 		this.transportId = transportId;
@@ -91,15 +103,25 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Load the transport keys from the DB
-			Collection<TransportKeySet> loaded =
-					db.getTransportKeys(txn, transportId);
-			// Update the keys to the current time period
-			UpdateResult updateResult = updateKeys(loaded, now);
+			long start = now();
+			List<TransportKeySet> loaded =
+					new ArrayList<>(db.getTransportKeys(txn, transportId));
+			logDuration(LOG, "Loading keys for " + transportId, start);
+			// Update the keys to the current time period and encode the tags
+			start = now();
+			List<PreparedKeySet> prepared = prepareKeys(loaded, now);
+			logDuration(LOG, "Updating " + loaded.size() + " key sets for "
+					+ transportId, start);
 			// Initialise mutable state for all contacts
-			addKeys(updateResult.current);
+			List<TransportKeySet> updated = new ArrayList<>();
+			for (PreparedKeySet p : prepared) {
+				TransportKeySet ks = p.keySet;
+				addKeys(ks.getKeySetId(), ks.getContactId(),
+						ks.getPendingContactId(), p.keys, inContexts);
+				if (p.updated) updated.add(ks);
+			}
 			// Write any updated keys back to the DB
-			if (!updateResult.updated.isEmpty())
-				db.updateTransportKeys(txn, updateResult.updated);
+			if (!updated.isEmpty()) db.updateTransportKeys(txn, updated);
 		} finally {
 			lock.unlock();
 		}
@@ -127,45 +149,130 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		return updateResult;
 	}
 
+	/**
+	 * Updates the given keys to the current time period and encodes the tags
+	 * for their reordering windows. Each key set is independent, so the work
+	 * is shared between the calling thread and the crypto executor.
+	 */
+	private List<PreparedKeySet> prepareKeys(List<TransportKeySet> keys,
+			long now) throws DbException {
+		long timePeriod = now / timePeriodLength;
+		PreparedKeySet[] prepared = new PreparedKeySet[keys.size()];
+		AtomicInteger next = new AtomicInteger(0);
+		Runnable worker = () -> {
+			for (int i = next.getAndIncrement(); i < prepared.length;
+					i = next.getAndIncrement()) {
+				prepared[i] = prepareKeySet(keys.get(i), timePeriod);
+			}
+		};
+		int helpers = Math.min(keys.size(),
+				Runtime.getRuntime().availableProcessors()) - 1;
+		List<FutureTask<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < helpers; i++) {
+			FutureTask<Void> task = new FutureTask<>(worker, null);
+			tasks.add(task);
+			cryptoExecutor.execute(task);
+		}
+		worker.run();
+		for (FutureTask<Void> task : tasks) {
+			// If the task hasn't started, run it here rather than waiting
+			// for it, as it may be queued behind other tasks or discarded.
+			// A task that has already started or finished won't run again
+			task.run();
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DbException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw new AssertionError(cause);
+			}
+		}
+		return asList(prepared);
+	}
+
+	private PreparedKeySet prepareKeySet(TransportKeySet ks, long timePeriod) {
+		TransportKeys k = ks.getKeys();
+		TransportKeys k1 = transportCrypto.updateTransportKeys(k, timePeriod);
+		boolean updated = k1.getTimePeriod() > k.getTimePeriod();
+		if (updated) {
+			ks = new TransportKeySet(ks.getKeySetId(), ks.getContactId(),
+					ks.getPendingContactId(), k1);
+		}
+		// Encode the tags so addKeys() will find them already encoded
+		MutableTransportKeys m = new MutableTransportKeys(ks.getKeys());
+		encodeTags(m.getPreviousIncomingKeys());
+		encodeTags(m.getCurrentIncomingKeys());
+		encodeTags(m.getNextIncomingKeys());
+		return new PreparedKeySet(ks, m, updated);
+	}
+
+	private void encodeTags(MutableIncomingKeys inKeys) {
+		for (long streamNumber : inKeys.getWindow().getUnseen())
+			getTag(inKeys, streamNumber);
+	}
+
 	@GuardedBy("lock")
-	private void addKeys(Collection<TransportKeySet> keys) {
+	private void addKeys(Collection<TransportKeySet> keys,
+			TagTable<TagContext> tags,
+			Map<KeySetId, MutableTransportKeySet> oldKeys) {
 		for (TransportKeySet ks : keys) {
+			MutableTransportKeys m = new MutableTransportKeys(ks.getKeys());
+			// Reuse any tags that were encoded before the keys were updated
+			MutableTransportKeySet old = oldKeys.get(ks.getKeySetId());
+			if (old != null) m.reuseTags(old.getKeys());
 			addKeys(ks.getKeySetId(), ks.getContactId(),
-					ks.getPendingContactId(),
-					new MutableTransportKeys(ks.getKeys()));
+					ks.getPendingContactId(), m, tags);
 		}
 	}
 
 	@GuardedBy("lock")
 	private void addKeys(KeySetId keySetId, @Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
-			MutableTransportKeys keys) {
+			MutableTransportKeys keys, TagTable<TagContext> tags) {
 		requireExactlyOneNull(contactId, pendingContactId);
 		MutableTransportKeySet ks = new MutableTransportKeySet(keySetId,
 				contactId, pendingContactId, keys);
 		this.keys.put(keySetId, ks);
 		boolean handshakeMode = keys.isHandshakeMode();
 		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getPreviousIncomingKeys(), handshakeMode);
+				keys.getPreviousIncomingKeys(), handshakeMode, tags);
 		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getCurrentIncomingKeys(), handshakeMode);
+				keys.getCurrentIncomingKeys(), handshakeMode, tags);
 		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getNextIncomingKeys(), handshakeMode);
+				keys.getNextIncomingKeys(), handshakeMode, tags);
 		considerReplacingOutgoingKeys(ks);
 	}
 
 	@GuardedBy("lock")
 	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
-			MutableIncomingKeys inKeys, boolean handshakeMode) {
+			MutableIncomingKeys inKeys, boolean handshakeMode,
+			TagTable<TagContext> tags) {
 		for (long streamNumber : inKeys.getWindow().getUnseen()) {
 			TagContext tagCtx = new TagContext(keySetId, contactId,
 					pendingContactId, inKeys, streamNumber, handshakeMode);
-			byte[] tag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
-					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+			tags.put(getTag(inKeys, streamNumber), tagCtx);
+		}
+	}
+
+	/**
+	 * Returns the tag for the given stream number, encoding it if it hasn't
+	 * already been encoded.
+	 */
+	private byte[] getTag(MutableIncomingKeys inKeys, long streamNumber) {
+		byte[] tag = inKeys.getTag(streamNumber);
+		if (tag == null) {
+			tag = new byte[TAG_LENGTH];
+			transportCrypto.encodeTag(tag, inKeys.getTagKey(),
+					PROTOCOL_VERSION, streamNumber);
+			inKeys.setTag(streamNumber, tag);
 		}
+		return tag;
 	}
 
 	@GuardedBy("lock")
@@ -226,7 +333,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, c, null, new MutableTransportKeys(k));
+			addKeys(keySetId, c, null, new MutableTransportKeys(k),
+					inContexts);
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -246,7 +354,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, c, null, new MutableTransportKeys(k));
+			addKeys(keySetId, c, null, new MutableTransportKeys(k),
+					inContexts);
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -266,7 +375,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, p, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, null, p, new MutableTransportKeys(k));
+			addKeys(keySetId, null, p, new MutableTransportKeys(k),
+					inContexts);
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -293,13 +403,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			inContexts.removeIf(tagCtx -> c.equals(tagCtx.contactId));
 			contactOutContexts.remove(c);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (c.equals(it1.next().getContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (c.equals(it.next().getContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -310,13 +418,12 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			inContexts.removeIf(tagCtx ->
+					p.equals(tagCtx.pendingContactId));
 			pendingContactOutContexts.remove(p);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (p.equals(it1.next().getPendingContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (p.equals(it.next().getPendingContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -347,21 +454,21 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	}
 
 	@Override
-	public StreamContext getStreamContext(Transaction txn, ContactId c)
-			throws DbException {
-		return getStreamContext(txn, c, null);
+	public StreamContext getStreamContext(Transaction txn, ContactId c,
+			boolean largeFramesSupported) throws DbException {
+		return getStreamContext(txn, c, null, largeFramesSupported);
 	}
 
 	@Override
 	public StreamContext getStreamContext(Transaction txn, PendingContactId p)
 			throws DbException {
-		return getStreamContext(txn, null, p);
+		return getStreamContext(txn, null, p, false);
 	}
 
 	@Nullable
 	private StreamContext getStreamContext(Transaction txn,
-			@Nullable ContactId c, @Nullable PendingContactId p)
-			throws DbException {
+			@Nullable ContactId c, @Nullable PendingContactId p,
+			boolean largeFramesSupported) throws DbException {
 		lock.lock();
 		try {
 			// Look up the outgoing keys for the contact
@@ -374,7 +481,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Create a stream context
 			StreamContext ctx = new StreamContext(c, p, transportId,
 					outKeys.getTagKey(), outKeys.getHeaderKey(),
-					outKeys.getStreamCounter(), keys.isHandshakeMode());
+					outKeys.getStreamCounter(), keys.isHandshakeMode(),
+					largeFramesSupported);
 			// Increment the stream counter and write it back to the DB
 			outKeys.incrementStreamCounter();
 			db.incrementStreamCounter(txn, transportId, ks.getKeySetId());
@@ -387,37 +495,43 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@Override
 	public StreamContext getStreamContext(Transaction txn, byte[] tag)
 			throws DbException {
+		// Look up the tag without holding the lock, so connections with
+		// unrecognised tags don't have to wait for other connections
+		long start = System.nanoTime();
+		boolean found = inContexts.get(tag) != null;
+		tagLookupNanos.addAndGet(System.nanoTime() - start);
+		tagLookups.incrementAndGet();
+		if (!found) return null;
 		lock.lock();
 		try {
-			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
+			// Look up the incoming keys for the tag again, as the tag may
+			// have been used or the keys updated since the first lookup
+			TagTable<TagContext> tags = inContexts;
+			TagContext tagCtx = tags.remove(tag);
 			if (tagCtx == null) return null;
 			MutableIncomingKeys inKeys = tagCtx.inKeys;
 			// Create a stream context
 			StreamContext ctx = new StreamContext(tagCtx.contactId,
 					tagCtx.pendingContactId, transportId,
 					inKeys.getTagKey(), inKeys.getHeaderKey(),
-					tagCtx.streamNumber, tagCtx.handshakeMode);
+					tagCtx.streamNumber, tagCtx.handshakeMode, false);
 			// Update the reordering window
 			ReorderingWindow window = inKeys.getWindow();
 			Change change = window.setSeen(tagCtx.streamNumber);
+			// Remove tags for any stream numbers removed from the window.
+			// This must happen before adding tags, as an added stream number
+			// shares its slot in the tag store with a removed one
+			for (long streamNumber : change.getRemoved()) {
+				if (streamNumber == tagCtx.streamNumber) continue;
+				tags.remove(getTag(inKeys, streamNumber));
+			}
 			// Add tags for any stream numbers added to the window
 			for (long streamNumber : change.getAdded()) {
-				byte[] addTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(addTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
+				byte[] addTag = getTag(inKeys, streamNumber);
 				TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
 						tagCtx.contactId, tagCtx.pendingContactId, inKeys,
 						streamNumber, tagCtx.handshakeMode);
-				inContexts.put(new Bytes(addTag), tagCtx1);
-			}
-			// Remove tags for any stream numbers removed from the window
-			for (long streamNumber : change.getRemoved()) {
-				if (streamNumber == tagCtx.streamNumber) continue;
-				byte[] removeTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
-				inContexts.remove(new Bytes(removeTag));
+				tags.put(addTag, tagCtx1);
 			}
 			// Write the window back to the DB
 			db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
@@ -451,12 +565,17 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 						ks.getKeys().snapshot()));
 			}
 			UpdateResult updateResult = updateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
+			// Rebuild the mutable state for all contacts. The tags are added
+			// to a new table, which replaces the old table when it's complete
+			logTagLookups();
+			TagTable<TagContext> tags = new TagTable<>();
+			Map<KeySetId, MutableTransportKeySet> oldKeys =
+					new HashMap<>(keys);
 			contactOutContexts.clear();
 			pendingContactOutContexts.clear();
 			keys.clear();
-			addKeys(updateResult.current);
+			addKeys(updateResult.current, tags, oldKeys);
+			inContexts = tags;
 			// Write any updated keys back to the DB
 			if (!updateResult.updated.isEmpty())
 				db.updateTransportKeys(txn, updateResult.updated);
@@ -467,6 +586,16 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		scheduleKeyUpdate(now);
 	}
 
+	private void logTagLookups() {
+		long lookups = tagLookups.getAndSet(0);
+		long nanos = tagLookupNanos.getAndSet(0);
+		if (LOG.isLoggable(INFO)) {
+			long mean = lookups == 0 ? 0 : nanos / lookups;
+			LOG.info(inContexts.size() + " tags, " + lookups
+					+ " lookups, mean lookup time " + mean + " ns");
+		}
+	}
+
 	private static class TagContext {
 
 		private final KeySetId keySetId;
@@ -497,4 +626,18 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		private final Collection<TransportKeySet> current = new ArrayList<>();
 		private final Collection<TransportKeySet> updated = new ArrayList<>();
 	}
+
+	private static class PreparedKeySet {
+
+		private final TransportKeySet keySet;
+		private final MutableTransportKeys keys;
+		private final boolean updated;
+
+		private PreparedKeySet(TransportKeySet keySet,
+				MutableTransportKeys keys, boolean updated) {
+			this.keySet = keySet;
+			this.keys = keys;
+			this.updated = updated;
+		}
+	}
 }
@@ -193,7 +193,7 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 			if (latest.remote != null
 					&& latest.remote.updateVersion > newRemoteUpdateVersion) {
 				db.deleteMessage(txn, m.getId());
-				db.deleteMessageMetadata(txn, m.getId());
+				clientHelper.deleteMessageMetadata(txn, m.getId());
 				return false;
 			}
 			// Load and parse the latest local update
@@ -210,7 +210,8 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 						loadUpdate(txn, latest.remote.messageId).states;
 				// Delete the previous remote update
 				db.deleteMessage(txn, latest.remote.messageId);
-				db.deleteMessageMetadata(txn, latest.remote.messageId);
+				clientHelper.deleteMessageMetadata(txn,
+						latest.remote.messageId);
 			}
 			// Update the local states from the remote states if necessary
 			List<ClientState> newLocalStates = updateStatesFromRemoteStates(
@@ -218,7 +219,7 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 			if (!oldLocalStates.equals(newLocalStates)) {
 				// Delete the latest local update
 				db.deleteMessage(txn, latest.local.messageId);
-				db.deleteMessageMetadata(txn, latest.local.messageId);
+				clientHelper.deleteMessageMetadata(txn, latest.local.messageId);
 				// Store a new local update
 				storeUpdate(txn, m.getGroupId(), newLocalStates,
 						oldLocalUpdateVersion + 1);
@@ -341,7 +342,7 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 			if (!oldLocalStates.equals(newLocalStates)) {
 				// Delete the latest local update
 				db.deleteMessage(txn, latest.local.messageId);
-				db.deleteMessageMetadata(txn, latest.local.messageId);
+				clientHelper.deleteMessageMetadata(txn, latest.local.messageId);
 				// Store a new local update
 				storeUpdate(txn, g.getId(), newLocalStates,
 						oldLocalUpdateVersion + 1);
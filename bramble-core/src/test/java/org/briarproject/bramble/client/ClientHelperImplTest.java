@@ -20,10 +20,13 @@ import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorFactory;
+import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
+import org.briarproject.bramble.api.sync.event.MessageStateChangedEvent;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.util.StringUtils;
@@ -32,17 +35,24 @@ import org.jmock.Mockery;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
@@ -172,6 +182,8 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getMessageIds(txn, groupId);
+			will(returnValue(singletonList(messageId)));
 			oneOf(db).getMessageMetadata(txn, groupId);
 			will(returnValue(Collections.singletonMap(messageId, metadata)));
 			oneOf(metadataParser).parse(metadata);
@@ -182,6 +194,239 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 	}
 
+	@Test
+	public void testCachedMessageMetadataIsUsedUntilMerged()
+			throws Exception {
+		metadata.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(new BdfEntry("foo", "bar"));
+		Metadata merged = new Metadata();
+		merged.put("foo", getRandomBytes(42));
+		BdfDictionary mergedDictionary =
+				BdfDictionary.of(new BdfEntry("bar", "baz"));
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			exactly(3).of(db).getMessageIds(txn, groupId);
+			will(returnValue(singletonList(messageId)));
+			// The raw metadata is only loaded and parsed before the cache is
+			// populated and after the metadata is merged
+			exactly(2).of(db).getMessageMetadata(txn, groupId);
+			will(onConsecutiveCalls(
+					returnValue(singletonMap(messageId, metadata)),
+					returnValue(singletonMap(messageId, merged))));
+			oneOf(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+			oneOf(metadataParser).parse(merged);
+			will(returnValue(mergedDictionary));
+			// Merge the metadata
+			oneOf(metadataEncoder).encode(mergedDictionary);
+			will(returnValue(merged));
+			oneOf(db).mergeMessageMetadata(txn1, messageId, merged);
+		}});
+
+		assertEquals(singletonMap(messageId, parsed),
+				clientHelper.getMessageMetadataAsDictionary(txn, groupId));
+		assertEquals(singletonMap(messageId, parsed),
+				clientHelper.getMessageMetadataAsDictionary(txn, groupId));
+		clientHelper.mergeMessageMetadata(txn1, messageId, mergedDictionary);
+		assertEquals(singletonMap(messageId, mergedDictionary),
+				clientHelper.getMessageMetadataAsDictionary(txn, groupId));
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testCachedMessageMetadataIsDiscardedWhenDeleted()
+			throws Exception {
+		metadata.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(new BdfEntry("foo", "bar"));
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// The cached metadata is used without loading the raw metadata
+			oneOf(db).getMessageMetadata(txn, messageId);
+			will(returnValue(metadata));
+			oneOf(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+			// Delete the metadata
+			oneOf(db).deleteMessageMetadata(txn1, messageId);
+			// The raw metadata is loaded again after being deleted
+			oneOf(db).getMessageMetadata(txn, messageId);
+			will(returnValue(new Metadata()));
+			oneOf(metadataParser).parse(new Metadata());
+			will(returnValue(new BdfDictionary()));
+		}});
+
+		assertEquals(parsed,
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		assertEquals(parsed,
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		clientHelper.deleteMessageMetadata(txn1, messageId);
+		assertEquals(new BdfDictionary(),
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testCachedMessageMetadataIsDiscardedWhenStateChanges()
+			throws Exception {
+		metadata.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(new BdfEntry("foo", "bar"));
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(db).getMessageMetadata(txn, messageId);
+			will(returnValue(metadata));
+			exactly(2).of(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+		}});
+
+		ClientHelperImpl clientHelperImpl = (ClientHelperImpl) clientHelper;
+		assertEquals(parsed, clientHelperImpl.getMessageMetadataAsDictionary(
+				txn, messageId));
+		clientHelperImpl.eventOccurred(
+				new MessageStateChangedEvent(messageId, false, DELIVERED));
+		assertEquals(parsed, clientHelperImpl.getMessageMetadataAsDictionary(
+				txn, messageId));
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testWriteTransactionsDoNotPopulateCache() throws Exception {
+		metadata.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(new BdfEntry("foo", "bar"));
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(db).getMessageMetadata(txn, messageId);
+			will(returnValue(metadata));
+			exactly(2).of(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+		}});
+
+		assertEquals(parsed,
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		assertEquals(parsed,
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testGetPagedMessageMetadataAsDictionary() throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		Message message2 = getMessage(groupId);
+		MessageId messageId2 = message2.getId();
+		metadata.put("foo", getRandomBytes(42));
+		Metadata metadata1 = new Metadata();
+		metadata1.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(new BdfEntry("foo", "bar"));
+		BdfDictionary parsed1 = BdfDictionary.of(new BdfEntry("foo", "baz"));
+		Map<MessageId, Long> page = new LinkedHashMap<>();
+		page.put(messageId2, 3L);
+		page.put(messageId1, 2L);
+		page.put(messageId, 1L);
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			// Cache the metadata of the first message
+			oneOf(db).getMessageMetadata(txn, messageId);
+			will(returnValue(metadata));
+			oneOf(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+			// Load the page
+			oneOf(db).getMessageTimestamps(txn, groupId, 4L, null, 3);
+			will(returnValue(page));
+			// Load the metadata of the uncached messages with one query -
+			// the third message has no metadata
+			oneOf(db).getMessageMetadata(txn, asList(messageId2, messageId1));
+			will(returnValue(singletonMap(messageId1, metadata1)));
+			oneOf(metadataParser).parse(metadata1);
+			will(returnValue(parsed1));
+		}});
+
+		assertEquals(parsed,
+				clientHelper.getMessageMetadataAsDictionary(txn, messageId));
+		Map<MessageId, BdfDictionary> result =
+				clientHelper.getMessageMetadataAsDictionary(txn, groupId, 4L,
+						null, 3);
+		// The metadata is returned in page order
+		assertEquals(asList(messageId1, messageId),
+				new ArrayList<>(result.keySet()));
+		assertEquals(parsed1, result.get(messageId1));
+		assertEquals(parsed, result.get(messageId));
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testCachedMessageMetadataIsNotSharedWithCallers()
+			throws Exception {
+		metadata.put("foo", getRandomBytes(42));
+		BdfDictionary parsed = BdfDictionary.of(
+				new BdfEntry("list", BdfList.of(123)),
+				new BdfEntry("dict", BdfDictionary.of(new BdfEntry("a", "b"))),
+				new BdfEntry("raw", new byte[] {1, 2, 3}));
+		BdfDictionary expected = BdfDictionary.of(
+				new BdfEntry("list", BdfList.of(123)),
+				new BdfEntry("dict", BdfDictionary.of(new BdfEntry("a", "b"))),
+				new BdfEntry("raw", new byte[] {1, 2, 3}));
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			exactly(3).of(db).getMessageIds(txn, groupId);
+			will(returnValue(singletonList(messageId)));
+			// The metadata is only loaded and parsed once
+			oneOf(db).getMessageMetadata(txn, groupId);
+			will(returnValue(singletonMap(messageId, metadata)));
+			oneOf(metadataParser).parse(metadata);
+			will(returnValue(parsed));
+		}});
+
+		for (int i = 0; i < 3; i++) {
+			BdfDictionary d = clientHelper.getMessageMetadataAsDictionary(txn,
+					groupId).get(messageId);
+			assertEquals(expected.keySet(), d.keySet());
+			assertEquals(expected.getList("list"), d.getList("list"));
+			assertEquals(expected.getDictionary("dict"),
+					d.getDictionary("dict"));
+			assertArrayEquals(expected.getRaw("raw"), d.getRaw("raw"));
+			// Modifying the nested values must not affect the cache
+			d.getList("list").add(456);
+			d.getDictionary("dict").put("c", "d");
+			d.getRaw("raw")[0] = 42;
+		}
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testCachedMessageMetadataIsDiscardedWhenGroupIsRemoved()
+			throws Exception {
+		Group group = getGroup(getClientId(), 123);
+		GroupId g = group.getId();
+		metadata.put("foo", getRandomBytes(42));
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(db).getMessageIds(txn, g);
+			will(returnValue(singletonList(messageId)));
+			// The metadata is loaded and parsed again after the group is
+			// removed
+			exactly(2).of(db).getMessageMetadata(txn, g);
+			will(returnValue(singletonMap(messageId, metadata)));
+			exactly(2).of(metadataParser).parse(metadata);
+			will(returnValue(dictionary));
+		}});
+
+		ClientHelperImpl clientHelperImpl = (ClientHelperImpl) clientHelper;
+		assertEquals(singletonMap(messageId, dictionary),
+				clientHelperImpl.getMessageMetadataAsDictionary(txn, g));
+		clientHelperImpl.eventOccurred(new GroupRemovedEvent(group));
+		assertEquals(singletonMap(messageId, dictionary),
+				clientHelperImpl.getMessageMetadataAsDictionary(txn, g));
+		context.assertIsSatisfied();
+	}
+
 	@Test
 	public void testGetMessageMetadataAsDictionaryQuery() throws Exception {
 		Map<MessageId, BdfDictionary> map = new HashMap<>();
@@ -521,8 +766,8 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		BdfReader bdfReader = context.mock(BdfReader.class);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory)
-					.createReader(with(any(InputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(any(Integer.class)), with(any(Integer.class)));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(list));
@@ -7,9 +7,11 @@ import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class HashTest extends BrambleTestCase {
@@ -48,4 +50,18 @@ public class HashTest extends BrambleTestCase {
 		assertFalse(Arrays.equals(hash1, hash2));
 	}
 
+	@Test
+	public void testBuffersProduceSameHashesAsArrays() {
+		byte[] hash1 = crypto.hash(label, inputBytes, inputBytes1, inputBytes2);
+		// Wrap the second input in a larger array
+		byte[] padded = new byte[inputBytes1.length + 20];
+		System.arraycopy(inputBytes1, 0, padded, 10, inputBytes1.length);
+		ByteBuffer buffer = ByteBuffer.wrap(padded, 10, inputBytes1.length);
+		byte[] hash2 = crypto.hash(label, ByteBuffer.wrap(inputBytes),
+				buffer, ByteBuffer.wrap(inputBytes2));
+		assertArrayEquals(hash1, hash2);
+		// The position of the buffer is unchanged
+		assertEquals(10, buffer.position());
+	}
+
 }
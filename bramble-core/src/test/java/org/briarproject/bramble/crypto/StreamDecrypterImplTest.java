@@ -13,8 +13,10 @@ import java.io.IOException;
 import static junit.framework.Assert.assertEquals;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION_LARGE_FRAMES;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
 import static org.junit.Assert.assertArrayEquals;
@@ -85,11 +87,82 @@ public class StreamDecrypterImplTest extends BrambleTestCase {
 		assertEquals(-1, s.readFrame(buffer));
 	}
 
+	@Test
+	public void testReadLargeFrame() throws Exception {
+		byte[] largeProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(PROTOCOL_VERSION_LARGE_FRAMES,
+				largeProtocolVersionBytes, 0);
+
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		int payloadLength = MAX_LARGE_PAYLOAD_LENGTH - 1, paddingLength = 1;
+		FrameEncoder.encodeHeader(frameHeader, true, payloadLength,
+				paddingLength);
+		byte[] payload = TestUtils.getRandomBytes(payloadLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(largeProtocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(payload);
+		out.write(new byte[paddingLength]);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// The stream header determines the frame size
+		assertEquals(MAX_LARGE_PAYLOAD_LENGTH, s.getMaxPayloadLength());
+
+		// Read the frame
+		byte[] buffer = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		assertEquals(payloadLength, s.readFrame(buffer));
+		assertArrayStartsWith(payload, buffer, payloadLength);
+
+		// End of stream
+		assertEquals(-1, s.readFrame(buffer));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSmallBufferForLargeFramesThrowsException()
+			throws Exception {
+		byte[] largeProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(PROTOCOL_VERSION_LARGE_FRAMES,
+				largeProtocolVersionBytes, 0);
+
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		FrameEncoder.encodeHeader(frameHeader, true, payloadLength,
+				paddingLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(largeProtocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(payload);
+		out.write(new byte[paddingLength]);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// Try to read the frame into a buffer that's only big enough for a
+		// small frame
+		byte[] buffer = new byte[MAX_PAYLOAD_LENGTH];
+		s.readFrame(buffer);
+	}
+
 	@Test(expected = IOException.class)
 	public void testWrongProtocolVersionThrowsException() throws Exception {
 		byte[] wrongProtocolVersionBytes = new byte[2];
-		ByteUtils.writeUint16(PROTOCOL_VERSION + 1, wrongProtocolVersionBytes,
-				0);
+		ByteUtils.writeUint16(PROTOCOL_VERSION_LARGE_FRAMES + 1,
+				wrongProtocolVersionBytes, 0);
 
 		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
 		FrameEncoder.encodeHeader(frameHeader, false, payloadLength,
@@ -11,8 +11,11 @@ import java.io.ByteArrayOutputStream;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION_LARGE_FRAMES;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
@@ -47,7 +50,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, -1, 0, false);
 	}
@@ -57,7 +60,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, 0, -1, false);
 	}
@@ -67,7 +70,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH + 1];
 		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH, 1, false);
@@ -78,7 +81,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH];
 		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH - 1, 1, false);
@@ -91,7 +94,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH];
 		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH, 0, false);
@@ -99,12 +102,42 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				out.size());
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsMaxLargePayloadPlusPadding() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey, true);
+
+		byte[] bigPayload = new byte[MAX_LARGE_PAYLOAD_LENGTH + 1];
+		s.writeFrame(bigPayload, MAX_LARGE_PAYLOAD_LENGTH, 1, false);
+	}
+
+	@Test
+	public void testAcceptsMaxLargePayloadIncludingPadding()
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey, true);
+		assertEquals(MAX_LARGE_PAYLOAD_LENGTH, s.getMaxPayloadLength());
+
+		byte[] bigPayload = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		s.writeFrame(bigPayload, MAX_LARGE_PAYLOAD_LENGTH - 1, 1, false);
+		byte[] written = out.toByteArray();
+		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH
+				+ MAX_LARGE_FRAME_LENGTH, written.length);
+		// The stream header contains the large frames protocol version
+		assertEquals(PROTOCOL_VERSION_LARGE_FRAMES, ByteUtils.readUint16(
+				written, TAG_LENGTH + STREAM_HEADER_NONCE_LENGTH));
+	}
+
 	@Test
 	public void testWriteUnpaddedNonFinalFrameWithTag() throws Exception {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, 0, false);
 
@@ -130,7 +163,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, 0, true);
 
@@ -156,7 +189,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, null, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, 0, false);
 
@@ -181,7 +214,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, null, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, 0, true);
 
@@ -206,7 +239,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, paddingLength, false);
 
@@ -234,7 +267,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, paddingLength, true);
 
@@ -262,7 +295,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, null, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, paddingLength, false);
 
@@ -289,7 +322,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, null, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		s.writeFrame(payload, payloadLength, paddingLength, true);
 
@@ -316,7 +349,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 		int payloadLength1 = 345, paddingLength1 = 456;
 		byte[] payload1 = TestUtils.getRandomBytes(payloadLength1);
 
@@ -356,7 +389,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		// Flush the stream once
 		s.flush();
@@ -379,7 +412,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		// Flush the stream twice
 		s.flush();
@@ -402,7 +435,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
 				streamNumber, null, streamHeaderNonce, streamHeaderKey,
-				frameKey);
+				frameKey, false);
 
 		// Flush the stream once
 		s.flush();
@@ -9,7 +9,11 @@ import java.security.GeneralSecurityException;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 
@@ -90,4 +94,59 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 		byte[] output = new byte[TEST_PLAINTEXT.length];
 		cipher.process(input, 0, input.length, output, 0);
 	}
+
+	@Test
+	public void testCipherCanBeReusedWithDifferentKeysAndIvs()
+			throws Exception {
+		AuthenticatedCipher reused = new XSalsa20Poly1305AuthenticatedCipher();
+		for (int i = 0; i < 10; i++) {
+			SecretKey k = getSecretKey();
+			byte[] iv = getRandomBytes(TEST_IV.length);
+			byte[] plaintext = getRandomBytes(1 + i * 100);
+			byte[] ciphertext = new byte[plaintext.length + MAC_LENGTH];
+			// Encrypting with the reused cipher should give the same result
+			// as encrypting with a new cipher
+			reused.init(true, k, iv);
+			reused.process(plaintext, 0, plaintext.length, ciphertext, 0);
+			AuthenticatedCipher fresh =
+					new XSalsa20Poly1305AuthenticatedCipher();
+			fresh.init(true, k, iv);
+			byte[] expected = new byte[ciphertext.length];
+			fresh.process(plaintext, 0, plaintext.length, expected, 0);
+			assertArrayEquals(expected, ciphertext);
+			// Decrypting with the reused cipher should recover the plaintext
+			reused.init(false, k, iv);
+			byte[] output = new byte[plaintext.length];
+			assertEquals(plaintext.length, reused.process(ciphertext, 0,
+					ciphertext.length, output, 0));
+			assertArrayEquals(plaintext, output);
+		}
+	}
+
+	@Test
+	public void testCipherCanBeReusedAfterInvalidMac() throws Exception {
+		SecretKey k = new SecretKey(TEST_KEY);
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		cipher.init(false, k, TEST_IV);
+		byte[] input = TEST_CIPHERTEXT.clone();
+		input[0] ^= 0xFF;
+		byte[] output = new byte[TEST_PLAINTEXT.length];
+		try {
+			cipher.process(input, 0, input.length, output, 0);
+			fail();
+		} catch (GeneralSecurityException expected) {
+			// Expected
+		}
+		cipher.init(false, k, TEST_IV);
+		assertEquals(TEST_PLAINTEXT.length, cipher.process(TEST_CIPHERTEXT, 0,
+				TEST_CIPHERTEXT.length, output, 0));
+		assertArrayEquals(TEST_PLAINTEXT, output);
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testInitFailsWithWrongIvLength() throws Exception {
+		SecretKey k = new SecretKey(TEST_KEY);
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		cipher.init(true, k, new byte[TEST_IV.length - 1]);
+	}
 }
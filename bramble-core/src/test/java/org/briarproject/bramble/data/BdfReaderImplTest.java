@@ -618,6 +618,55 @@ public class BdfReaderImplTest extends BrambleTestCase {
 		r.readDictionary();
 	}
 
+	@Test
+	public void testReadFromByteArray() throws Exception {
+		// A list containing "foo", 1 and a raw value, followed by null,
+		// surrounded by bytes that are outside the range to be read
+		byte[] b = fromHexString("FF" + "60" + "41" + "03" + "666F6F"
+				+ "21" + "01" + "51" + "02" + "CAFE" + "80" + "00" + "FF");
+		r = new BdfReaderImpl(b, 1, b.length - 2, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+		BdfList list = r.readList();
+		assertEquals(3, list.size());
+		assertEquals("foo", list.getString(0));
+		assertEquals(1L, list.getLong(1).longValue());
+		assertArrayEquals(fromHexString("CAFE"), list.getRaw(2));
+		assertTrue(r.hasNull());
+		r.skipNull();
+		assertTrue(r.eof());
+	}
+
+	@Test
+	public void testSkipFromByteArray() throws Exception {
+		// A dictionary and a string, then a long
+		byte[] b = fromHexString("70" + "41" + "03" + "666F6F" + "11"
+				+ "80" + "41" + "03" + "666F6F" + "21" + "7F");
+		r = new BdfReaderImpl(b, 0, b.length, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+		r.skipDictionary();
+		r.skipString();
+		assertEquals(127L, r.readLong());
+		assertTrue(r.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testReadTruncatedStringFromByteArray() throws Exception {
+		// A string that claims to be longer than the remaining data
+		byte[] b = fromHexString("41" + "04" + "666F6F" + "6F");
+		r = new BdfReaderImpl(b, 0, b.length - 1, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+		r.readString();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testSkipTruncatedRawFromByteArray() throws Exception {
+		// A raw value that claims to be longer than the remaining data
+		byte[] b = fromHexString("51" + "03" + "CAFE");
+		r = new BdfReaderImpl(b, 0, b.length, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+		r.skipRaw();
+	}
+
 	private void setContents(String hex) {
 		setContents(hex, DEFAULT_MAX_BUFFER_SIZE);
 	}
@@ -295,11 +295,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the contact is in the DB (which it's not)
-			exactly(18).of(database).startTransaction();
+			exactly(20).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(18).of(database).containsContact(txn, contactId);
+			exactly(20).of(database).containsContact(txn, contactId);
 			will(returnValue(false));
-			exactly(18).of(database).abortTransaction(txn);
+			exactly(20).of(database).abortTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
 				eventExecutor, shutdownManager);
@@ -385,6 +385,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.getSyncCapabilities(transaction, contactId));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			Ack a = new Ack(singletonList(messageId));
 			db.transaction(false, transaction ->
@@ -452,6 +460,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		} catch (NoSuchContactException expected) {
 			// Expected
 		}
+
+		try {
+			db.transaction(false, transaction ->
+					db.setSyncCapabilities(transaction, contactId,
+							emptyList()));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
 	}
 
 	@Test
@@ -867,14 +884,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getMessagesToSend(txn, contactId,
 					MAX_MESSAGE_LENGTH * 2, maxLatency);
-			will(returnValue(ids));
-			oneOf(database).getMessage(txn, messageId);
-			will(returnValue(message));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
-					maxLatency);
-			oneOf(database).getMessage(txn, messageId1);
-			will(returnValue(message1));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId1,
+			will(returnValue(messages));
+			oneOf(database).updateExpiryTimesAndEtas(txn, contactId, ids,
 					maxLatency);
 			oneOf(database).lowerRequestedFlag(txn, contactId, ids);
 			oneOf(database).commitTransaction(txn);
@@ -899,9 +910,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency);
 			will(returnValue(ids));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
-					maxLatency);
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId1,
+			oneOf(database).updateExpiryTimesAndEtas(txn, contactId, ids,
 					maxLatency);
 			oneOf(database).commitTransaction(txn);
 		}});
@@ -950,14 +959,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getRequestedMessagesToSend(txn, contactId,
 					MAX_MESSAGE_LENGTH * 2, maxLatency);
-			will(returnValue(ids));
-			oneOf(database).getMessage(txn, messageId);
-			will(returnValue(message));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
-					maxLatency);
-			oneOf(database).getMessage(txn, messageId1);
-			will(returnValue(message1));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId1,
+			will(returnValue(messages));
+			oneOf(database).updateExpiryTimesAndEtas(txn, contactId, ids,
 					maxLatency);
 			oneOf(database).lowerRequestedFlag(txn, contactId, ids);
 			oneOf(database).commitTransaction(txn);
@@ -1076,6 +1079,50 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				db.receiveMessage(transaction, contactId, message));
 	}
 
+	@Test
+	public void testReceiveMessages() throws Exception {
+		GroupId groupId1 = new GroupId(getRandomId());
+		Message message2 = getMessage(groupId);
+		Message message3 = getMessage(groupId1);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			// The visibility of each group is only checked once
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(VISIBLE));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId1);
+			will(returnValue(INVISIBLE));
+			// The first message is new
+			oneOf(database).containsMessage(txn, messageId);
+			will(returnValue(false));
+			// The second message is a duplicate
+			oneOf(database).containsMessage(txn, messageId1);
+			will(returnValue(true));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
+			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
+			// The third message is new
+			oneOf(database).containsMessage(txn, message2.getId());
+			will(returnValue(false));
+			// The new messages are stored in a single call - the repeated
+			// message and the message in the invisible group are ignored
+			oneOf(database).addMessages(txn, asList(message, message2),
+					UNKNOWN, false, false, contactId);
+			oneOf(database).commitTransaction(txn);
+			// Both new messages were added, and the messages need to be acked
+			exactly(2).of(eventBus).broadcast(
+					with(any(MessageAddedEvent.class)));
+			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveMessages(transaction, contactId,
+						asList(message, message1, message2, message, message3)));
+	}
+
 	@Test
 	public void testReceiveOffer() throws Exception {
 		MessageId messageId1 = new MessageId(getRandomId());
@@ -29,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -377,6 +378,35 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetMessageMetadataWithOneTermQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [1 term]";
+		benchmarkMetadataQuery(name, 1);
+	}
+
+	@Test
+	public void testGetMessageMetadataWithTwoTermQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [2 terms]";
+		benchmarkMetadataQuery(name, 2);
+	}
+
+	@Test
+	public void testGetMessageMetadataWithThreeTermQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [3 terms]";
+		benchmarkMetadataQuery(name, 3);
+	}
+
+	private void benchmarkMetadataQuery(String name, int terms)
+			throws Exception {
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			Metadata query = getQuery(pickRandom(messageMeta.get(g)), terms);
+			db.getMessageMetadata(txn, g, query);
+			db.commitTransaction(txn);
+		});
+	}
+
 	@Test
 	public void testGetMessageMetadataByMessageId() throws Exception {
 		String name = "getMessageMetadata(T, MessageId)";
@@ -618,6 +648,15 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		return new ClientId(getRandomString(CLIENT_ID_LENGTH));
 	}
 
+	private Metadata getQuery(Metadata meta, int terms) {
+		Metadata query = new Metadata();
+		for (Entry<String, byte[]> e : meta.entrySet()) {
+			if (query.size() == terms) break;
+			query.put(e.getKey(), e.getValue());
+		}
+		return query;
+	}
+
 	private Metadata getMetadata(int keys) {
 		Metadata meta = new Metadata();
 		for (int i = 0; i < keys; i++) {
@@ -43,6 +43,7 @@ import java.io.File;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -78,6 +79,7 @@ import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getIdentity;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getPendingContact;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
@@ -217,16 +219,18 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, false, null);
 
 		// The contact has not seen the message, so it should be sendable
-		Collection<MessageId> ids =
+		Collection<Message> messages =
 				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
+		Collection<MessageId> ids =
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
 
 		// Changing the status to seen = true should make the message unsendable
 		db.raiseSeenFlag(txn, contactId, messageId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
@@ -234,6 +238,47 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMoreMessagesThanFitInOneInClause() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and enough shared messages to need
+		// more than one chunk of IDs
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			Message m = getMessage(groupId, 1);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			ids.add(m.getId());
+		}
+
+		// All the messages and their statuses should be returned
+		assertEquals(ids.size(), db.getMessages(txn, ids).size());
+		assertEquals(ids.size(),
+				db.getMessageStatus(txn, contactId, ids).size());
+		Collection<Message> messages =
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		assertEquals(ids.size(), messages.size());
+
+		// Updating the expiry times should make all the messages unsendable
+		db.updateExpiryTimesAndEtas(txn, contactId, ids, MAX_LATENCY);
+		db.lowerRequestedFlag(txn, contactId, ids);
+		assertTrue(db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY).isEmpty());
+		for (MessageStatus status :
+				db.getMessageStatus(txn, contactId, ids).values()) {
+			assertTrue(status.isSent());
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSendableMessagesMustBeDelivered() throws Exception {
 		Database<Connection> db = open(false);
@@ -248,30 +293,34 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, UNKNOWN, true, false, null);
 
 		// The message has not been validated, so it should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		assertTrue(messages.isEmpty());
+		Collection<MessageId> ids =
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Marking the message delivered should make it sendable
 		db.setMessageState(txn, messageId, DELIVERED);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
 
 		// Marking the message invalid should make it unsendable
 		db.setMessageState(txn, messageId, INVALID);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Marking the message pending should make it unsendable
 		db.setMessageState(txn, messageId, PENDING);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
@@ -292,37 +341,42 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, false, null);
 
 		// The group is invisible, so the message should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		assertTrue(messages.isEmpty());
+		Collection<MessageId> ids =
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Making the group visible should not make the message sendable
 		db.addGroupVisibility(txn, contactId, groupId, false);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Sharing the group should make the message sendable
 		db.setGroupVisibility(txn, contactId, groupId, true);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
 
 		// Unsharing the group should make the message unsendable
 		db.setGroupVisibility(txn, contactId, groupId, false);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Making the group invisible should make the message unsendable
 		db.removeGroupVisibility(txn, contactId, groupId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
@@ -344,16 +398,18 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, false, false, null);
 
 		// The message is not shared, so it should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		assertTrue(messages.isEmpty());
+		Collection<MessageId> ids =
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
 		// Sharing the message should make it sendable
 		db.setMessageShared(txn, messageId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
 
@@ -375,14 +431,52 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, false, null);
 
 		// The message is sendable, but too large to send
-		Collection<MessageId> ids =
+		Collection<Message> messages =
 				db.getMessagesToSend(txn, contactId, message.getRawLength() - 1,
 						MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		assertTrue(messages.isEmpty());
 		// The message is just the right size to send
-		ids = db.getMessagesToSend(txn, contactId, message.getRawLength(),
+		messages = db.getMessagesToSend(txn, contactId, message.getRawLength(),
 				MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		assertEquals(singletonList(message), messages);
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSendableMessagesAreReturnedWithBodies() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and three shared messages with
+		// increasing timestamps
+		Message message1 = new Message(new MessageId(getRandomId()), groupId,
+				message.getTimestamp() + 1, getRandomBytes(123));
+		Message message2 = new Message(new MessageId(getRandomId()), groupId,
+				message.getTimestamp() + 2, getRandomBytes(123));
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// The messages should be returned in timestamp order, with bodies
+		List<Message> messages = new ArrayList<>(db.getMessagesToSend(txn,
+				contactId, ONE_MEGABYTE, MAX_LATENCY));
+		assertEquals(asList(message, message1, message2), messages);
+		assertArrayEquals(message.getBody(), messages.get(0).getBody());
+		assertArrayEquals(message1.getBody(), messages.get(1).getBody());
+		assertArrayEquals(message2.getBody(), messages.get(2).getBody());
+
+		// Mark the messages as sent - none of them should be sendable
+		db.updateExpiryTimesAndEtas(txn, contactId, asList(message.getId(),
+				message1.getId(), message2.getId()), MAX_LATENCY);
+		assertTrue(db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY).isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
@@ -443,21 +537,24 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, false, null);
 
 		// Retrieve the message from the database and mark it as sent
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				MAX_LATENCY);
 
 		// The message should no longer be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 
 		// Pretend that the message was acked
 		db.raiseSeenFlag(txn, contactId, messageId);
 
 		// The message still should not be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
@@ -1122,6 +1219,37 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetContactsInPages() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add an identity for a local author and three contacts
+		db.addIdentity(txn, identity);
+		List<ContactId> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			ids.add(db.addContact(txn, getAuthor(), localAuthor.getId(),
+					null, true));
+		}
+
+		// The first page starts with the lowest ID
+		List<Contact> page = db.getContacts(txn, null, 2);
+		assertEquals(2, page.size());
+		assertEquals(ids.get(0), page.get(0).getId());
+		assertEquals(ids.get(1), page.get(1).getId());
+
+		// The next page starts after the last contact of the first page
+		page = db.getContacts(txn, ids.get(1), 2);
+		assertEquals(1, page.size());
+		assertEquals(ids.get(2), page.get(0).getId());
+
+		// There are no contacts after the last one
+		assertEquals(emptyList(), db.getContacts(txn, ids.get(2), 2));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGetContactsByLocalAuthorId() throws Exception {
 		Database<Connection> db = open(false);
@@ -1353,6 +1481,12 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
 		assertTrue(map.get(messageId).containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), map.get(messageId).get("baz"));
+		// An unknown message ID is ignored when querying by message IDs
+		MessageId unknown = new MessageId(getRandomId());
+		map = db.getMessageMetadata(txn, asList(messageId, unknown));
+		assertEquals(1, map.size());
+		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
+		assertArrayEquals(metadata.get("baz"), map.get(messageId).get("baz"));
 
 		// No metadata for unknown messages
 		db.setMessageState(txn, messageId, UNKNOWN);
@@ -1360,6 +1494,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.isEmpty());
 		map = db.getMessageMetadata(txn, groupId);
 		assertTrue(map.isEmpty());
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertTrue(map.isEmpty());
 
 		// No metadata for invalid messages
 		db.setMessageState(txn, messageId, INVALID);
@@ -1383,6 +1519,70 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessageTimestamps() throws Exception {
+		// Three messages with the same timestamp, one newer and one older
+		List<MessageId> tied = new ArrayList<>();
+		for (int i = 0; i < 3; i++) tied.add(new MessageId(getRandomId()));
+		Collections.sort(tied);
+		MessageId newest = new MessageId(getRandomId());
+		MessageId oldest = new MessageId(getRandomId());
+		// An undelivered message that should not be returned
+		MessageId unknown = new MessageId(getRandomId());
+		// Newest first, breaking ties by ID
+		List<MessageId> expected = asList(newest, tied.get(2), tied.get(1),
+				tied.get(0), oldest);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		db.addGroup(txn, group);
+		for (MessageId id : tied) {
+			db.addMessage(txn, new Message(id, groupId, 100, new byte[1]),
+					DELIVERED, true, false, null);
+		}
+		db.addMessage(txn, new Message(newest, groupId, 200, new byte[1]),
+				DELIVERED, true, false, null);
+		db.addMessage(txn, new Message(oldest, groupId, 50, new byte[1]),
+				DELIVERED, true, false, null);
+		db.addMessage(txn, new Message(unknown, groupId, 150, new byte[1]),
+				UNKNOWN, true, false, null);
+
+		// Retrieve all the delivered messages in one page
+		Map<MessageId, Long> page =
+				db.getMessageTimestamps(txn, groupId, Long.MAX_VALUE, null, 10);
+		assertEquals(expected, new ArrayList<>(page.keySet()));
+		assertEquals(asList(200L, 100L, 100L, 100L, 50L),
+				new ArrayList<>(page.values()));
+
+		// Retrieve the messages in pages of various sizes, starting each page
+		// from the last message of the previous page
+		for (int limit = 1; limit <= 3; limit++) {
+			List<MessageId> paged = new ArrayList<>();
+			long timestamp = Long.MAX_VALUE;
+			MessageId last = null;
+			while (true) {
+				page = db.getMessageTimestamps(txn, groupId, timestamp, last,
+						limit);
+				if (page.isEmpty()) break;
+				assertTrue(page.size() <= limit);
+				for (Entry<MessageId, Long> e : page.entrySet()) {
+					paged.add(e.getKey());
+					last = e.getKey();
+					timestamp = e.getValue();
+				}
+			}
+			assertEquals(expected, paged);
+		}
+
+		// A null message ID includes messages with the given timestamp
+		page = db.getMessageTimestamps(txn, groupId, 100, null, 10);
+		assertEquals(expected.subList(1, 5), new ArrayList<>(page.keySet()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMetadataQueries() throws Exception {
 		Message message1 = getMessage(groupId);
@@ -1475,6 +1675,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertArrayEquals(metadata.get("foo"), retrieved.get("foo"));
 		assertTrue(retrieved.containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), retrieved.get("baz"));
+		assertEquals(singletonList(messageId),
+				db.getMessageIds(txn, groupId, query));
 
 		// Use a multi-term query that doesn't match any messages
 		query = new Metadata();
@@ -1482,6 +1684,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		query.put("baz", metadata.get("baz"));
 		all = db.getMessageMetadata(txn, groupId, query);
 		assertTrue(all.isEmpty());
+		assertTrue(db.getMessageIds(txn, groupId, query).isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
@@ -1803,7 +2006,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertFalse(status.isSeen());
 
 		// Pretend the message was sent to the contact
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, Integer.MAX_VALUE);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				Integer.MAX_VALUE);
 
 		// The message should be sent but not seen
 		status = db.getMessageStatus(txn, contactId, messageId);
@@ -1842,6 +2046,17 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(status.isSent());
 		assertTrue(status.isSeen());
 
+		// The same status should be returned when querying by message IDs,
+		// ignoring an unknown message ID
+		MessageId unknown = new MessageId(getRandomId());
+		Map<MessageId, MessageStatus> statusMap = db.getMessageStatus(txn,
+				contactId, asList(messageId, unknown));
+		assertEquals(1, statusMap.size());
+		status = statusMap.get(messageId);
+		assertEquals(contactId, status.getContactId());
+		assertTrue(status.isSent());
+		assertTrue(status.isSeen());
+
 		// Make the group invisible to the contact
 		db.removeGroupVisibility(txn, contactId, groupId);
 
@@ -1852,6 +2067,11 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		statuses = db.getMessageStatus(txn, contactId, groupId);
 		assertEquals(0, statuses.size());
 
+		// No statuses should be returned when querying by message IDs
+		statusMap = db.getMessageStatus(txn, contactId,
+				singletonList(messageId));
+		assertEquals(0, statusMap.size());
+
 		// Make the group visible to the contact again
 		db.addGroupVisibility(txn, contactId, groupId, false);
 
@@ -1922,10 +2142,11 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(db.containsVisibleMessage(txn, contactId, messageId));
 
 		// The message should be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
+		Collection<MessageId> ids =
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
 
 		// The message should be available
@@ -1942,8 +2163,9 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(db.containsVisibleMessage(txn, contactId, messageId));
 
 		// The message should not be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
 
@@ -2049,12 +2271,14 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Update the message's expiry time as though we sent it - now the
 		// message should be sendable after one round-trip
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, 1000);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				1000);
 		assertEquals(now + 2000, db.getNextSendTime(txn, contactId));
 
 		// Update the message's expiry time again - now it should be sendable
 		// after two round-trips
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, 1000);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				1000);
 		assertEquals(now + 4000, db.getNextSendTime(txn, contactId));
 
 		// Delete the message - there should be no messages to send
@@ -2115,13 +2339,14 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Time: now
 		// Retrieve the message from the database
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		assertEquals(singletonList(message), messages);
 
 		// Time: now
 		// Mark the message as sent
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, MAX_LATENCY);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				MAX_LATENCY);
 
 		// The message should expire after 2 * MAX_LATENCY
 		assertEquals(now + MAX_LATENCY * 2, db.getNextSendTime(txn, contactId));
@@ -2129,14 +2354,16 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now + MAX_LATENCY * 2 - 1
 		// The message should not yet be sendable
 		time.set(now + MAX_LATENCY * 2 - 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 
 		// Time: now + MAX_LATENCY * 2
 		// The message should have expired and should now be sendable
 		time.set(now + MAX_LATENCY * 2);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(singletonList(message), messages);
 
 		db.commitTransaction(txn);
 		db.close();
@@ -2160,35 +2387,37 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Time: now
 		// Retrieve the message from the database
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
+		Collection<Message> messages = db.getMessagesToSend(txn, contactId,
 				ONE_MEGABYTE, MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		assertEquals(singletonList(message), messages);
 
 		// Time: now
 		// Mark the message as sent
-		db.updateExpiryTimeAndEta(txn, contactId, messageId, MAX_LATENCY);
+		db.updateExpiryTimesAndEtas(txn, contactId, singletonList(messageId),
+				MAX_LATENCY);
 
 		// The message should expire after 2 * MAX_LATENCY
 		assertEquals(now + MAX_LATENCY * 2, db.getNextSendTime(txn, contactId));
 
 		// Time: now
 		// The message should not be sendable via the same transport
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
-		assertTrue(ids.isEmpty());
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(messages.isEmpty());
 
 		// Time: now
 		// The message should be sendable via a transport with a faster ETA
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
 				MAX_LATENCY - 1);
-		assertEquals(singletonList(messageId), ids);
+		assertEquals(singletonList(message), messages);
 
 		// Time: now + 1
 		// The message should no longer be sendable via the faster transport,
 		// as the ETA is now equal
 		time.set(now + 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+		messages = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
 				MAX_LATENCY - 1);
-		assertTrue(ids.isEmpty());
+		assertTrue(messages.isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
@@ -2347,6 +2576,81 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testSyncCapabilities() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+
+		// No capabilities should be supported by default
+		assertEquals(emptyList(), db.getSyncCapabilities(txn, contactId));
+
+		// Set the supported capabilities and check that they're returned
+		List<Byte> supported = asList((byte) 0, (byte) 1);
+		db.setSyncCapabilities(txn, contactId, supported);
+		assertEquals(supported, db.getSyncCapabilities(txn, contactId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testAddMessages() throws Exception {
+		Message message1 = getMessage(groupId);
+		Message message2 = getMessage(groupId);
+		Message dependent = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		MessageId messageId2 = message2.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// The contact has offered one of the messages
+		db.addOfferedMessage(txn, contactId, messageId1);
+
+		// Another message depends on one of the messages, which is missing
+		db.addMessage(txn, dependent, PENDING, true, false, null);
+		db.addMessageDependency(txn, dependent, messageId2, PENDING);
+		assertEquals(emptyMap(), db.getMessageDependents(txn, messageId2));
+
+		// Add the messages in a single call
+		db.addMessages(txn, asList(message, message1, message2), DELIVERED,
+				true, false, null);
+		assertTrue(db.containsMessage(txn, messageId));
+		assertTrue(db.containsMessage(txn, messageId1));
+		assertTrue(db.containsMessage(txn, messageId2));
+
+		// The offered message should have been seen by the contact
+		assertEquals(0, db.countOfferedMessages(txn, contactId));
+		MessageStatus status = db.getMessageStatus(txn, contactId, messageId);
+		assertNotNull(status);
+		assertFalse(status.isSeen());
+		status = db.getMessageStatus(txn, contactId, messageId1);
+		assertNotNull(status);
+		assertTrue(status.isSeen());
+		status = db.getMessageStatus(txn, contactId, messageId2);
+		assertNotNull(status);
+		assertFalse(status.isSeen());
+
+		// The dependency is no longer missing
+		assertEquals(singletonMap(dependent.getId(), PENDING),
+				db.getMessageDependents(txn, messageId2));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	private Database<Connection> open(boolean resume) throws Exception {
 		return open(resume, new TestMessageFactory(), new SystemClock());
 	}
@@ -0,0 +1,155 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatementCacheTest extends BrambleTestCase {
+
+	private static final String SELECT_BY_KEY =
+			"SELECT v FROM foo WHERE k = ?";
+	private static final String SELECT_ALL = "SELECT v FROM foo";
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private Connection txn;
+	private StatementCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.h2.Driver");
+		txn = DriverManager.getConnection("jdbc:h2:mem:");
+		Statement s = txn.createStatement();
+		s.executeUpdate("CREATE TABLE foo (k INT NOT NULL, v INT)");
+		s.executeUpdate("INSERT INTO foo VALUES (1, 10), (2, 20)");
+		s.close();
+		cache = new StatementCache(txn, 1, hits, misses);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.close();
+		txn.close();
+	}
+
+	@Test
+	public void testStatementIsReusedAfterClose() throws Exception {
+		assertEquals(10, selectByKey(1));
+		assertEquals(20, selectByKey(2));
+		assertEquals(1, misses.get());
+		assertEquals(1, hits.get());
+	}
+
+	@Test
+	public void testNestedUsesGetSeparateStatements() throws Exception {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		ps.setInt(1, 1);
+		ResultSet rs = ps.executeQuery();
+		assertTrue(rs.next());
+		// Prepare the same SQL while the first statement is in use
+		PreparedStatement ps1 = cache.prepareStatement(SELECT_BY_KEY);
+		assertNotEquals(ps, ps1);
+		ps1.setInt(1, 2);
+		ResultSet rs1 = ps1.executeQuery();
+		assertTrue(rs1.next());
+		assertEquals(20, rs1.getInt(1));
+		rs1.close();
+		cache.release(ps1);
+		// The first result set is unaffected
+		assertEquals(10, rs.getInt(1));
+		rs.close();
+		cache.release(ps);
+		assertEquals(2, misses.get());
+		assertEquals(0, hits.get());
+		// One of the statements was kept
+		assertEquals(10, selectByKey(1));
+		assertEquals(1, hits.get());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedStatementIsEvicted() throws Exception {
+		assertEquals(10, selectByKey(1));
+		cache.release(cache.prepareStatement(SELECT_ALL));
+		// The cache only holds one statement, so the first was evicted
+		assertEquals(10, selectByKey(1));
+		assertEquals(3, misses.get());
+		assertEquals(0, hits.get());
+	}
+
+	@Test
+	public void testClosedStatementIsNotReused() throws Exception {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		cache.release(ps);
+		// Close the cached statement, as an error handler might
+		ps.close();
+		assertEquals(10, selectByKey(1));
+		assertEquals(2, misses.get());
+		assertEquals(0, hits.get());
+	}
+
+	@Test
+	public void testStatementsInUseAreClosedAtEndOfTransaction()
+			throws Exception {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		cache.endTransaction();
+		assertTrue(ps.isClosed());
+		// Releasing the statement afterwards doesn't return it to the cache
+		cache.release(ps);
+		assertEquals(10, selectByKey(1));
+		assertEquals(2, misses.get());
+		assertEquals(0, hits.get());
+	}
+
+	@Test
+	public void testCachedStatementsAreClosed() throws Exception {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		cache.release(ps);
+		assertFalse(ps.isClosed());
+		cache.close();
+		assertTrue(ps.isClosed());
+	}
+
+	@Test
+	public void testParametersAreClearedWhenStatementIsReleased()
+			throws Exception {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		ps.setInt(1, 1);
+		cache.release(ps);
+		ps = cache.prepareStatement(SELECT_BY_KEY);
+		assertEquals(1, hits.get());
+		try {
+			ps.executeQuery();
+			fail();
+		} catch (SQLException expected) {
+			// Expected
+		}
+		cache.release(ps);
+	}
+
+	private int selectByKey(int key) throws SQLException {
+		PreparedStatement ps = cache.prepareStatement(SELECT_BY_KEY);
+		ps.setInt(1, key);
+		ResultSet rs = ps.executeQuery();
+		assertTrue(rs.next());
+		int value = rs.getInt(1);
+		rs.close();
+		cache.release(ps);
+		return value;
+	}
+}
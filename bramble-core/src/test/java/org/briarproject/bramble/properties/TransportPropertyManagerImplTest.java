@@ -250,7 +250,7 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(messageMetadata));
 			// The previous update (version 3) should be deleted
 			oneOf(db).deleteMessage(txn, fooVersion3);
-			oneOf(db).deleteMessageMetadata(txn, fooVersion3);
+			oneOf(clientHelper).deleteMessageMetadata(txn, fooVersion3);
 		}});
 
 		TransportPropertyManagerImpl t = createInstance();
@@ -287,7 +287,7 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(messageMetadata));
 			// The update being delivered (version 3) should be deleted
 			oneOf(db).deleteMessage(txn, message.getId());
-			oneOf(db).deleteMessageMetadata(txn, message.getId());
+			oneOf(clientHelper).deleteMessageMetadata(txn, message.getId());
 		}});
 
 		TransportPropertyManagerImpl t = createInstance();
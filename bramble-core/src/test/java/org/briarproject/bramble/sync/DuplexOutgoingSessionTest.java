@@ -0,0 +1,108 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
+import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	private static final int MAX_LATENCY = Integer.MAX_VALUE;
+	private static final int MAX_IDLE_TIME = 30 * 1000;
+	private static final int COALESCING_WINDOW = 100;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ScheduledExecutorService scheduler =
+			context.mock(ScheduledExecutorService.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final ContactId contactId = getContactId();
+	private final Ack ack =
+			new Ack(singletonList(new MessageId(getRandomId())));
+
+	@Test
+	public void testEventsAreCoalescedIntoOneTransaction() throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, scheduler, eventBus, clock, contactId, MAX_LATENCY,
+				MAX_IDLE_TIME, COALESCING_WINDOW, streamWriter, recordWriter);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Only the first event schedules a task
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with((long) COALESCING_WINDOW), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		session.eventOccurred(new MessageToAckEvent(contactId));
+		session.eventOccurred(new MessageToAckEvent(contactId));
+		session.eventOccurred(new MessageToRequestEvent(contactId));
+		// An event for another contact is ignored
+		session.eventOccurred(new MessageToAckEvent(getContactId()));
+
+		context.checking(new DbExpectations() {{
+			// The ack and the request are generated in one transaction
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn));
+			oneOf(db).generateAck(txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack));
+			oneOf(db).generateRequest(txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+		}});
+
+		task.get().run();
+
+		assertEquals(1, session.getTransactions());
+		assertEquals(1, session.getRecordsGenerated());
+	}
+
+	@Test
+	public void testNothingIsGeneratedAfterInterrupt() {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, scheduler, eventBus, clock, contactId, MAX_LATENCY,
+				MAX_IDLE_TIME, COALESCING_WINDOW, streamWriter, recordWriter);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with((long) COALESCING_WINDOW), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		// The session is interrupted before the task runs
+		session.eventOccurred(new MessageToAckEvent(contactId));
+		session.interrupt();
+		task.get().run();
+
+		assertEquals(0, session.getTransactions());
+	}
+}
@@ -0,0 +1,249 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.SyncProgressEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.SettableClock;
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_CAPABILITIES;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
+import static org.briarproject.bramble.sync.IncomingSession.MAX_BATCH_RECORDS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+
+public class IncomingSessionTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final SyncRecordReader recordReader =
+			context.mock(SyncRecordReader.class);
+
+	// Tasks are queued and run after the session has finished reading
+	private final Queue<Runnable> dbTasks = new LinkedList<>();
+	private final Executor dbExecutor = dbTasks::add;
+	private final Clock clock = new SettableClock(new AtomicLong(123));
+	private final ContactId contactId = getContactId();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Message message = getMessage(groupId);
+	private final Message message1 = getMessage(groupId);
+
+	@Test
+	public void testConsecutiveRecordsAreStoredInOneTransaction()
+			throws Exception {
+		Ack ack = new Ack(singletonList(message.getId()));
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, clock, contactId, recordReader);
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Read an ack and two messages
+			exactly(3).of(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(true));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			exactly(2).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(2).of(recordReader).readMessage();
+			will(onConsecutiveCalls(returnValue(message),
+					returnValue(message1)));
+			// End of stream
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Report the progress
+			oneOf(eventBus).broadcast(with(any(SyncProgressEvent.class)));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// Store all three records in one transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).receiveAck(txn, contactId, ack);
+			oneOf(db).receiveMessages(txn, contactId,
+					asList(message, message1));
+		}});
+
+		session.run();
+		assertEquals(1, dbTasks.size());
+		runDbTasks();
+	}
+
+	@Test
+	public void testRecordsAreSplitIntoBatches() throws Exception {
+		int records = MAX_BATCH_RECORDS + 1;
+		// Small enough that the batch isn't limited by length
+		Message small = getMessage(groupId, 1);
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, clock, contactId, recordReader);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Read more messages than fit in one batch
+			exactly(records).of(recordReader).eof();
+			will(returnValue(false));
+			exactly(records).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(records).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(records).of(recordReader).readMessage();
+			will(returnValue(small));
+			// End of stream
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Report the progress
+			oneOf(eventBus).broadcast(with(any(SyncProgressEvent.class)));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// Store a full batch in the first transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).receiveMessages(txn, contactId,
+					nCopies(MAX_BATCH_RECORDS, small));
+			// Store the remaining message in the second transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).receiveMessage(txn1, contactId, small);
+		}});
+
+		session.run();
+		assertEquals(1, dbTasks.size());
+		runDbTasks();
+	}
+
+	@Test
+	public void testVersionsWithoutCapabilitiesClearCapabilities()
+			throws Exception {
+		Versions versions = new Versions(SUPPORTED_VERSIONS);
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, clock, contactId, recordReader);
+		Transaction txn = new Transaction(null, false);
+
+		// Read versions from a peer that doesn't send capabilities
+		expectReadVersions(versions);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// End of stream
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// Store the versions and clear the old capabilities
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).setSyncVersions(txn, contactId, SUPPORTED_VERSIONS);
+			oneOf(db).setSyncCapabilities(txn, contactId,
+					Collections.<Byte>emptyList());
+		}});
+
+		session.run();
+		assertEquals(1, dbTasks.size());
+		runDbTasks();
+	}
+
+	@Test
+	public void testCapabilitiesAreStoredAfterBeingCleared()
+			throws Exception {
+		Versions versions = new Versions(SUPPORTED_VERSIONS);
+		Capabilities capabilities = new Capabilities(SUPPORTED_CAPABILITIES);
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, clock, contactId, recordReader);
+		Transaction txn = new Transaction(null, false);
+		Sequence sequence = context.sequence("store");
+
+		// Read versions and then capabilities
+		expectReadVersions(versions);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(false));
+			oneOf(recordReader).hasOffer();
+			will(returnValue(false));
+			oneOf(recordReader).hasRequest();
+			will(returnValue(false));
+			oneOf(recordReader).hasVersions();
+			will(returnValue(false));
+			oneOf(recordReader).hasCapabilities();
+			will(returnValue(true));
+			oneOf(recordReader).readCapabilities();
+			will(returnValue(capabilities));
+			// End of stream
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// The old capabilities are cleared before the new ones are stored
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).setSyncVersions(txn, contactId, SUPPORTED_VERSIONS);
+			inSequence(sequence);
+			oneOf(db).setSyncCapabilities(txn, contactId,
+					Collections.<Byte>emptyList());
+			inSequence(sequence);
+			oneOf(db).setSyncCapabilities(txn, contactId,
+					SUPPORTED_CAPABILITIES);
+			inSequence(sequence);
+		}});
+
+		session.run();
+		assertEquals(1, dbTasks.size());
+		runDbTasks();
+	}
+
+	private void expectReadVersions(Versions versions) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(false));
+			oneOf(recordReader).hasOffer();
+			will(returnValue(false));
+			oneOf(recordReader).hasRequest();
+			will(returnValue(false));
+			oneOf(recordReader).hasVersions();
+			will(returnValue(true));
+			oneOf(recordReader).readVersions();
+			will(returnValue(versions));
+		}});
+	}
+
+	private void runDbTasks() {
+		while (!dbTasks.isEmpty()) dbTasks.remove().run();
+	}
+}
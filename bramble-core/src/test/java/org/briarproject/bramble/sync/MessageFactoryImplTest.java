@@ -0,0 +1,182 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.util.ByteUtils;
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.util.Arrays.copyOfRange;
+import static org.briarproject.bramble.api.sync.Message.FORMAT_VERSION;
+import static org.briarproject.bramble.api.sync.MessageId.BLOCK_LABEL;
+import static org.briarproject.bramble.api.sync.MessageId.ID_LABEL;
+import static org.briarproject.bramble.api.sync.MessageId.TREE_LABEL;
+import static org.briarproject.bramble.api.sync.SyncConstants.BLOCK_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MessageFactoryImplTest extends BrambleMockTestCase {
+
+	private static final byte[] FORMAT_VERSION_BYTES =
+			new byte[] {FORMAT_VERSION};
+
+	private final CryptoComponent crypto = context.mock(CryptoComponent.class);
+
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final long timestamp = 1234567890;
+
+	private MessageFactoryImpl messageFactory;
+
+	@Before
+	public void setUp() {
+		context.checking(new Expectations() {{
+			allowing(crypto).hash(with(any(String.class)),
+					with(any(byte[][].class)));
+			will(new HashAction());
+			allowing(crypto).hash(with(any(String.class)),
+					with(any(ByteBuffer[].class)));
+			will(new HashAction());
+		}});
+		messageFactory = new MessageFactoryImpl(crypto);
+	}
+
+	@Test
+	public void testRootHashOfSingleBlockIsHashOfBlock() {
+		for (int length : new int[] {1, BLOCK_LENGTH}) {
+			byte[] body = getRandomBytes(length);
+			byte[] expected = hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
+			assertArrayEquals(expected,
+					messageFactory.getRootHash(ByteBuffer.wrap(body)));
+		}
+	}
+
+	@Test
+	public void testMessageIdIsHashOfHeaderAndBlock() {
+		byte[] body = getRandomBytes(MAX_MESSAGE_BODY_LENGTH);
+		byte[] timeBytes = new byte[INT_64_BYTES];
+		ByteUtils.writeUint64(timestamp, timeBytes, 0);
+		byte[] blockHash = hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
+		byte[] expected = hash(ID_LABEL, FORMAT_VERSION_BYTES,
+				groupId.getBytes(), timeBytes, blockHash);
+
+		Message m = messageFactory.createMessage(groupId, timestamp, body);
+		assertArrayEquals(expected, m.getId().getBytes());
+		// Parsing the raw message should give the same ID
+		Message m1 = messageFactory.createMessage(m.getRaw());
+		assertEquals(m.getId(), m1.getId());
+	}
+
+	@Test
+	public void testRootHashOfTwoBlocks() {
+		// The second block is shorter than the first
+		byte[] body = getRandomBytes(BLOCK_LENGTH + 1);
+		byte[] expected = hash(TREE_LABEL, FORMAT_VERSION_BYTES,
+				hashBlock(body, 0), hashBlock(body, 1));
+		assertArrayEquals(expected,
+				messageFactory.getRootHash(ByteBuffer.wrap(body)));
+	}
+
+	@Test
+	public void testRootHashOfThreeBlocks() {
+		byte[] body = getRandomBytes(BLOCK_LENGTH * 3);
+		// The third block moves up a level unchanged
+		byte[] left = hash(TREE_LABEL, FORMAT_VERSION_BYTES,
+				hashBlock(body, 0), hashBlock(body, 1));
+		byte[] expected = hash(TREE_LABEL, FORMAT_VERSION_BYTES, left,
+				hashBlock(body, 2));
+		assertArrayEquals(expected,
+				messageFactory.getRootHash(ByteBuffer.wrap(body)));
+	}
+
+	@Test
+	public void testRootHashOfFourBlocks() {
+		byte[] body = getRandomBytes(BLOCK_LENGTH * 4);
+		byte[] left = hash(TREE_LABEL, FORMAT_VERSION_BYTES,
+				hashBlock(body, 0), hashBlock(body, 1));
+		byte[] right = hash(TREE_LABEL, FORMAT_VERSION_BYTES,
+				hashBlock(body, 2), hashBlock(body, 3));
+		byte[] expected = hash(TREE_LABEL, FORMAT_VERSION_BYTES, left,
+				right);
+		assertArrayEquals(expected,
+				messageFactory.getRootHash(ByteBuffer.wrap(body)));
+	}
+
+	@Test
+	public void testRootHashDependsOnlyOnRemainingBytes() {
+		byte[] body = getRandomBytes(BLOCK_LENGTH * 2 + 1);
+		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + body.length];
+		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
+		ByteBuffer inPlace = ByteBuffer.wrap(raw, MESSAGE_HEADER_LENGTH,
+				body.length);
+		assertArrayEquals(messageFactory.getRootHash(ByteBuffer.wrap(body)),
+				messageFactory.getRootHash(inPlace));
+	}
+
+	private byte[] hashBlock(byte[] body, int index) {
+		int start = index * BLOCK_LENGTH;
+		int end = Math.min(start + BLOCK_LENGTH, body.length);
+		return hash(BLOCK_LABEL, FORMAT_VERSION_BYTES,
+				copyOfRange(body, start, end));
+	}
+
+	/**
+	 * A stand-in for the crypto component's hash function that hashes the
+	 * label and the length-prefixed inputs.
+	 */
+	private static byte[] hash(String label, byte[]... inputs) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(toUtf8(label));
+			for (byte[] input : inputs) {
+				byte[] length = new byte[INT_64_BYTES];
+				ByteUtils.writeUint64(input.length, length, 0);
+				digest.update(length);
+				digest.update(input);
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static class HashAction implements Action {
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			String label = (String) invocation.getParameter(0);
+			Object[] params = (Object[]) invocation.getParameter(1);
+			byte[][] inputs = new byte[params.length][];
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] instanceof ByteBuffer) {
+					ByteBuffer b = ((ByteBuffer) params[i]).duplicate();
+					inputs[i] = new byte[b.remaining()];
+					b.get(inputs[i]);
+				} else {
+					inputs[i] = (byte[]) params[i];
+				}
+			}
+			return hash(label, inputs);
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("hashes the inputs");
+		}
+	}
+}
@@ -5,24 +5,35 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.SyncProgressEvent;
+import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.SettableClock;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.sync.SimplexOutgoingSession.MAX_BATCH_BYTES;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
@@ -35,6 +46,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			context.mock(SyncRecordWriter.class);
 
 	private final Executor dbExecutor = new ImmediateExecutor();
+	private final Clock clock = new SettableClock(new AtomicLong(123));
 	private final ContactId contactId = getContactId();
 	private final Message message = getMessage(new GroupId(getRandomId()));
 	private final MessageId messageId = message.getId();
@@ -42,8 +54,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	@Test
 	public void testNothingToSend() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, MAX_LATENCY, streamWriter,
-				recordWriter);
+				dbExecutor, eventBus, clock, contactId, MAX_LATENCY,
+				streamWriter, recordWriter);
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction noMsgTxn = new Transaction(null, false);
 
@@ -52,6 +64,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(eventBus).addListener(session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			oneOf(recordWriter).writeCapabilities(
+					with(any(Capabilities.class)));
 			// No acks to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noAckTxn));
@@ -61,7 +75,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
 			oneOf(db).generateBatch(with(noMsgTxn), with(contactId),
-					with(any(int.class)), with(MAX_LATENCY));
+					with(MAX_BATCH_BYTES), with(MAX_LATENCY));
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
@@ -76,18 +90,21 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	public void testSomethingToSend() throws Exception {
 		Ack ack = new Ack(singletonList(messageId));
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, MAX_LATENCY, streamWriter,
-				recordWriter);
+				dbExecutor, eventBus, clock, contactId, MAX_LATENCY,
+				streamWriter, recordWriter);
 		Transaction ackTxn = new Transaction(null, false);
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction msgTxn = new Transaction(null, false);
 		Transaction noMsgTxn = new Transaction(null, false);
+		AtomicReference<SyncProgressEvent> progress = new AtomicReference<>();
 
 		context.checking(new DbExpectations() {{
 			// Add listener
 			oneOf(eventBus).addListener(session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			oneOf(recordWriter).writeCapabilities(
+					with(any(Capabilities.class)));
 			// One ack to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(ackTxn));
@@ -98,7 +115,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(msgTxn));
 			oneOf(db).generateBatch(with(msgTxn), with(contactId),
-					with(any(int.class)), with(MAX_LATENCY));
+					with(MAX_BATCH_BYTES), with(MAX_LATENCY));
 			will(returnValue(singletonList(message)));
 			oneOf(recordWriter).writeMessage(message);
 			// No more acks
@@ -110,10 +127,55 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
 			oneOf(db).generateBatch(with(noMsgTxn), with(contactId),
-					with(any(int.class)), with(MAX_LATENCY));
+					with(MAX_BATCH_BYTES), with(MAX_LATENCY));
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
+			// Report the progress
+			oneOf(eventBus).broadcast(with(any(SyncProgressEvent.class)));
+			will(new CaptureArgumentAction<>(progress,
+					SyncProgressEvent.class, 0));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		SyncProgressEvent e = progress.get();
+		assertEquals(contactId, e.getContactId());
+		assertTrue(e.isOutgoing());
+		assertEquals(message.getRawLength(), e.getBytes());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNextBatchIsNotLoadedIfWriteFails() throws Exception {
+		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
+				dbExecutor, eventBus, clock, contactId, MAX_LATENCY,
+				streamWriter, recordWriter);
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction msgTxn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			oneOf(recordWriter).writeCapabilities(
+					with(any(Capabilities.class)));
+			// No acks to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// One message to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(msgTxn));
+			oneOf(db).generateBatch(with(msgTxn), with(contactId),
+					with(MAX_BATCH_BYTES), with(MAX_LATENCY));
+			will(returnValue(singletonList(message)));
+			// Writing the message fails, so no more messages are loaded
+			oneOf(recordWriter).writeMessage(message);
+			will(throwException(new IOException()));
 			// Remove listener
 			oneOf(eventBus).removeListener(session);
 		}});
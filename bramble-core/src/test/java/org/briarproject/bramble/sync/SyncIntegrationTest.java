@@ -104,9 +104,9 @@ public class SyncIntegrationTest extends BrambleTestCase {
 	private byte[] write() throws Exception {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamContext ctx = new StreamContext(contactId, null, transportId,
-				tagKey, headerKey, streamNumber, false);
+				tagKey, headerKey, streamNumber, false, false);
 		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(out,
-				ctx);
+				ctx, false);
 		SyncRecordWriter recordWriter = recordWriterFactory.createRecordWriter(
 				streamWriter.getOutputStream());
 
@@ -134,7 +134,7 @@ public class SyncIntegrationTest extends BrambleTestCase {
 
 		// Create the readers
 		StreamContext ctx = new StreamContext(contactId, null, transportId,
-				tagKey, headerKey, streamNumber, false);
+				tagKey, headerKey, streamNumber, false, false);
 		InputStream streamReader = streamReaderFactory.createStreamReader(in,
 				ctx);
 		SyncRecordReader recordReader = recordReaderFactory.createRecordReader(
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Capabilities;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
@@ -23,10 +24,12 @@ import javax.annotation.Nullable;
 
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.CAPABILITIES;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
@@ -119,6 +122,36 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		reader.readVersions();
 	}
 
+	@Test
+	public void testNoFormatExceptionIfCapabilitiesIsMaximumSize()
+			throws Exception {
+		expectReadRecord(createCapabilities(MAX_SUPPORTED_CAPABILITIES));
+
+		Capabilities capabilities = reader.readCapabilities();
+		List<Byte> supported = capabilities.getSupportedCapabilities();
+		assertEquals(MAX_SUPPORTED_CAPABILITIES, supported.size());
+		for (int i = 0; i < supported.size(); i++) {
+			assertEquals(i, (int) supported.get(i));
+		}
+	}
+
+	@Test
+	public void testNoFormatExceptionIfCapabilitiesIsEmpty()
+			throws Exception {
+		expectReadRecord(createCapabilities(0));
+
+		Capabilities capabilities = reader.readCapabilities();
+		assertTrue(capabilities.getSupportedCapabilities().isEmpty());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCapabilitiesIsTooLarge()
+			throws Exception {
+		expectReadRecord(createCapabilities(MAX_SUPPORTED_CAPABILITIES + 1));
+
+		reader.readCapabilities();
+	}
+
 	@Test
 	public void testEofReturnsTrueWhenAtEndOfStream() throws Exception {
 		expectReadRecord(createAck());
@@ -173,6 +206,12 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		return new Record(PROTOCOL_VERSION, VERSIONS, payload);
 	}
 
+	private Record createCapabilities(int numCapabilities) {
+		byte[] payload = new byte[numCapabilities];
+		for (int i = 0; i < payload.length; i++) payload[i] = (byte) i;
+		return new Record(PROTOCOL_VERSION, CAPABILITIES, payload);
+	}
+
 	private byte[] createPayload() throws Exception {
 		ByteArrayOutputStream payload = new ByteArrayOutputStream();
 		while (payload.size() + UniqueId.LENGTH <= MAX_RECORD_PAYLOAD_BYTES) {
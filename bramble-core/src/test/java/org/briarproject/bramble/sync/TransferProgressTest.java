@@ -0,0 +1,90 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.event.SyncProgressEvent;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.SettableClock;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.briarproject.bramble.sync.TransferProgress.PROGRESS_INTERVAL;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TransferProgressTest extends BrambleMockTestCase {
+
+	private final EventBus eventBus = context.mock(EventBus.class);
+
+	private final long now = System.currentTimeMillis();
+	private final AtomicLong time = new AtomicLong(now);
+	private final ContactId contactId = getContactId();
+
+	@Test
+	public void testProgressIsReportedOncePerInterval() {
+		TransferProgress progress = new TransferProgress(eventBus,
+				new SettableClock(time), contactId, false);
+		AtomicReference<SyncProgressEvent> event = new AtomicReference<>();
+
+		// No progress is reported before the interval has passed
+		time.set(now + PROGRESS_INTERVAL - 1);
+		progress.addBytes(1000);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).broadcast(with(any(SyncProgressEvent.class)));
+			will(new CaptureArgumentAction<>(event, SyncProgressEvent.class,
+					0));
+		}});
+
+		// Progress is reported when the interval has passed
+		time.set(now + PROGRESS_INTERVAL);
+		progress.addBytes(1000);
+		context.assertIsSatisfied();
+
+		SyncProgressEvent e = event.get();
+		assertEquals(contactId, e.getContactId());
+		assertFalse(e.isOutgoing());
+		assertEquals(2000, e.getBytes());
+		assertEquals(PROGRESS_INTERVAL, e.getDuration());
+		assertEquals(2000 * 1000 / PROGRESS_INTERVAL, e.getBytesPerSecond());
+
+		// The next interval starts when progress is reported
+		time.set(now + PROGRESS_INTERVAL * 2 - 1);
+		progress.addBytes(1000);
+	}
+
+	@Test
+	public void testFinalProgressIsReported() {
+		TransferProgress progress = new TransferProgress(eventBus,
+				new SettableClock(time), contactId, true);
+		AtomicReference<SyncProgressEvent> event = new AtomicReference<>();
+
+		progress.addBytes(1000);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).broadcast(with(any(SyncProgressEvent.class)));
+			will(new CaptureArgumentAction<>(event, SyncProgressEvent.class,
+					0));
+		}});
+
+		time.set(now + 10);
+		progress.finish();
+
+		SyncProgressEvent e = event.get();
+		assertEquals(1000, e.getBytes());
+		assertEquals(10, e.getDuration());
+	}
+
+	@Test
+	public void testNothingIsReportedIfNothingWasTransferred() {
+		TransferProgress progress = new TransferProgress(eventBus,
+				new SettableClock(time), contactId, true);
+		time.set(now + PROGRESS_INTERVAL);
+		progress.finish();
+	}
+}
@@ -5,8 +5,6 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 
-import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
-
 @NotNullByDefault
 public class TestMessageFactory implements MessageFactory {
 
@@ -22,9 +20,6 @@ public class TestMessageFactory implements MessageFactory {
 
 	@Override
 	public byte[] getRawMessage(Message m) {
-		byte[] body = m.getBody();
-		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + body.length];
-		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
-		return raw;
+		return m.getRaw();
 	}
 }
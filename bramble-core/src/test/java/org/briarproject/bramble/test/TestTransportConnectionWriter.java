@@ -35,6 +35,11 @@ public class TestTransportConnectionWriter
 		return 60_000;
 	}
 
+	@Override
+	public boolean isHighBandwidth() {
+		return false;
+	}
+
 	@Override
 	public OutputStream getOutputStream() {
 		return out;
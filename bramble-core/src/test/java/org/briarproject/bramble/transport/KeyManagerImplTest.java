@@ -27,6 +27,7 @@ import java.util.Random;
 
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPrivateKey;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPublicKey;
@@ -59,10 +60,10 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 	private final TransportId unknownTransportId = getTransportId();
 	private final StreamContext contactStreamContext =
 			new StreamContext(contactId, null, transportId, getSecretKey(),
-					getSecretKey(), 1, false);
+					getSecretKey(), 1, false, true);
 	private final StreamContext pendingContactStreamContext =
 			new StreamContext(null, pendingContactId, transportId,
-					getSecretKey(), getSecretKey(), 1, true);
+					getSecretKey(), getSecretKey(), 1, true, false);
 	private final byte[] tag = getRandomBytes(TAG_LENGTH);
 	private final PublicKey theirPublicKey = getAgreementPublicKey();
 	private final KeyPair ourKeyPair =
@@ -184,7 +185,9 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 		context.checking(new DbExpectations() {{
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(txn));
-			oneOf(transportKeyManager).getStreamContext(txn, contactId);
+			oneOf(db).getSyncCapabilities(txn, contactId);
+			will(returnValue(singletonList(CAPABILITY_LARGE_FRAMES)));
+			oneOf(transportKeyManager).getStreamContext(txn, contactId, true);
 			will(returnValue(contactStreamContext));
 		}});
 
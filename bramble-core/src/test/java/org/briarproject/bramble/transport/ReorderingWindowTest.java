@@ -5,9 +5,6 @@ import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.Collections;
-
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -33,9 +30,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {(long) REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {0L}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -48,8 +45,8 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(1L);
 		// The window should not slide
 		assertEquals(0L, window.getBase());
-		assertEquals(Collections.emptyList(), change.getAdded());
-		assertEquals(Collections.singletonList(1L), change.getRemoved());
+		assertArrayEquals(new long[0], change.getAdded());
+		assertArrayEquals(new long[] {1L}, change.getRemoved());
 		// The second element in the window should be seen
 		bitmap[0] = 0x40; // 0100 0000
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -64,9 +61,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {(long) REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {0L, aboveMidpoint}, change.getRemoved());
 		// The highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x01; // 0000 0001
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -81,9 +78,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {(long) REORDERING_WINDOW_SIZE,
+				(long) (REORDERING_WINDOW_SIZE + 1)}, change.getAdded());
+		assertArrayEquals(new long[] {0L}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -98,11 +95,40 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {(long) REORDERING_WINDOW_SIZE,
+				(long) (REORDERING_WINDOW_SIZE + 1)}, change.getAdded());
+		assertArrayEquals(new long[] {0L, aboveMidpoint}, change.getRemoved());
 		// The second-highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x02; // 0000 0010
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
+
+	@Test
+	public void testUnseenElements() {
+		byte[] bitmap = new byte[BITMAP_BYTES];
+		bitmap[0] = (byte) 0xA0; // 1010 0000
+		ReorderingWindow window = new ReorderingWindow(10L, bitmap);
+		long[] unseen = window.getUnseen();
+		assertEquals(REORDERING_WINDOW_SIZE - 2, unseen.length);
+		assertEquals(11L, unseen[0]);
+		for (int i = 1; i < unseen.length; i++)
+			assertEquals(12L + i, unseen[i]);
+	}
+
+	@Test
+	public void testMaximumWindowSize() {
+		byte[] bitmap = new byte[8];
+		bitmap[7] = 0x01; // Highest element is seen
+		ReorderingWindow window = new ReorderingWindow(0L, bitmap);
+		assertEquals(64, window.getSize());
+		assertEquals(63, window.getUnseen().length);
+		assertArrayEquals(bitmap, window.getBitmap());
+		// Set the first element seen
+		Change change = window.setSeen(0L);
+		assertEquals(1L, window.getBase());
+		assertArrayEquals(new long[] {64L}, change.getAdded());
+		assertArrayEquals(new long[] {0L}, change.getRemoved());
+		bitmap[7] = 0x02;
+		assertArrayEquals(bitmap, window.getBitmap());
+	}
 }
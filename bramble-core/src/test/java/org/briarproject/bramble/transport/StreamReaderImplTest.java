@@ -25,7 +25,7 @@ public class StreamReaderImplTest extends BrambleTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = createReader(context, decrypter);
 		assertEquals(0, r.read()); // Skip the first empty frame, read a byte
 		assertEquals(0, r.read()); // Read another byte
 		assertEquals(-1, r.read()); // Skip the second empty frame, reach EOF
@@ -48,7 +48,7 @@ public class StreamReaderImplTest extends BrambleTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = createReader(context, decrypter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
 		// Skip the first empty frame, read the two payload bytes
 		assertEquals(2, r.read(buf));
@@ -70,7 +70,7 @@ public class StreamReaderImplTest extends BrambleTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = createReader(context, decrypter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH / 2];
 		// Read the first half of the payload
 		assertEquals(MAX_PAYLOAD_LENGTH / 2, r.read(buf));
@@ -92,7 +92,7 @@ public class StreamReaderImplTest extends BrambleTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = createReader(context, decrypter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
 		// Read the first half of the payload
 		assertEquals(MAX_PAYLOAD_LENGTH / 2, r.read(buf, MAX_PAYLOAD_LENGTH / 2,
@@ -105,4 +105,13 @@ public class StreamReaderImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 		r.close();
 	}
+
+	private StreamReaderImpl createReader(Mockery context,
+			StreamDecrypter decrypter) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(decrypter).getMaxPayloadLength();
+			will(returnValue(MAX_PAYLOAD_LENGTH));
+		}});
+		return new StreamReaderImpl(decrypter);
+	}
 }
@@ -22,7 +22,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 			// Flush the stream
 			oneOf(encrypter).flush();
 		}});
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		w.close();
 		context.assertIsSatisfied();
 	}
@@ -32,7 +32,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 			throws Exception {
 		Mockery context = new Mockery();
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		context.checking(new Expectations() {{
 			// Write a non-final frame with an empty payload
 			oneOf(encrypter).writeFrame(with(any(byte[].class)), with(0),
@@ -59,7 +59,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 			throws Exception {
 		Mockery context = new Mockery();
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		context.checking(new Expectations() {{
 			// Write a non-final frame with one payload byte
 			oneOf(encrypter).writeFrame(with(any(byte[].class)), with(1),
@@ -86,7 +86,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 	public void testSingleByteWritesWriteFullFrame() throws Exception {
 		Mockery context = new Mockery();
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		context.checking(new Expectations() {{
 			// Write a full non-final frame
 			oneOf(encrypter).writeFrame(with(any(byte[].class)),
@@ -110,7 +110,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 	public void testMultiByteWritesWriteFullFrames() throws Exception {
 		Mockery context = new Mockery();
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		context.checking(new Expectations() {{
 			// Write two full non-final frames
 			exactly(2).of(encrypter).writeFrame(with(any(byte[].class)),
@@ -141,7 +141,7 @@ public class StreamWriterImplTest extends BrambleTestCase {
 	public void testLargeMultiByteWriteWritesFullFrames() throws Exception {
 		Mockery context = new Mockery();
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = createWriter(context, encrypter);
 		context.checking(new Expectations() {{
 			// Write two full non-final frames
 			exactly(2).of(encrypter).writeFrame(with(any(byte[].class)),
@@ -159,4 +159,13 @@ public class StreamWriterImplTest extends BrambleTestCase {
 		w.close();
 		context.assertIsSatisfied();
 	}
+
+	private StreamWriterImpl createWriter(Mockery context,
+			StreamEncrypter encrypter) {
+		context.checking(new Expectations() {{
+			oneOf(encrypter).getMaxPayloadLength();
+			will(returnValue(MAX_PAYLOAD_LENGTH));
+		}});
+		return new StreamWriterImpl(encrypter);
+	}
 }
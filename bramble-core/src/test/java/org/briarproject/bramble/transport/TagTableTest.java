@@ -0,0 +1,92 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagTableTest extends BrambleTestCase {
+
+	@Test
+	public void testPutGetAndRemove() {
+		TagTable<Integer> table = new TagTable<>();
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		assertNull(table.get(tag));
+		assertNull(table.put(tag, 1));
+		assertEquals(1, table.size());
+		// An equal tag in a different array finds the same value
+		assertEquals(Integer.valueOf(1), table.get(tag.clone()));
+		// Replacing the value returns the old value
+		assertEquals(Integer.valueOf(1), table.put(tag.clone(), 2));
+		assertEquals(1, table.size());
+		assertEquals(Integer.valueOf(2), table.get(tag));
+		// Removing the tag returns the value
+		assertEquals(Integer.valueOf(2), table.remove(tag));
+		assertEquals(0, table.size());
+		assertNull(table.get(tag));
+		assertNull(table.remove(tag));
+	}
+
+	@Test
+	public void testTagsWithSameHashAreKeptApart() {
+		TagTable<Integer> table = new TagTable<>();
+		// The tags only differ after the bytes used for the hash code
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			byte[] tag = new byte[TAG_LENGTH];
+			tag[TAG_LENGTH - 1] = (byte) i;
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		// Remove a tag from the middle of the chain
+		assertEquals(Integer.valueOf(5), table.remove(tags.get(5)));
+		for (int i = 0; i < 10; i++) {
+			if (i == 5) assertNull(table.get(tags.get(i)));
+			else assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+		}
+		assertEquals(9, table.size());
+	}
+
+	@Test
+	public void testTableGrows() {
+		TagTable<Integer> table = new TagTable<>();
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		assertEquals(1000, table.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+	}
+
+	@Test
+	public void testRemoveIf() {
+		TagTable<Integer> table = new TagTable<>();
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		// Remove the values that are even
+		table.removeIf(i -> i % 2 == 0);
+		assertEquals(50, table.size());
+		for (int i = 0; i < 100; i++) {
+			if (i % 2 == 0) assertNull(table.get(tags.get(i)));
+			else assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongTagLengthIsRejected() {
+		new TagTable<Integer>().get(new byte[TAG_LENGTH - 1]);
+	}
+}
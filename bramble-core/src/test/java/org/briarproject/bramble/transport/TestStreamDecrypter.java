@@ -11,6 +11,7 @@ import java.io.InputStream;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
 
@@ -51,6 +52,11 @@ class TestStreamDecrypter implements StreamDecrypter {
 		return payloadLength;
 	}
 
+	@Override
+	public int getMaxPayloadLength() {
+		return MAX_PAYLOAD_LENGTH;
+	}
+
 	private void readStreamHeader() throws IOException {
 		byte[] streamHeader = new byte[STREAM_HEADER_LENGTH];
 		int offset = 0;
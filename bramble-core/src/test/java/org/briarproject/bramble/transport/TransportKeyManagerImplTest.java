@@ -16,6 +16,7 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
 import org.briarproject.bramble.test.RunAction;
 import org.hamcrest.Description;
 import org.jmock.Expectations;
@@ -55,6 +56,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 	private final TransportCrypto transportCrypto =
 			context.mock(TransportCrypto.class);
 	private final Executor dbExecutor = context.mock(Executor.class);
+	private final Executor cryptoExecutor = new ImmediateExecutor();
 	private final ScheduledExecutorService scheduler =
 			context.mock(ScheduledExecutorService.class);
 	private final Clock clock = context.mock(Clock.class);
@@ -78,7 +80,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 	@Before
 	public void setUp() {
 		transportKeyManager = new TransportKeyManagerImpl(db, transportCrypto,
-				dbExecutor, scheduler, clock, transportId, maxLatency);
+				dbExecutor, cryptoExecutor, scheduler, clock, transportId,
+				maxLatency);
 	}
 
 	@Test
@@ -158,8 +161,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is 1 ms before the start of time period 1000
 		long timestamp = timePeriodLength * 1000 - 1;
 		assertEquals(keySetId, transportKeyManager.addRotationKeys(txn,
@@ -239,9 +242,10 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
-		assertNull(transportKeyManager.getStreamContext(txn, contactId));
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
+		assertNull(transportKeyManager.getStreamContext(txn, contactId,
+				false));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
 
@@ -251,8 +255,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		assertNull(transportKeyManager.getStreamContext(txn, pendingContactId));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(
 				pendingContactId));
@@ -274,7 +278,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(keySetId, transportKeyManager.addRotationKeys(
 				txn, contactId, rootKey, timestamp, alice, true));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
-		assertNull(transportKeyManager.getStreamContext(txn, contactId));
+		assertNull(transportKeyManager.getStreamContext(txn, contactId,
+				false));
 	}
 
 	@Test
@@ -299,16 +304,18 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		// The first request should return a stream context
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
 		StreamContext ctx = transportKeyManager.getStreamContext(txn,
-				contactId);
+				contactId, true);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
 		assertEquals(tagKey, ctx.getTagKey());
 		assertEquals(headerKey, ctx.getHeaderKey());
 		assertEquals(MAX_32_BIT_UNSIGNED, ctx.getStreamNumber());
+		assertTrue(ctx.isLargeFramesSupported());
 		// The second request should return null, the counter is exhausted
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
-		assertNull(transportKeyManager.getStreamContext(txn, contactId));
+		assertNull(transportKeyManager.getStreamContext(txn, contactId,
+				false));
 	}
 
 	@Test
@@ -387,12 +394,82 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(tagKey, ctx.getTagKey());
 		assertEquals(headerKey, ctx.getHeaderKey());
 		assertEquals(0L, ctx.getStreamNumber());
+		assertFalse(ctx.isLargeFramesSupported());
 		// Another tag should have been encoded
 		assertEquals(REORDERING_WINDOW_SIZE * 3 + 1, tags.size());
 		// The second request should return null, the tag has already been used
 		assertNull(transportKeyManager.getStreamContext(txn, tag));
 	}
 
+	@Test
+	public void testSlidingWindowPastUnseenStreamsEncodesOnlyNewTags()
+			throws Exception {
+		boolean alice = random.nextBoolean();
+		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
+		Transaction txn = new Transaction(null, false);
+		// Recognising this stream number slides the window past three
+		// unseen stream numbers
+		int slide = 3;
+		long streamNumber = REORDERING_WINDOW_SIZE / 2 + slide - 1;
+		// After sliding, the stream number is the only one that's been seen
+		byte[] bitmap = new byte[REORDERING_WINDOW_SIZE / 8];
+		int offset = (int) streamNumber - slide;
+		bitmap[offset / 8] = (byte) (0x80 >> (offset % 8));
+
+		// Keep a copy of the tags
+		List<byte[]> tags = new ArrayList<>();
+
+		context.checking(new Expectations() {{
+			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
+					1000, alice, true);
+			will(returnValue(transportKeys));
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Encode the tags (3 sets)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction(tags));
+			}
+			// Updated the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			// Save the keys
+			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
+			will(returnValue(keySetId));
+			// Encode a tag for each stream number added to the window. The
+			// tags for the removed stream numbers must not be encoded again
+			for (long i = 0; i < slide; i++) {
+				oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+						with(tagKey), with(PROTOCOL_VERSION),
+						with(REORDERING_WINDOW_SIZE + i));
+				will(new EncodeTagAction(tags));
+			}
+			// Save the reordering window (previous time period)
+			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+					slide, bitmap);
+		}});
+
+		// The timestamp is at the start of time period 1000
+		long timestamp = timePeriodLength * 1000;
+		assertEquals(keySetId, transportKeyManager.addRotationKeys(
+				txn, contactId, rootKey, timestamp, alice, true));
+		// Use a tag from the previous time period
+		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
+		StreamContext ctx = transportKeyManager.getStreamContext(txn,
+				tags.get((int) streamNumber));
+		assertNotNull(ctx);
+		assertEquals(streamNumber, ctx.getStreamNumber());
+		// A tag should have been encoded for each added stream number
+		assertEquals(REORDERING_WINDOW_SIZE * 3 + slide, tags.size());
+		// The tags for the removed stream numbers should not be recognised
+		for (int i = 0; i < slide; i++) {
+			assertNull(transportKeyManager.getStreamContext(txn, tags.get(i)));
+		}
+	}
+
 	@Test
 	public void testKeysAreUpdatedToCurrentPeriod() throws Exception {
 		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
@@ -434,9 +511,10 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			oneOf(transportCrypto).updateTransportKeys(
 					with(any(TransportKeys.class)), with(1001L));
 			will(returnValue(updated));
-			// Encode the tags (3 sets)
+			// Encode the tags for the new time period (1 set) - the tags
+			// for the other 2 sets are reused
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(transportCrypto).encodeTag(
+				oneOf(transportCrypto).encodeTag(
 						with(any(byte[].class)), with(tagKey),
 						with(PROTOCOL_VERSION), with(i));
 				will(new EncodeTagAction());
@@ -474,12 +552,13 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 				txn, contactId, rootKey, timestamp, alice, false));
 		// The keys are inactive so no stream context should be returned
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
-		assertNull(transportKeyManager.getStreamContext(txn, contactId));
+		assertNull(transportKeyManager.getStreamContext(txn, contactId,
+				false));
 		transportKeyManager.activateKeys(txn, keySetId);
 		// The keys are active so a stream context should be returned
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
 		StreamContext ctx = transportKeyManager.getStreamContext(txn,
-				contactId);
+				contactId, false);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -537,7 +616,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 				txn, contactId, rootKey, timestamp, alice, false));
 		// The keys are inactive so no stream context should be returned
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
-		assertNull(transportKeyManager.getStreamContext(txn, contactId));
+		assertNull(transportKeyManager.getStreamContext(txn, contactId,
+				false));
 		// Recognising an incoming tag should activate the outgoing keys
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
@@ -550,7 +630,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(0L, ctx.getStreamNumber());
 		// The keys are active so a stream context should be returned
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
-		ctx = transportKeyManager.getStreamContext(txn, contactId);
+		ctx = transportKeyManager.getStreamContext(txn, contactId, false);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
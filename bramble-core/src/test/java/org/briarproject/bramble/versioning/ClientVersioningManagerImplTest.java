@@ -276,7 +276,7 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(oldLocalUpdateBody));
 			// Delete the latest local update
 			oneOf(db).deleteMessage(txn, oldLocalUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldLocalUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldLocalUpdateId);
 			// Store the new local update
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(now));
@@ -374,7 +374,7 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(oldRemoteUpdateBody));
 			// Delete the latest local update
 			oneOf(db).deleteMessage(txn, oldLocalUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldLocalUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldLocalUpdateId);
 			// Store the new local update
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(now));
@@ -417,7 +417,8 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(messageMetadata));
 			// Delete the new remote update, which is obsolete
 			oneOf(db).deleteMessage(txn, newRemoteUpdate.getId());
-			oneOf(db).deleteMessageMetadata(txn, newRemoteUpdate.getId());
+			oneOf(clientHelper).deleteMessageMetadata(txn,
+					newRemoteUpdate.getId());
 		}});
 
 		ClientVersioningManagerImpl c = createInstance();
@@ -458,7 +459,7 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(oldRemoteUpdateBody));
 			// Delete the old remote update
 			oneOf(db).deleteMessage(txn, oldRemoteUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldRemoteUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldRemoteUpdateId);
 			// Get contact ID
 			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
 					contactGroup.getId());
@@ -564,10 +565,10 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(oldRemoteUpdateBody));
 			// Delete the old remote update
 			oneOf(db).deleteMessage(txn, oldRemoteUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldRemoteUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldRemoteUpdateId);
 			// Delete the old local update
 			oneOf(db).deleteMessage(txn, oldLocalUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldLocalUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldLocalUpdateId);
 			// Store the new local update
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(now));
@@ -637,10 +638,10 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(oldRemoteUpdateBody));
 			// Delete the old remote update
 			oneOf(db).deleteMessage(txn, oldRemoteUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldRemoteUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldRemoteUpdateId);
 			// Delete the old local update
 			oneOf(db).deleteMessage(txn, oldLocalUpdateId);
-			oneOf(db).deleteMessageMetadata(txn, oldLocalUpdateId);
+			oneOf(clientHelper).deleteMessageMetadata(txn, oldLocalUpdateId);
 			// Store the new local update
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(now));
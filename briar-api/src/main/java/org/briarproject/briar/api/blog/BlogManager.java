@@ -10,6 +10,8 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -108,11 +110,30 @@ public interface BlogManager {
 	 */
 	String getPostText(MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the blog posts with the given IDs, loaded in a
+	 * single transaction.
+	 */
+	Map<MessageId, String> getPostTexts(Collection<MessageId> messageIds)
+			throws DbException;
+
 	/**
 	 * Returns the headers of all posts in the given blog.
 	 */
 	Collection<BlogPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * blog that come before the given position, newest first. Posts are
+	 * ordered by timestamp and then by message ID. A null message ID
+	 * represents the position after all posts with the given timestamp, so
+	 * passing {@link Long#MAX_VALUE} and null returns the newest posts. To
+	 * get the next page, pass the timestamp and ID of the last header
+	 * returned.
+	 */
+	List<BlogPostHeader> getPostHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException;
+
 	/**
 	 * Marks a blog post as read or unread.
 	 */
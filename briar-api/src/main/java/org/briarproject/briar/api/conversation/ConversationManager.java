@@ -12,8 +12,11 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.MessagingManager;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 @NotNullByDefault
 public interface ConversationManager {
 
@@ -38,6 +41,19 @@ public interface ConversationManager {
 	Collection<ConversationMessageHeader> getMessageHeaders(ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private conversation that come before the given position, newest
+	 * first. Messages are ordered by timestamp and then by message ID. A null
+	 * message ID represents the position after all messages with the given
+	 * timestamp, so passing {@link Long#MAX_VALUE} and null returns the
+	 * newest messages. To get the next page, pass the timestamp and ID of the
+	 * last header returned.
+	 */
+	List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the unified group count for all private conversation messages.
 	 */
@@ -62,6 +78,18 @@ public interface ConversationManager {
 		Collection<ConversationMessageHeader> getMessageHeaders(Transaction txn,
 				ContactId contactId) throws DbException;
 
+		/**
+		 * Returns the headers of up to the given number of messages in the
+		 * given private conversation that come before the given position,
+		 * newest first.
+		 *
+		 * @see ConversationManager#getMessageHeaders(ContactId, long,
+		 * MessageId, int)
+		 */
+		List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+				ContactId contactId, long timestamp, @Nullable MessageId m,
+				int limit) throws DbException;
+
 		/**
 		 * Returns all conversation {@link MessageId}s for the given contact
 		 * this client is responsible for.
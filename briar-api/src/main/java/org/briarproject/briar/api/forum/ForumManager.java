@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -74,6 +75,14 @@ public interface ForumManager {
 	 */
 	Collection<Forum> getForums() throws DbException;
 
+	/**
+	 * Returns up to the given number of forums with IDs greater than the
+	 * given ID, ordered by ID. A null ID returns the forums with the lowest
+	 * IDs. To get the next page, pass the ID of the last forum returned.
+	 */
+	List<Forum> getForums(@Nullable GroupId after, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the text of the forum post with the given ID.
 	 */
@@ -84,6 +93,18 @@ public interface ForumManager {
 	 */
 	Collection<ForumPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * forum that come before the given position, newest first. Posts are
+	 * ordered by timestamp and then by message ID. A null message ID
+	 * represents the position after all posts with the given timestamp, so
+	 * passing {@link Long#MAX_VALUE} and null returns the newest posts. To
+	 * get the next page, pass the timestamp and ID of the last header
+	 * returned.
+	 */
+	List<ForumPostHeader> getPostHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException;
+
 	/**
 	 * Registers a hook to be called whenever a forum is removed.
 	 */
@@ -21,6 +21,11 @@ public interface MessagingConstants {
 
 	/**
 	 * The maximum allowed size of image attachments.
+	 * <p>
+	 * Each attachment is stored in a single message, so the limit is bound by
+	 * the maximum length of a message body. It can be raised to the intended
+	 * 6 MiB once messages that span more than one block can be stored and
+	 * sent.
 	 * TODO: Different limit for GIFs?
 	 */
 	int MAX_IMAGE_SIZE = MAX_MESSAGE_BODY_LENGTH - 100; // 6 * 1024 * 1024;
@@ -12,6 +12,9 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 @NotNullByDefault
 public interface PrivateGroupManager {
@@ -101,6 +104,18 @@ public interface PrivateGroupManager {
 	 */
 	Collection<GroupMessageHeader> getHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private group that come before the given position, newest first.
+	 * Messages are ordered by timestamp and then by message ID. A null
+	 * message ID represents the position after all messages with the given
+	 * timestamp, so passing {@link Long#MAX_VALUE} and null returns the
+	 * newest messages. To get the next page, pass the timestamp and ID of
+	 * the last header returned.
+	 */
+	List<GroupMessageHeader> getHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException;
+
 	/**
 	 * Returns all members of the given private group.
 	 */
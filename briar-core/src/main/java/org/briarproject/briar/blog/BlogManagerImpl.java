@@ -41,6 +41,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -471,6 +472,23 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		}
 	}
 
+	@Override
+	public Map<MessageId, String> getPostTexts(
+			Collection<MessageId> messageIds) throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			Map<MessageId, String> texts = new HashMap<>(messageIds.size());
+			try {
+				for (MessageId m : messageIds) {
+					BdfList message = clientHelper.getMessageAsList(txn, m);
+					texts.put(m, getPostText(message));
+				}
+			} catch (FormatException e) {
+				throw new DbException(e);
+			}
+			return texts;
+		});
+	}
+
 	private String getPostText(BdfList message) throws FormatException {
 		MessageType type = MessageType.valueOf(message.getLong(0).intValue());
 		if (type == POST) {
@@ -497,7 +515,6 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 				new BdfEntry(KEY_TYPE, COMMENT.getInt())
 		);
 
-		Collection<BlogPostHeader> headers = new ArrayList<>();
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata1 =
@@ -508,26 +525,42 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 					new HashMap<>(metadata1.size() + metadata2.size());
 			metadata.putAll(metadata1);
 			metadata.putAll(metadata2);
-			// get all authors we need to get the information for
-			Set<AuthorId> authors = new HashSet<>();
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-				Author a = clientHelper.parseAndValidateAuthor(authorList);
-				authors.add(a.getId());
-			}
-			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId authorId : authors) {
-				authorInfos.put(authorId,
-						contactManager.getAuthorInfo(txn, authorId));
-			}
-			// get post headers
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				BlogPostHeader h = getPostHeaderFromMetadata(txn, g,
-						entry.getKey(), meta, authorInfos);
-				headers.add(h);
+			Collection<BlogPostHeader> headers =
+					getPostHeaders(txn, g, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@Override
+	public List<BlogPostHeader> getPostHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException {
+		Transaction txn = db.startTransaction(true);
+		try {
+			// Wrapped posts and comments are stored in the same group, so
+			// keep loading pages until enough posts and comments are found
+			Map<MessageId, BdfDictionary> metadata = new LinkedHashMap<>();
+			while (metadata.size() < limit) {
+				Map<MessageId, Long> page = db.getMessageTimestamps(txn, g,
+						timestamp, m, limit - metadata.size());
+				if (page.isEmpty()) break;
+				// Load the page's metadata with one query
+				Map<MessageId, BdfDictionary> pageMetadata = clientHelper
+						.getMessageMetadataAsDictionary(txn, page.keySet());
+				for (Entry<MessageId, Long> e : page.entrySet()) {
+					m = e.getKey();
+					timestamp = e.getValue();
+					BdfDictionary meta = pageMetadata.get(m);
+					if (meta == null) continue;
+					MessageType type = getMessageType(meta);
+					if (type == POST || type == COMMENT) metadata.put(m, meta);
+				}
 			}
+			List<BlogPostHeader> headers = getPostHeaders(txn, g, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -537,6 +570,37 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		}
 	}
 
+	/**
+	 * Returns headers for the given posts and comments, in the iteration
+	 * order of the given metadata.
+	 */
+	private List<BlogPostHeader> getPostHeaders(Transaction txn, GroupId g,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<BlogPostHeader> headers = new ArrayList<>();
+		// get all authors we need to get the information for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId authorId : authors) {
+			authorInfos.put(authorId,
+					contactManager.getAuthorInfo(txn, authorId));
+		}
+		// get post headers
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			BlogPostHeader h = getPostHeaderFromMetadata(txn, g,
+					entry.getKey(), meta, authorInfos);
+			headers.add(h);
+		}
+		return headers;
+	}
+
 	@Override
 	public void setReadFlag(MessageId m, boolean read) throws DbException {
 		try {
@@ -14,9 +14,15 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.conversation.ConversationManager.ConversationClient;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 
+import java.util.List;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import static org.briarproject.briar.client.ConversationPaging.getPage;
+
 @Immutable
 @NotNullByDefault
 public abstract class ConversationClientImpl extends BdfIncomingMessageHook
@@ -31,6 +37,18 @@ public abstract class ConversationClientImpl extends BdfIncomingMessageHook
 		this.messageTracker = messageTracker;
 	}
 
+	/**
+	 * Returns a page of headers by loading all the headers for the
+	 * conversation. Clients that may have many messages in a conversation
+	 * should override this with a bounded query.
+	 */
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId contactId, long timestamp, @Nullable MessageId m,
+			int limit) throws DbException {
+		return getPage(getMessageHeaders(txn, contactId), timestamp, m, limit);
+	}
+
 	@Override
 	public GroupCount getGroupCount(Transaction txn, ContactId contactId)
 			throws DbException {
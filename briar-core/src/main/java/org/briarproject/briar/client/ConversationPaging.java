@@ -0,0 +1,48 @@
+package org.briarproject.briar.client;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Helper methods for returning pages of conversation message headers. Headers
+ * are ordered by timestamp and then by message ID, newest first, which is the
+ * order used by the database for paged queries.
+ */
+@NotNullByDefault
+public class ConversationPaging {
+
+	/**
+	 * Returns up to the given number of the given headers that come before
+	 * the given position, newest first. A null message ID represents the
+	 * position after all messages with the given timestamp.
+	 */
+	public static List<ConversationMessageHeader> getPage(
+			Collection<ConversationMessageHeader> headers, long timestamp,
+			@Nullable MessageId m, int limit) {
+		List<ConversationMessageHeader> page = new ArrayList<>();
+		for (ConversationMessageHeader h : headers) {
+			if (isBefore(h, timestamp, m)) page.add(h);
+		}
+		Collections.sort(page, (a, b) -> {
+			if (a.getTimestamp() != b.getTimestamp())
+				return a.getTimestamp() < b.getTimestamp() ? 1 : -1;
+			return b.getId().compareTo(a.getId());
+		});
+		if (page.size() > limit) return new ArrayList<>(page.subList(0, limit));
+		return page;
+	}
+
+	private static boolean isBefore(ConversationMessageHeader h,
+			long timestamp, @Nullable MessageId m) {
+		if (h.getTimestamp() != timestamp) return h.getTimestamp() < timestamp;
+		return m == null || h.getId().compareTo(m) < 0;
+	}
+}
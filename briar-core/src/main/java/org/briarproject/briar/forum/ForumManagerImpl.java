@@ -176,6 +176,25 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		}
 	}
 
+	@Override
+	public List<Forum> getForums(@Nullable GroupId after, int limit)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			// Sort the IDs here, as the databases we support order binary
+			// columns differently
+			List<GroupId> ids = new ArrayList<>(
+					db.getGroupIds(txn, CLIENT_ID, MAJOR_VERSION));
+			Collections.sort(ids);
+			List<Forum> forums = new ArrayList<>();
+			for (GroupId g : ids) {
+				if (forums.size() == limit) break;
+				if (after == null || g.compareTo(after) > 0)
+					forums.add(getForum(txn, g));
+			}
+			return forums;
+		});
+	}
+
 	@Override
 	public String getPostText(MessageId m) throws DbException {
 		try {
@@ -195,36 +214,59 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 			throws DbException {
 		try {
 			return db.transactionWithResult(true, txn -> {
-				Collection<ForumPostHeader> headers = new ArrayList<>();
 				Map<MessageId, BdfDictionary> metadata =
 						clientHelper.getMessageMetadataAsDictionary(txn, g);
-				// get all authors we need to get the info for
-				Set<AuthorId> authors = new HashSet<>();
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-					Author a = clientHelper.parseAndValidateAuthor(authorList);
-					authors.add(a.getId());
-				}
-				// get information for all authors
-				Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-				for (AuthorId id : authors) {
-					authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
-				}
-				// Parse the metadata
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfDictionary meta = entry.getValue();
-					headers.add(getForumPostHeader(txn, entry.getKey(), meta,
-							authorInfos));
-				}
-				return headers;
+				return getPostHeaders(txn, metadata);
+			});
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<ForumPostHeader> getPostHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException {
+		try {
+			return db.transactionWithResult(true, txn -> {
+				Map<MessageId, BdfDictionary> metadata =
+						clientHelper.getMessageMetadataAsDictionary(txn, g,
+								timestamp, m, limit);
+				return getPostHeaders(txn, metadata);
 			});
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	/**
+	 * Returns headers for the given posts, in the iteration order of the
+	 * given metadata.
+	 */
+	private List<ForumPostHeader> getPostHeaders(Transaction txn,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<ForumPostHeader> headers = new ArrayList<>();
+		// get all authors we need to get the info for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+		}
+		// Parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			headers.add(getForumPostHeader(txn, entry.getKey(), meta,
+					authorInfos));
+		}
+		return headers;
+	}
+
 	@Override
 	public void registerRemoveForumHook(RemoveForumHook hook) {
 		removeHooks.add(hook);
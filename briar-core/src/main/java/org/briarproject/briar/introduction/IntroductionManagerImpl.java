@@ -705,7 +705,7 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			if (sessionDeletable) {
 				for (MessageId m : session.messages) {
 					db.deleteMessage(txn, m);
-					db.deleteMessageMetadata(txn, m);
+					clientHelper.deleteMessageMetadata(txn, m);
 				}
 				// we can not delete the session as it might get restarted
 				// and then needs the previous MessageIds
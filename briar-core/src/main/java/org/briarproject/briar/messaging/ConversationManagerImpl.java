@@ -17,9 +17,12 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static org.briarproject.briar.client.ConversationPaging.getPage;
+
 @ThreadSafe
 @NotNullByDefault
 class ConversationManagerImpl implements ConversationManager {
@@ -55,6 +58,21 @@ class ConversationManagerImpl implements ConversationManager {
 		return messages;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			// Merge a page from each client and keep the newest headers
+			List<ConversationMessageHeader> messages = new ArrayList<>();
+			for (ConversationClient client : clients) {
+				messages.addAll(client.getMessageHeaders(txn, c, timestamp, m,
+						limit));
+			}
+			return getPage(messages, timestamp, m, limit);
+		});
+	}
+
 	@Override
 	public GroupCount getGroupCount(ContactId contactId) throws DbException {
 		int msgCount = 0, unreadCount = 0;
@@ -48,11 +48,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -345,23 +348,8 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 			BdfDictionary meta = metadata.get(id);
 			if (meta == null) continue;
 			try {
-				// Message type is null for version 0.0 private messages
-				Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
-				if (messageType != null && messageType != PRIVATE_MESSAGE)
-					continue;
-				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
-				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
-				boolean read = meta.getBoolean(MSG_KEY_READ);
-				if (messageType == null) {
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), true,
-							emptyList()));
-				} else {
-					boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), hasText,
-							parseAttachmentHeaders(meta)));
-				}
+				PrivateMessageHeader h = getMessageHeader(g, s, meta);
+				if (h != null) headers.add(h);
 			} catch (FormatException e) {
 				throw new DbException(e);
 			}
@@ -369,6 +357,63 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		return headers;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		GroupId g = getContactGroup(db.getContact(txn, c)).getId();
+		List<ConversationMessageHeader> headers = new ArrayList<>();
+		try {
+			// Attachments are stored in the same group, so keep loading
+			// pages until enough private messages have been found
+			while (headers.size() < limit) {
+				Map<MessageId, Long> page = db.getMessageTimestamps(txn, g,
+						timestamp, m, limit - headers.size());
+				if (page.isEmpty()) break;
+				// Load the page's metadata and statuses with one query each
+				Map<MessageId, BdfDictionary> metadata = clientHelper
+						.getMessageMetadataAsDictionary(txn, page.keySet());
+				Map<MessageId, MessageStatus> statuses =
+						db.getMessageStatus(txn, c, metadata.keySet());
+				for (Entry<MessageId, Long> e : page.entrySet()) {
+					m = e.getKey();
+					timestamp = e.getValue();
+					BdfDictionary meta = metadata.get(m);
+					if (meta == null) continue;
+					MessageStatus s = statuses.get(m);
+					PrivateMessageHeader h = getMessageHeader(g, s, meta);
+					if (h != null) headers.add(h);
+				}
+			}
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+		return headers;
+	}
+
+	/**
+	 * Returns a header for the given message, or null if the message isn't
+	 * a private message.
+	 */
+	@Nullable
+	private PrivateMessageHeader getMessageHeader(GroupId g, MessageStatus s,
+			BdfDictionary meta) throws FormatException {
+		// Message type is null for version 0.0 private messages
+		Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
+		if (messageType != null && messageType != PRIVATE_MESSAGE) return null;
+		MessageId id = s.getMessageId();
+		long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+		boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+		boolean read = meta.getBoolean(MSG_KEY_READ);
+		if (messageType == null) {
+			return new PrivateMessageHeader(id, g, timestamp, local, read,
+					s.isSent(), s.isSeen(), true, emptyList());
+		}
+		boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
+		return new PrivateMessageHeader(id, g, timestamp, local, read,
+				s.isSent(), s.isSeen(), hasText, parseAttachmentHeaders(meta));
+	}
+
 	@Override
 	public Set<MessageId> getMessageIds(Transaction txn, ContactId c)
 			throws DbException {
@@ -391,8 +436,33 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 
 	@Override
 	public String getMessageText(MessageId m) throws DbException {
+		return db.transactionWithNullableResult(true, txn ->
+				getMessageText(txn, m));
+	}
+
+	@Override
+	public Map<MessageId, String> getMessageTexts(
+			Collection<MessageId> messageIds) throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			// Load the messages with one query
+			Collection<Message> messages =
+					db.getMessages(txn, messageIds).values();
+			Map<MessageId, String> texts = new HashMap<>(messages.size());
+			for (Message m : messages) texts.put(m.getId(), getMessageText(m));
+			return texts;
+		});
+	}
+
+	@Nullable
+	private String getMessageText(Transaction txn, MessageId m)
+			throws DbException {
+		return getMessageText(clientHelper.getMessage(txn, m));
+	}
+
+	@Nullable
+	private String getMessageText(Message m) throws DbException {
 		try {
-			BdfList body = clientHelper.getMessageAsList(m);
+			BdfList body = clientHelper.toList(m);
 			if (body.size() == 1) return body.getString(0); // Legacy format
 			else return body.getOptionalString(1);
 		} catch (FormatException e) {
@@ -438,7 +508,7 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		// also attachments
 		for (MessageId messageId : db.getMessageIds(txn, g)) {
 			db.deleteMessage(txn, messageId);
-			db.deleteMessageMetadata(txn, messageId);
+			clientHelper.deleteMessageMetadata(txn, messageId);
 		}
 		messageTracker.initializeGroupCount(txn, g);
 		return new DeletionResult();
@@ -476,10 +546,10 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 			if (allAttachmentsDelivered) {
 				for (AttachmentHeader h : headers) {
 					db.deleteMessage(txn, h.getMessageId());
-					db.deleteMessageMetadata(txn, h.getMessageId());
+					clientHelper.deleteMessageMetadata(txn, h.getMessageId());
 				}
 				db.deleteMessage(txn, m);
-				db.deleteMessageMetadata(txn, m);
+				clientHelper.deleteMessageMetadata(txn, m);
 			} else {
 				result.addNotFullyDownloaded();
 			}
@@ -51,6 +51,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
@@ -319,36 +320,30 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public Collection<GroupMessageHeader> getHeaders(GroupId g)
 			throws DbException {
-		Collection<GroupMessageHeader> headers = new ArrayList<>();
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata =
 					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the information for
-			Set<AuthorId> authors = new HashSet<>();
-			for (BdfDictionary meta : metadata.values()) {
-				authors.add(getAuthor(meta).getId());
-			}
-			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
-			}
-			// get current visibilities for join messages
-			Map<Author, Visibility> visibilities = getMembers(txn, g);
-			// parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
-					Author member = getAuthor(meta);
-					Visibility v = visibilities.get(member);
-					headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos, v));
-				} else {
-					headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos));
-				}
-			}
+			Collection<GroupMessageHeader> headers =
+					getHeaders(txn, g, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@Override
+	public List<GroupMessageHeader> getHeaders(GroupId g, long timestamp,
+			@Nullable MessageId m, int limit) throws DbException {
+		Transaction txn = db.startTransaction(true);
+		try {
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, g,
+							timestamp, m, limit);
+			List<GroupMessageHeader> headers = getHeaders(txn, g, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -358,6 +353,42 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		}
 	}
 
+	/**
+	 * Returns headers for the given messages, in the iteration order of the
+	 * given metadata.
+	 */
+	private List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<GroupMessageHeader> headers = new ArrayList<>();
+		// get all authors we need to get the information for
+		Set<AuthorId> authors = new HashSet<>();
+		for (BdfDictionary meta : metadata.values()) {
+			authors.add(getAuthor(meta).getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+		}
+		// get current visibilities for join messages
+		Map<Author, Visibility> visibilities = getMembers(txn, g);
+		// parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
+				Author member = getAuthor(meta);
+				Visibility v = visibilities.get(member);
+				headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos, v));
+			} else {
+				headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos));
+			}
+		}
+		return headers;
+	}
+
 	private GroupMessageHeader getGroupMessageHeader(Transaction txn, GroupId g,
 			MessageId id, BdfDictionary meta,
 			Map<AuthorId, AuthorInfo> authorInfos)
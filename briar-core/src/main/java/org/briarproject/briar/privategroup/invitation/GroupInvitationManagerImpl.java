@@ -761,7 +761,7 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			if (sessionDeletable) {
 				for (MessageId m : session.messages) {
 					db.deleteMessage(txn, m);
-					db.deleteMessageMetadata(txn, m);
+					clientHelper.deleteMessageMetadata(txn, m);
 				}
 			}
 		}
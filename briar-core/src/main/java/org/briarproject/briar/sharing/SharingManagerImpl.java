@@ -682,7 +682,7 @@ abstract class SharingManagerImpl<S extends Shareable>
 			if (sessionDeletable) {
 				for (MessageId m : session.messages) {
 					db.deleteMessage(txn, m);
-					db.deleteMessageMetadata(txn, m);
+					clientHelper.deleteMessageMetadata(txn, m);
 				}
 			}
 		}
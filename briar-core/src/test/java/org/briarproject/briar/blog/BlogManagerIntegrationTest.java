@@ -19,6 +19,8 @@ import org.junit.rules.ExpectedException;
 import java.util.Collection;
 import java.util.Iterator;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static junit.framework.Assert.assertNotNull;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorInfo.Status.NONE;
@@ -137,7 +139,10 @@ public class BlogManagerIntegrationTest
 		assertEquals(1, headers0.size());
 
 		// check that body is there
-		assertEquals(text, blogManager0.getPostText(p.getMessage().getId()));
+		MessageId id = p.getMessage().getId();
+		assertEquals(text, blogManager0.getPostText(id));
+		assertEquals(singletonMap(id, text),
+				blogManager0.getPostTexts(singletonList(id)));
 
 		// make sure that blog0 at author1 doesn't have the post yet
 		Collection<BlogPostHeader> headers1 =
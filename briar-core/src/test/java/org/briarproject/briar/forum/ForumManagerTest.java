@@ -14,6 +14,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -134,6 +135,33 @@ public class ForumManagerTest
 		assertEquals(0, forumManager0.getForums().size());
 	}
 
+	@Test
+	public void testPagedPostHeaders() throws Exception {
+		// add three forum posts with different timestamps
+		long time = clock.currentTimeMillis();
+		ForumPost post1 = createForumPost(groupId0, null, "a", time - 2);
+		ForumPost post2 = createForumPost(groupId0, post1, "b", time - 1);
+		ForumPost post3 = createForumPost(groupId0, null, "c", time);
+		forumManager0.addLocalPost(post1);
+		forumManager0.addLocalPost(post2);
+		forumManager0.addLocalPost(post3);
+
+		// the newest posts are returned first
+		List<ForumPostHeader> page1 =
+				forumManager0.getPostHeaders(groupId0, Long.MAX_VALUE, null, 2);
+		assertEquals(2, page1.size());
+		assertEquals(post3.getMessage().getId(), page1.get(0).getId());
+		assertEquals(post2.getMessage().getId(), page1.get(1).getId());
+		assertEquals(post1.getMessage().getId(), page1.get(1).getParentId());
+
+		// the next page starts after the last header of the first page
+		ForumPostHeader last = page1.get(1);
+		List<ForumPostHeader> page2 = forumManager0.getPostHeaders(groupId0,
+				last.getTimestamp(), last.getId(), 2);
+		assertEquals(1, page2.size());
+		assertEquals(post1.getMessage().getId(), page2.get(0).getId());
+	}
+
 	@Test
 	public void testForumPostDelivery() throws Exception {
 		// add one forum post
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.briar.api.conversation.ConversationManager;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.conversation.DeletionResult;
 import org.briarproject.briar.api.messaging.AttachmentHeader;
@@ -21,13 +22,16 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
@@ -36,9 +40,11 @@ import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERE
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.briarproject.briar.client.ConversationPaging.getPage;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -147,6 +153,50 @@ public class MessagingManagerIntegrationTest
 		assertGroupCounts(c1, 1, 1);
 	}
 
+	@Test
+	public void testPagedConversation() throws Exception {
+		// send 3 messages in both directions, 1 with an attachment
+		sendMessage(c0, c1, getRandomString(42));
+		AttachmentHeader h = addAttachment(c0);
+		sendMessage(c0, c1, null, singletonList(h));
+		sendMessage(c1, c0, getRandomString(42));
+		List<MessageId> expected =
+				getIds(getPage(getMessages(c0), Long.MAX_VALUE, null, 3));
+		assertEquals(3, expected.size());
+
+		// retrieve the messages in pages of two, skipping the attachment
+		ConversationManager conversationManager0 =
+				c0.getConversationManager();
+		List<ConversationMessageHeader> page1 = conversationManager0
+				.getMessageHeaders(contactId, Long.MAX_VALUE, null, 2);
+		assertEquals(expected.subList(0, 2), getIds(page1));
+		ConversationMessageHeader last = page1.get(1);
+		List<ConversationMessageHeader> page2 = conversationManager0
+				.getMessageHeaders(contactId, last.getTimestamp(), last.getId(),
+						2);
+		assertEquals(expected.subList(2, 3), getIds(page2));
+		last = page2.get(0);
+		assertTrue(conversationManager0.getMessageHeaders(contactId,
+				last.getTimestamp(), last.getId(), 2).isEmpty());
+	}
+
+	@Test
+	public void testGetMessageTexts() throws Exception {
+		String text = getRandomString(42);
+		PrivateMessage m1 = sendMessage(c0, c1, text);
+		AttachmentHeader h = addAttachment(c0);
+		PrivateMessage m2 = sendMessage(c0, c1, null, singletonList(h));
+		MessageId id1 = m1.getMessage().getId();
+		MessageId id2 = m2.getMessage().getId();
+
+		Map<MessageId, String> texts =
+				messagingManager1.getMessageTexts(asList(id1, id2));
+		assertEquals(2, texts.size());
+		assertEquals(text, texts.get(id1));
+		assertTrue(texts.containsKey(id2));
+		assertNull(texts.get(id2));
+	}
+
 	@Test
 	public void testDeleteAll() throws Exception {
 		// send 3 message (1 with attachment)
@@ -355,6 +405,12 @@ public class MessagingManagerIntegrationTest
 				clock.currentTimeMillis(), "image/jpeg", stream);
 	}
 
+	private List<MessageId> getIds(List<ConversationMessageHeader> headers) {
+		List<MessageId> ids = new ArrayList<>();
+		for (ConversationMessageHeader h : headers) ids.add(h.getId());
+		return ids;
+	}
+
 	private Collection<ConversationMessageHeader> getMessages(
 			BriarIntegrationTestComponent c)
 			throws Exception {
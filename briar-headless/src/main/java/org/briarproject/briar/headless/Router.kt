@@ -15,6 +15,8 @@ import org.briarproject.briar.headless.contact.ContactController
 import org.briarproject.briar.headless.event.WebSocketController
 import org.briarproject.briar.headless.forums.ForumController
 import org.briarproject.briar.headless.messaging.MessagingController
+import org.spongycastle.util.encoders.Base64
+import org.spongycastle.util.encoders.DecoderException
 import java.lang.Runtime.getRuntime
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.logging.Level.INFO
@@ -164,3 +166,41 @@ fun Context.getFromJson(objectMapper: ObjectMapper, field: String): String {
         throw BadRequestResponse("Invalid JSON")
     }
 }
+
+/**
+ * Returns the value of the "limit" query parameter or null if it is not given.
+ *
+ * @throws BadRequestResponse when limit is not a positive number.
+ */
+fun Context.getLimitFromQueryParam(): Int? {
+    val limit = queryParam("limit") ?: return null
+    val limitInt = limit.toIntOrNull()
+    if (limitInt == null || limitInt < 1) throw BadRequestResponse("Invalid limit")
+    return limitInt
+}
+
+/**
+ * Returns the value of the given query parameter as a number or null if it is not given.
+ *
+ * @throws BadRequestResponse when the value is not a number.
+ */
+fun Context.getLongFromQueryParam(param: String): Long? {
+    val value = queryParam(param) ?: return null
+    return value.toLongOrNull() ?: throw BadRequestResponse("Invalid $param")
+}
+
+/**
+ * Returns the Base64-decoded value of the given query parameter or null if it is not given.
+ *
+ * @throws BadRequestResponse when the value is not Base64 or does not have the given length.
+ */
+fun Context.getBytesFromQueryParam(param: String, length: Int): ByteArray? {
+    val value = queryParam(param) ?: return null
+    val bytes = try {
+        Base64.decode(value)
+    } catch (e: DecoderException) {
+        throw BadRequestResponse("Invalid $param")
+    }
+    if (bytes.size != length) throw BadRequestResponse("Invalid $param")
+    return bytes
+}
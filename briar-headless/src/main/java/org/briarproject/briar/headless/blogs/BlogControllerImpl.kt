@@ -4,16 +4,27 @@ import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
 import org.briarproject.bramble.api.identity.IdentityManager
+import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.system.Clock
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.blog.BlogConstants.MAX_BLOG_POST_TEXT_LENGTH
 import org.briarproject.briar.api.blog.BlogManager
 import org.briarproject.briar.api.blog.BlogPostFactory
+import org.briarproject.briar.api.blog.BlogPostHeader
+import org.briarproject.briar.headless.getBytesFromQueryParam
 import org.briarproject.briar.headless.getFromJson
+import org.briarproject.briar.headless.getLimitFromQueryParam
+import org.briarproject.briar.headless.getLongFromQueryParam
+import org.briarproject.briar.headless.json.jsonStream
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * The number of blog posts returned by a listing without a "limit" query parameter.
+ */
+internal const val DEFAULT_POST_PAGE_SIZE = 100
+
 @Immutable
 @Singleton
 internal class BlogControllerImpl
@@ -27,13 +38,30 @@ constructor(
 ) : BlogController {
 
     override fun listPosts(ctx: Context): Context {
-        val posts = blogManager.blogs
-            .flatMap { blog -> blogManager.getPostHeaders(blog.id) }
-            .asSequence()
-            .sortedBy { it.timeReceived }
-            .map { header -> header.output(blogManager.getPostText(header.id)) }
-            .toList()
-        return ctx.json(posts)
+        val limit = ctx.getLimitFromQueryParam() ?: DEFAULT_POST_PAGE_SIZE
+        val headers = getPage(ctx, limit)
+        // Load the texts of the page in one transaction before the response is written,
+        // so a database error still results in an error response
+        val texts = if (headers.isEmpty()) emptyMap<MessageId, String>()
+        else blogManager.getPostTexts(headers.map { it.id })
+        val posts = headers.asSequence().map { header -> header.output(texts.getValue(header.id)) }
+        return ctx.jsonStream(objectMapper, posts)
+    }
+
+    /**
+     * Returns up to [limit] headers from all blogs that come before the position given by the
+     * "beforeTimestamp" and "beforeId" query parameters, oldest first.
+     * Without a position, the newest headers are returned.
+     */
+    private fun getPage(ctx: Context, limit: Int): List<BlogPostHeader> {
+        val timestamp = ctx.getLongFromQueryParam("beforeTimestamp") ?: Long.MAX_VALUE
+        val id = ctx.getBytesFromQueryParam("beforeId", MessageId.LENGTH)?.let { MessageId(it) }
+        // Each blog returns its newest posts before the position, so the page is among them
+        return blogManager.blogs
+            .flatMap { blog -> blogManager.getPostHeaders(blog.id, timestamp, id, limit) }
+            .sortedWith(compareByDescending<BlogPostHeader> { it.timestamp }.thenByDescending { it.id })
+            .take(limit)
+            .reversed()
     }
 
     override fun createPost(ctx: Context): Context {
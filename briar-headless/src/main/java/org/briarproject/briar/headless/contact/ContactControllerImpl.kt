@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
 import io.javalin.http.NotFoundResponse
+import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.bramble.api.contact.ContactManager
 import org.briarproject.bramble.api.contact.HandshakeLinkConstants.LINK_REGEX
 import org.briarproject.bramble.api.contact.PendingContactId
@@ -20,7 +21,10 @@ import org.briarproject.bramble.util.StringUtils.toUtf8
 import org.briarproject.briar.headless.event.WebSocketController
 import org.briarproject.briar.headless.getContactIdFromPathParam
 import org.briarproject.briar.headless.getFromJson
+import org.briarproject.briar.headless.getLimitFromQueryParam
+import org.briarproject.briar.headless.getLongFromQueryParam
 import org.briarproject.briar.headless.json.JsonDict
+import org.briarproject.briar.headless.json.jsonStream
 import org.spongycastle.util.encoders.Base64
 import org.spongycastle.util.encoders.DecoderException
 import javax.annotation.concurrent.Immutable
@@ -60,10 +64,13 @@ constructor(
     }
 
     override fun list(ctx: Context): Context {
-        val contacts = contactManager.contacts.map { contact ->
-            contact.output()
+        val limit = ctx.getLimitFromQueryParam() ?: Int.MAX_VALUE
+        val after = ctx.getLongFromQueryParam("after")?.let {
+            ContactId(it.coerceIn(Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong()).toInt())
         }
-        return ctx.json(contacts)
+        val contacts = contactManager.getContacts(after, limit).asSequence()
+            .map { contact -> contact.output() }
+        return ctx.jsonStream(objectMapper, contacts)
     }
 
     override fun getLink(ctx: Context): Context {
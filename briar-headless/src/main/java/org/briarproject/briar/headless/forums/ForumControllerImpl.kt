@@ -3,10 +3,14 @@ package org.briarproject.briar.headless.forums
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
+import org.briarproject.bramble.api.sync.GroupId
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.forum.ForumConstants.MAX_FORUM_NAME_LENGTH
 import org.briarproject.briar.api.forum.ForumManager
+import org.briarproject.briar.headless.getBytesFromQueryParam
 import org.briarproject.briar.headless.getFromJson
+import org.briarproject.briar.headless.getLimitFromQueryParam
+import org.briarproject.briar.headless.json.jsonStream
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -19,7 +23,11 @@ constructor(private val forumManager: ForumManager, private val objectMapper: Ob
     ForumController {
 
     override fun list(ctx: Context): Context {
-        return ctx.json(forumManager.forums.output())
+        val limit = ctx.getLimitFromQueryParam() ?: Int.MAX_VALUE
+        val after = ctx.getBytesFromQueryParam("after", GroupId.LENGTH)?.let { GroupId(it) }
+        val forums = forumManager.getForums(after, limit).asSequence()
+            .map { forum -> forum.output() }
+        return ctx.jsonStream(objectMapper, forums)
     }
 
     override fun create(ctx: Context): Context {
@@ -7,5 +7,3 @@ internal fun Forum.output() = JsonDict(
     "name" to name,
     "id" to id.bytes
 )
-
-internal fun Collection<Forum>.output() = map { it.output() }
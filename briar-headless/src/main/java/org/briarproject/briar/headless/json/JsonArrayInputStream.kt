@@ -0,0 +1,88 @@
+package org.briarproject.briar.headless.json
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.SerializationFeature.FLUSH_AFTER_WRITE_VALUE
+import io.javalin.http.Context
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import javax.annotation.concurrent.NotThreadSafe
+import kotlin.math.min
+
+/**
+ * An [InputStream] that serialises the given items as a JSON array while it is being read.
+ * Only one item is held in serialised form at a time,
+ * so the serialised response is never built in memory as a whole.
+ * This does not limit the memory used for loading the items themselves.
+ */
+@NotThreadSafe
+internal class JsonArrayInputStream(objectMapper: ObjectMapper, items: Sequence<Any>) :
+    InputStream() {
+
+    private val iterator = items.iterator()
+    private val writer = objectMapper.writer().without(FLUSH_AFTER_WRITE_VALUE)
+    private val buffer = Buffer()
+    private val generator = objectMapper.factory.createGenerator(buffer)
+    private var pos = 0
+    private var started = false
+    private var finished = false
+
+    override fun read(): Int {
+        if (!fill()) return -1
+        return buffer.bytes[pos++].toInt() and 0xFF
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        if (!fill()) return -1
+        val n = min(len, buffer.size() - pos)
+        System.arraycopy(buffer.bytes, pos, b, off, n)
+        pos += n
+        return n
+    }
+
+    override fun available() = buffer.size() - pos
+
+    override fun close() {
+        finished = true
+        generator.close()
+    }
+
+    /**
+     * Serialises the next item into the buffer if the buffer has been consumed.
+     * Returns false when the end of the array has been reached.
+     */
+    private fun fill(): Boolean {
+        while (pos == buffer.size()) {
+            if (finished) return false
+            buffer.reset()
+            pos = 0
+            if (!started) {
+                generator.writeStartArray()
+                started = true
+            }
+            if (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next())
+            } else {
+                generator.writeEndArray()
+                finished = true
+            }
+            generator.flush()
+        }
+        return true
+    }
+
+    private class Buffer : ByteArrayOutputStream() {
+        val bytes: ByteArray get() = buf
+    }
+}
+
+/**
+ * Sets the result of this [Context] to a JSON array of the given items.
+ * The items are produced and serialised lazily while the response is being written.
+ *
+ * Any validation of the request and any database access must happen before
+ * the items are produced, because the response may already be committed when they are.
+ */
+internal fun Context.jsonStream(objectMapper: ObjectMapper, items: Sequence<Any>): Context {
+    return contentType("application/json").result(JsonArrayInputStream(objectMapper, items))
+}
@@ -11,11 +11,13 @@ import org.briarproject.bramble.api.db.DatabaseExecutor
 import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
+import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.system.Clock
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.blog.BlogInvitationRequest
 import org.briarproject.briar.api.blog.BlogInvitationResponse
 import org.briarproject.briar.api.conversation.ConversationManager
+import org.briarproject.briar.api.conversation.ConversationMessageHeader
 import org.briarproject.briar.api.conversation.ConversationMessageVisitor
 import org.briarproject.briar.api.conversation.event.ConversationMessageReceivedEvent
 import org.briarproject.briar.api.forum.ForumInvitationRequest
@@ -31,8 +33,12 @@ import org.briarproject.briar.api.privategroup.invitation.GroupInvitationRespons
 import org.briarproject.briar.headless.event.WebSocketController
 import org.briarproject.briar.headless.event.output
 import org.briarproject.briar.headless.getContactIdFromPathParam
+import org.briarproject.briar.headless.getBytesFromQueryParam
 import org.briarproject.briar.headless.getFromJson
+import org.briarproject.briar.headless.getLimitFromQueryParam
+import org.briarproject.briar.headless.getLongFromQueryParam
 import org.briarproject.briar.headless.json.JsonDict
+import org.briarproject.briar.headless.json.jsonStream
 import java.util.concurrent.Executor
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
@@ -40,6 +46,11 @@ import javax.inject.Singleton
 
 internal const val EVENT_CONVERSATION_MESSAGE = "ConversationMessageReceivedEvent"
 
+/**
+ * The number of messages returned by a listing without a "limit" query parameter.
+ */
+internal const val DEFAULT_MESSAGE_PAGE_SIZE = 100
+
 @Immutable
 @Singleton
 internal class MessagingControllerImpl
@@ -57,11 +68,25 @@ constructor(
 
     override fun list(ctx: Context): Context {
         val contact = getContact(ctx)
-        val jsonVisitor = JsonVisitor(contact.id, messagingManager)
-        val messages = conversationManager.getMessageHeaders(contact.id)
-            .sortedBy { it.timestamp }
-            .map { header -> header.accept(jsonVisitor) }
-        return ctx.json(messages)
+        val limit = ctx.getLimitFromQueryParam() ?: DEFAULT_MESSAGE_PAGE_SIZE
+        val headers = getPage(ctx, contact.id, limit)
+        // Load the texts of all private messages in one transaction
+        val ids = headers.filterIsInstance<PrivateMessageHeader>().map { it.id }
+        val texts = if (ids.isEmpty()) emptyMap<MessageId, String?>() else messagingManager.getMessageTexts(ids)
+        val jsonVisitor = JsonVisitor(contact.id, texts)
+        val messages = headers.asSequence().map { header -> header.accept(jsonVisitor) }
+        return ctx.jsonStream(objectMapper, messages)
+    }
+
+    /**
+     * Returns up to [limit] headers that come before the position given by the
+     * "beforeTimestamp" and "beforeId" query parameters, oldest first.
+     * Without a position, the newest headers are returned.
+     */
+    private fun getPage(ctx: Context, contactId: ContactId, limit: Int): List<ConversationMessageHeader> {
+        val timestamp = ctx.getLongFromQueryParam("beforeTimestamp") ?: Long.MAX_VALUE
+        val id = ctx.getBytesFromQueryParam("beforeId", MessageId.LENGTH)?.let { MessageId(it) }
+        return conversationManager.getMessageHeaders(contactId, timestamp, id, limit).reversed()
     }
 
     override fun write(ctx: Context): Context {
@@ -105,11 +130,11 @@ constructor(
 
 private class JsonVisitor(
     private val contactId: ContactId,
-    private val messagingManager: MessagingManager
+    private val texts: Map<MessageId, String?>
 ) : ConversationMessageVisitor<JsonDict> {
 
     override fun visitPrivateMessageHeader(h: PrivateMessageHeader) =
-        h.output(contactId, messagingManager.getMessageText(h.id))
+        h.output(contactId, texts[h.id])
 
     override fun visitBlogInvitationRequest(r: BlogInvitationRequest) = r.output(contactId)
 
@@ -3,6 +3,8 @@ package org.briarproject.briar.headless
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.Context
 import io.javalin.http.util.ContextUtil
+import io.mockk.CapturingSlot
+import io.mockk.every
 import io.mockk.mockk
 import org.briarproject.bramble.api.contact.Contact
 import org.briarproject.bramble.api.contact.ContactManager
@@ -17,6 +19,7 @@ import org.briarproject.bramble.util.StringUtils.getRandomString
 import org.briarproject.briar.headless.event.WebSocketController
 import org.skyscreamer.jsonassert.JSONAssert.assertEquals
 import org.skyscreamer.jsonassert.JSONCompareMode.STRICT
+import java.io.InputStream
 import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
 
@@ -47,4 +50,22 @@ abstract class ControllerTest {
         assertEquals(json, outputCtx.json(obj).resultString(), STRICT)
     }
 
+    /**
+     * Expects a JSON array to be streamed to [ctx] and returns a slot for the stream.
+     */
+    protected fun expectJsonStream(): CapturingSlot<InputStream> {
+        val slot = CapturingSlot<InputStream>()
+        every { ctx.contentType("application/json") } returns ctx
+        every { ctx.result(capture(slot)) } returns ctx
+        return slot
+    }
+
+    /**
+     * Asserts that the streamed JSON array contains the same JSON as the given list.
+     */
+    protected fun assertJsonStreamEquals(list: List<Any>, slot: CapturingSlot<InputStream>) {
+        val json = slot.captured.readBytes().toString(Charsets.UTF_8)
+        assertEquals(outputCtx.json(list).resultString(), json, STRICT)
+    }
+
 }
@@ -10,13 +10,18 @@ import org.briarproject.bramble.api.identity.AuthorInfo
 import org.briarproject.bramble.api.identity.AuthorInfo.Status.OURSELVES
 import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.identity.output
+import org.briarproject.bramble.test.TestUtils.getGroup
+import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.bramble.util.StringUtils.getRandomString
 import org.briarproject.briar.api.blog.*
 import org.briarproject.briar.api.blog.BlogConstants.MAX_BLOG_POST_TEXT_LENGTH
+import org.briarproject.briar.api.blog.BlogManager.CLIENT_ID
+import org.briarproject.briar.api.blog.BlogManager.MAJOR_VERSION
 import org.briarproject.briar.api.blog.MessageType.POST
 import org.briarproject.briar.headless.ControllerTest
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
+import org.spongycastle.util.encoders.Base64.toBase64String
 
 internal class BlogControllerTest : ControllerTest() {
 
@@ -90,21 +95,75 @@ internal class BlogControllerTest : ControllerTest() {
 
     @Test
     fun testList() {
+        expectNoPosition()
+        every { ctx.queryParam("limit") } returns null
         every { blogManager.blogs } returns listOf(blog)
-        every { blogManager.getPostHeaders(group.id) } returns listOf(header)
-        every { blogManager.getPostText(message.id) } returns text
-        every { ctx.json(listOf(header.output(text))) } returns ctx
+        every {
+            blogManager.getPostHeaders(group.id, Long.MAX_VALUE, null, DEFAULT_POST_PAGE_SIZE)
+        } returns listOf(header)
+        every { blogManager.getPostTexts(listOf(message.id)) } returns mapOf(message.id to text)
+        val slot = expectJsonStream()
 
         controller.listPosts(ctx)
+        assertJsonStreamEquals(listOf(header.output(text)), slot)
     }
 
     @Test
     fun testEmptyList() {
+        expectNoPosition()
+        every { ctx.queryParam("limit") } returns null
         every { blogManager.blogs } returns listOf(blog)
-        every { blogManager.getPostHeaders(group.id) } returns emptyList()
-        every { ctx.json(emptyList<Any>()) } returns ctx
+        every {
+            blogManager.getPostHeaders(group.id, Long.MAX_VALUE, null, DEFAULT_POST_PAGE_SIZE)
+        } returns emptyList()
+        val slot = expectJsonStream()
 
         controller.listPosts(ctx)
+        assertJsonStreamEquals(emptyList(), slot)
+    }
+
+    @Test
+    fun testListPage() {
+        val blog1 = Blog(getGroup(CLIENT_ID, MAJOR_VERSION), author, false)
+        val header1 = getHeader(blog1, message.timestamp - 2)
+        val header2 = getHeader(blog1, message.timestamp + 1)
+        val beforeId = MessageId(getRandomId())
+
+        every { ctx.queryParam("limit") } returns "2"
+        every { ctx.queryParam("beforeTimestamp") } returns "${message.timestamp + 2}"
+        every { ctx.queryParam("beforeId") } returns toBase64String(beforeId.bytes)
+        every { blogManager.blogs } returns listOf(blog, blog1)
+        // Each blog returns its newest posts before the position
+        every {
+            blogManager.getPostHeaders(group.id, message.timestamp + 2, beforeId, 2)
+        } returns listOf(header)
+        every {
+            blogManager.getPostHeaders(blog1.id, message.timestamp + 2, beforeId, 2)
+        } returns listOf(header2, header1)
+        // Only the texts of the returned posts are loaded
+        every {
+            blogManager.getPostTexts(listOf(header.id, header2.id))
+        } returns mapOf(header.id to text, header2.id to text)
+        val slot = expectJsonStream()
+
+        controller.listPosts(ctx)
+        assertJsonStreamEquals(listOf(header.output(text), header2.output(text)), slot)
+    }
+
+    @Test
+    fun testListWithInvalidLimit() {
+        every { ctx.queryParam("limit") } returns "foo"
+
+        assertThrows(BadRequestResponse::class.java) { controller.listPosts(ctx) }
+    }
+
+    @Test
+    fun testListWithInvalidBeforeId() {
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("beforeTimestamp") } returns null
+        every { ctx.queryParam("beforeId") } returns "foo"
+
+        assertThrows(BadRequestResponse::class.java) { controller.listPosts(ctx) }
     }
 
     @Test
@@ -126,4 +185,22 @@ internal class BlogControllerTest : ControllerTest() {
         assertJsonEquals(json, header.output(text))
     }
 
+    private fun expectNoPosition() {
+        every { ctx.queryParam("beforeTimestamp") } returns null
+        every { ctx.queryParam("beforeId") } returns null
+    }
+
+    private fun getHeader(blog: Blog, timestamp: Long) = BlogPostHeader(
+        POST,
+        blog.id,
+        MessageId(getRandomId()),
+        parentId,
+        timestamp,
+        timestamp,
+        author,
+        AuthorInfo(OURSELVES),
+        rssFeed,
+        read
+    )
+
 }
@@ -39,16 +39,42 @@ internal class ContactControllerTest : ControllerTest() {
 
     @Test
     fun testEmptyContactList() {
-        every { contactManager.contacts } returns emptyList<Contact>()
-        every { ctx.json(emptyList<Any>()) } returns ctx
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("after") } returns null
+        every { contactManager.getContacts(null, Int.MAX_VALUE) } returns emptyList<Contact>()
+        val slot = expectJsonStream()
         controller.list(ctx)
+        assertJsonStreamEquals(emptyList(), slot)
     }
 
     @Test
     fun testList() {
-        every { contactManager.contacts } returns listOf(contact)
-        every { ctx.json(listOf(contact.output())) } returns ctx
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("after") } returns null
+        every { contactManager.getContacts(null, Int.MAX_VALUE) } returns listOf(contact)
+        val slot = expectJsonStream()
         controller.list(ctx)
+        assertJsonStreamEquals(listOf(contact.output()), slot)
+    }
+
+    @Test
+    fun testListPage() {
+        val contacts = (2..3).map { id ->
+            Contact(ContactId(id), author, localAuthor.id, null, null, true)
+        }
+        every { ctx.queryParam("limit") } returns "2"
+        every { ctx.queryParam("after") } returns "1"
+        every { contactManager.getContacts(ContactId(1), 2) } returns contacts
+        val slot = expectJsonStream()
+        controller.list(ctx)
+        assertJsonStreamEquals(listOf(contacts[0].output(), contacts[1].output()), slot)
+    }
+
+    @Test
+    fun testListWithInvalidAfter() {
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("after") } returns "foo"
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
     }
 
     @Test
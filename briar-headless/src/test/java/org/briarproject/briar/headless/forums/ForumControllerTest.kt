@@ -3,6 +3,8 @@ package org.briarproject.briar.headless.forums
 import io.javalin.http.BadRequestResponse
 import io.mockk.every
 import io.mockk.mockk
+import org.briarproject.bramble.test.TestUtils.getClientId
+import org.briarproject.bramble.test.TestUtils.getGroup
 import org.briarproject.bramble.test.TestUtils.getRandomBytes
 import org.briarproject.bramble.util.StringUtils.getRandomString
 import org.briarproject.briar.api.forum.Forum
@@ -11,6 +13,7 @@ import org.briarproject.briar.api.forum.ForumManager
 import org.briarproject.briar.headless.ControllerTest
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
+import org.spongycastle.util.encoders.Base64.toBase64String
 
 internal class ForumControllerTest : ControllerTest() {
 
@@ -22,10 +25,34 @@ internal class ForumControllerTest : ControllerTest() {
 
     @Test
     fun list() {
-        every { forumManager.forums } returns listOf(forum)
-        every { ctx.json(listOf(forum.output())) } returns ctx
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("after") } returns null
+        every { forumManager.getForums(null, Int.MAX_VALUE) } returns listOf(forum)
+        val slot = expectJsonStream()
 
         controller.list(ctx)
+        assertJsonStreamEquals(listOf(forum.output()), slot)
+    }
+
+    @Test
+    fun listPage() {
+        val after = Forum(getGroup(getClientId(), 0), getRandomString(5), getRandomBytes(5))
+
+        every { ctx.queryParam("limit") } returns "1"
+        every { ctx.queryParam("after") } returns toBase64String(after.id.bytes)
+        every { forumManager.getForums(after.id, 1) } returns listOf(forum)
+        val slot = expectJsonStream()
+
+        controller.list(ctx)
+        assertJsonStreamEquals(listOf(forum.output()), slot)
+    }
+
+    @Test
+    fun listPageWithInvalidAfter() {
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("after") } returns "foo"
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
     }
 
     @Test
@@ -10,6 +10,7 @@ import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.identity.AuthorInfo
 import org.briarproject.bramble.api.identity.AuthorInfo.Status.UNVERIFIED
 import org.briarproject.bramble.api.identity.AuthorInfo.Status.VERIFIED
+import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.test.ImmediateExecutor
 import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.bramble.util.StringUtils.getRandomString
@@ -28,6 +29,7 @@ import org.briarproject.briar.headless.json.JsonDict
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
+import org.spongycastle.util.encoders.Base64.toBase64String
 
 internal class MessagingControllerImplTest : ControllerTest() {
 
@@ -65,11 +67,15 @@ internal class MessagingControllerImplTest : ControllerTest() {
     @Test
     fun list() {
         expectGetContact()
-        every { conversationManager.getMessageHeaders(contact.id) } returns listOf(header)
-        every { messagingManager.getMessageText(message.id) } returns text
-        every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
+        expectGetNewestPage()
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, null, DEFAULT_MESSAGE_PAGE_SIZE)
+        } returns listOf(header)
+        every { messagingManager.getMessageTexts(listOf(message.id)) } returns mapOf(message.id to text)
+        val slot = expectJsonStream()
 
         controller.list(ctx)
+        assertJsonStreamEquals(listOf(header.output(contact.id, text)), slot)
     }
 
     @Test
@@ -80,20 +86,94 @@ internal class MessagingControllerImplTest : ControllerTest() {
         )
 
         expectGetContact()
-        every { conversationManager.getMessageHeaders(contact.id) } returns listOf(request)
-        every { ctx.json(listOf(request.output(contact.id))) } returns ctx
+        expectGetNewestPage()
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, null, DEFAULT_MESSAGE_PAGE_SIZE)
+        } returns listOf(request)
+        val slot = expectJsonStream()
 
         controller.list(ctx)
+        assertJsonStreamEquals(listOf(request.output(contact.id)), slot)
     }
 
     @Test
     fun testEmptyList() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact
-        every { conversationManager.getMessageHeaders(contact.id) } returns emptyList()
-        every { ctx.json(emptyList<Any>()) } returns ctx
+        expectGetNewestPage()
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, null, DEFAULT_MESSAGE_PAGE_SIZE)
+        } returns emptyList()
+        val slot = expectJsonStream()
+
+        controller.list(ctx)
+        assertJsonStreamEquals(emptyList(), slot)
+    }
+
+    @Test
+    fun listPage() {
+        val beforeId = MessageId(getRandomId())
+        val header1 = PrivateMessageHeader(
+            MessageId(getRandomId()), group.id, timestamp - 1, true, true, true, true, true,
+            emptyList()
+        )
+        expectGetContact()
+        every { ctx.queryParam("limit") } returns "2"
+        every { ctx.queryParam("beforeTimestamp") } returns timestamp.toString()
+        every { ctx.queryParam("beforeId") } returns toBase64String(beforeId.bytes)
+        every {
+            conversationManager.getMessageHeaders(contact.id, timestamp, beforeId, 2)
+        } returns listOf(header, header1)
+        every {
+            messagingManager.getMessageTexts(listOf(header1.id, message.id))
+        } returns mapOf(message.id to text, header1.id to text)
+        val slot = expectJsonStream()
+
+        controller.list(ctx)
+        // The page is returned oldest first
+        assertJsonStreamEquals(
+            listOf(header1.output(contact.id, text), header.output(contact.id, text)), slot
+        )
+    }
+
+    @Test
+    fun listNewestPage() {
+        expectGetContact()
+        every { ctx.queryParam("limit") } returns "1"
+        every { ctx.queryParam("beforeTimestamp") } returns null
+        every { ctx.queryParam("beforeId") } returns null
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, null, 1)
+        } returns listOf(header)
+        every { messagingManager.getMessageTexts(listOf(message.id)) } returns mapOf(message.id to text)
+        val slot = expectJsonStream()
 
         controller.list(ctx)
+        assertJsonStreamEquals(listOf(header.output(contact.id, text)), slot)
+    }
+
+    @Test
+    fun listPageWithInvalidLimit() {
+        expectGetContact()
+        every { ctx.queryParam("limit") } returns "0"
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    @Test
+    fun listPageWithInvalidBeforeId() {
+        expectGetContact()
+        every { ctx.queryParam("limit") } returns "1"
+        every { ctx.queryParam("beforeTimestamp") } returns null
+        every { ctx.queryParam("beforeId") } returns toBase64String(getRandomId().copyOf(3))
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    private fun expectGetNewestPage() {
+        every { ctx.queryParam("limit") } returns null
+        every { ctx.queryParam("beforeTimestamp") } returns null
+        every { ctx.queryParam("beforeId") } returns null
     }
 
     @Test
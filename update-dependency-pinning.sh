@@ -6,6 +6,7 @@ PROJECTS=(
     'bramble-core'
     'bramble-android'
     'bramble-java'
+    'bramble-benchmark'
     'briar-api'
     'briar-core'
     'briar-android'